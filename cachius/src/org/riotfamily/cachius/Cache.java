@@ -1,11 +1,13 @@
 package org.riotfamily.cachius;
 
-import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.riotfamily.cachius.eviction.EvictionPolicy;
 import org.riotfamily.cachius.invalidation.ItemIndex;
+import org.riotfamily.cachius.stats.RegionStats;
 
 public final class Cache {
 	
@@ -13,19 +15,35 @@ public final class Cache {
 	
 	private ItemIndex index;
 	
+	private EvictionPolicy evictionPolicy;
+	
 	private ConcurrentHashMap<String, CacheEntry> map =
 			new ConcurrentHashMap<String, CacheEntry>();
 	
 	private AtomicInteger size = new AtomicInteger();
 	
+	private AtomicLong weight = new AtomicLong();
+	
 	private CleanUpThread cleanUpThread = new CleanUpThread();
+	
+	private RegionStats stats = new RegionStats(this);
 
 	public Cache(Region region, ItemIndex index) {
 		this.region = region;
 		this.index = index;
+		this.evictionPolicy = region.getEvictionPolicy();
+		evictionPolicy.setMaximumSize(region.getSizeAfterCleanup());
 		cleanUpThread.start();
 	}
 
+	public Region getRegion() {
+		return region;
+	}
+	
+	public RegionStats getStats() {
+		return stats;
+	}
+	
 	/**
 	 * Returns the CacheItem with the given key or creates a new one, if no
 	 * entry with that key exists.
@@ -41,10 +59,12 @@ public final class Cache {
 				CacheEntry oldEntry = map.putIfAbsent(key, newEntry);
 				if (oldEntry == null) {
 					size.incrementAndGet();
+					evictionPolicy.entryAdded(newEntry);
 					checkCapacity();
 					return newEntry;
 				}
 				else {
+					evictionPolicy.entryAccessed(oldEntry);
 					return oldEntry;
 				}
 			}
@@ -54,25 +74,98 @@ public final class Cache {
 			}
 		}
 		else {
+			evictionPolicy.entryAccessed(entry);
 			return entry;
 		}
 	}
 	
+	/**
+	 * Adds an entry for an item that has been restored from a snapshot. 
+	 * The entry takes over the caller's reference to the item.
+	 * 
+	 * @return <code>false</code> if the item was not added because an entry
+	 *         with the same key already exists or the region is full, in 
+	 *         which case the caller still holds the reference
+	 */
+	boolean restoreEntry(CacheItem item) {
+		if (region.isExceeded(size.get() + 1, weight.get())) {
+			return false;
+		}
+		CacheEntry entry = new CacheEntry(item.getKey(), item);
+		if (map.putIfAbsent(item.getKey(), entry) != null) {
+			return false;
+		}
+		size.incrementAndGet();
+		evictionPolicy.entryAdded(entry);
+		updateWeight(entry);
+		return true;
+	}
+	
+	/**
+	 * Returns all entries. The collection reflects concurrent modifications.
+	 */
+	Collection<CacheEntry> getEntries() {
+		return map.values();
+	}
+	
 	/**
 	 * Removes the given item from the cache.
 	 */
 	private void removeEntry(CacheEntry entry) {
-		map.remove(entry.getKey());
-		size.decrementAndGet();
-		index.remove(entry.getItem());
-		entry.delete();
+		if (map.remove(entry.getKey(), entry)) {
+			size.decrementAndGet();
+			synchronized (entry) {
+				entry.setRemoved();
+				weight.addAndGet(-entry.getWeight());
+				entry.setWeight(0);
+			}
+			evictionPolicy.entryRemoved(entry);
+			index.remove(entry.getItem());
+			entry.delete();
+		}
+	}
+	
+	/**
+	 * Re-calculates the weight of the given entry's item and adjusts the 
+	 * total weight of the cache accordingly. Must be invoked whenever a new 
+	 * item has been set.
+	 */
+	void updateWeight(CacheEntry entry) {
+		long delta;
+		synchronized (entry) {
+			if (entry.isRemoved()) {
+				return;
+			}
+			long newWeight = region.getWeigher().weigh(entry.getItem());
+			delta = newWeight - entry.getWeight();
+			entry.setWeight(newWeight);
+		}
+		if (delta != 0) {
+			weight.addAndGet(delta);
+			checkCapacity();
+		}
 	}
 	
 	/**
-	 * Notifies the clean-up thread when the capacity is exceeded.
+	 * Returns the number of entries.
+	 */
+	public int getSize() {
+		return size.get();
+	}
+	
+	/**
+	 * Returns the total weight of all items.
+	 */
+	public long getWeight() {
+		return weight.get();
+	}
+	
+	/**
+	 * Notifies the clean-up thread when the capacity or the maximum weight 
+	 * is exceeded.
 	 */
 	private void checkCapacity() {
-		if (size.get() >= region.getCapacity()) {
+		if (region.isExceeded(size.get(), weight.get())) {
 			synchronized (cleanUpThread) {
 				cleanUpThread.notify();
 			}
@@ -80,16 +173,23 @@ public final class Cache {
 	}
 	
 	/**
-	 * Removes items from the cache that haven't been used for a long time. The
-	 * number of items removed is <code>capacity * evictionFactor</code>.
+	 * Removes the items selected by the region's {@link EvictionPolicy} until
+	 * both, the number of items and their total weight, have been reduced by
+	 * the region's <code>evictionFactor</code>.
 	 */
 	private void cleanup() {
-		TreeSet<CacheEntry> entries = new TreeSet<CacheEntry>(map.values());
-		int i = region.getItemsToEvict();
-		Iterator<CacheEntry> it = entries.iterator();
-		while (it.hasNext() && i > 0) {
-			removeEntry(it.next());
-			i--;
+		region.logOverflow();
+		int targetSize = region.getSizeAfterCleanup();
+		long targetWeight = region.getWeightAfterCleanup();
+		while (size.get() > targetSize 
+				|| (targetWeight >= 0 && weight.get() > targetWeight)) {
+			
+			CacheEntry victim = evictionPolicy.nextVictim();
+			if (victim == null) {
+				break;
+			}
+			removeEntry(victim);
+			stats.addEviction();
 		}
 	}
 	
@@ -3,36 +3,54 @@ package org.riotfamily.cachius;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 /**
  * Class that is used as value object in the ConcurrentHashMap of a Cache.
- * Provides a ReadWriteLock to synchronize the access to the underlying 
- * CacheItem. Additionally it records when the item was accessed for the 
+ * Holds a reference to the current CacheItem which is replaced as a whole
+ * when the content is updated, so that readers never have to wait for a
+ * lock. A separate lock prevents concurrent threads from updating the
+ * same entry. Additionally it records when the item was accessed for the 
  * last time.
  */
-public class CacheEntry implements Serializable, Comparable<CacheEntry> {
+public class CacheEntry implements Serializable {
 	
 	/** The key used for lookups */
     private String key;
     
 	/** The actual item */
-    private CacheItem item;
+    private volatile CacheItem item;
     
     /** Time of the last access */
     private long lastAccess;
     
+    /** Weight of the item as last recorded by the Cache */
+    private long weight;
+    
+    /** Whether the entry has been removed from the Cache */
+    private volatile boolean removed;
+    
+    /** Whether a background revalidation of the entry has failed */
+    private transient volatile boolean backgroundRevalidationFailed;
+    
     /** 
-     * ReadWriteLock to prevent concurrent threads from updating
-     * the cached content while others are reading.
+     * Lock to prevent concurrent threads from updating the cached content
+     * at the same time.
      */
-    private transient ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    private transient ReentrantLock lock = new ReentrantLock();
     
     CacheEntry(String key) {
+    	this(key, new CacheItem(key));
+    }
+    
+    /**
+     * Creates an entry that takes over the caller's reference to the 
+     * given item.
+     */
+    CacheEntry(String key, CacheItem item) {
     	this.key = key;
-    	this.item = new CacheItem(key);
+    	this.item = item;
     }
     
     /**
@@ -42,23 +60,74 @@ public class CacheEntry implements Serializable, Comparable<CacheEntry> {
         return key;
     }
 	
+    /**
+     * Returns the current item. The item's data may be deleted at any time
+     * unless a reference is obtained via {@link #acquireItem()}.
+     */
     public CacheItem getItem() {
     	touch();
 		return item;
 	}
     
-    public void setItem(CacheItem item) {
+    /**
+     * Returns the current item after incrementing its reference count.
+     * Callers must invoke {@link CacheItem#release()} once they are done
+     * with the item.
+     */
+    CacheItem acquireItem() {
+    	touch();
+    	while (true) {
+    		CacheItem current = item;
+    		if (current.retain()) {
+    			return current;
+    		}
+    		// The item has been replaced and released in the meantime
+    	}
+    }
+    
+    /**
+     * Replaces the current item. The entry takes over the caller's reference
+     * to the new item and releases its reference to the previous one.
+     * Callers must hold the {@link #getLock() lock}.
+     */
+    void publishItem(CacheItem newItem) {
     	touch();
-		this.item = item;
+    	CacheItem previous = item;
+		item = newItem;
+		previous.release();
 	}
     
 	/**
-	 * Returns the lock. 
+	 * Returns the lock that must be held while updating the item. 
 	 */
-	protected ReentrantReadWriteLock getLock() {
+	protected ReentrantLock getLock() {
 		return this.lock;
 	}
 	
+	long getWeight() {
+		return weight;
+	}
+
+	void setWeight(long weight) {
+		this.weight = weight;
+	}
+
+	boolean isRemoved() {
+		return removed;
+	}
+
+	void setRemoved() {
+		this.removed = true;
+	}
+	
+	boolean isBackgroundRevalidationFailed() {
+		return backgroundRevalidationFailed;
+	}
+
+	void setBackgroundRevalidationFailed() {
+		this.backgroundRevalidationFailed = true;
+	}
+	
 	/**
      * Sets the lastAccess timestamp to the current time.
      */
@@ -73,14 +142,17 @@ public class CacheEntry implements Serializable, Comparable<CacheEntry> {
 		return this.lastAccess;
 	}
 		
+	/**
+	 * Replaces the item by an empty one and releases the entry's reference.
+	 * The data is deleted as soon as no other thread is serving it anymore.
+	 */
 	protected void delete() {
-    	WriteLock writeLock = lock.writeLock();
-    	writeLock.lock();
+		lock.lock();
     	try {
-    		item.delete();
+    		publishItem(new CacheItem(key));
         }
         finally {
-            writeLock.unlock();
+            lock.unlock();
         }
     }
 	
@@ -91,7 +163,7 @@ public class CacheEntry implements Serializable, Comparable<CacheEntry> {
             ClassNotFoundException {
          
          in.defaultReadObject();
-         lock = new ReentrantReadWriteLock(true);
+         lock = new ReentrantLock();
     }
     
     @Override
@@ -116,9 +188,4 @@ public class CacheEntry implements Serializable, Comparable<CacheEntry> {
     	return key;
     }
 
-	public int compareTo(CacheEntry that) {
-		long l1 = this.lastAccess;
-		long l2 = that.lastAccess;
-		return (l1 < l2 ? -1 : (l1 == l2 ? 0 : 1));
-	}
 }
@@ -1,10 +1,13 @@
 package org.riotfamily.cachius;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.riotfamily.cachius.persistence.Deleteable;
 import org.slf4j.Logger;
@@ -15,7 +18,7 @@ import org.slf4j.LoggerFactory;
  */
 public class CacheItem implements Serializable {
 
-	private Logger log = LoggerFactory.getLogger(CacheItem.class);
+	private static Logger log = LoggerFactory.getLogger(CacheItem.class);
 	
 	private String key;
 	
@@ -28,7 +31,7 @@ public class CacheItem implements Serializable {
     private long expires = -1;
     
     /** Whether the item has been invalidated */
-    private boolean invalidated;
+    private volatile boolean invalidated;
     
     /** Whether the content contains an error */
     private boolean error;
@@ -48,14 +51,43 @@ public class CacheItem implements Serializable {
     /** Set of files involved in the creation of the cached data */
     private Set<File> involvedFiles;
     
+    /** 
+     * Number of references to the data. Shared by all items that have been 
+     * created via the {@link #CacheItem(CacheItem) copy constructor}.
+     */
+    private AtomicInteger references;
+    
+    /**
+     * Creates a new item. The caller holds the first reference.
+     */
     public CacheItem(String key) {
     	this.key = key;
     	this.lastModified = System.currentTimeMillis();
+    	this.references = new AtomicInteger(1);
     }
     
+    /**
+     * Creates a new item that shares the data of the given one. The caller 
+     * must hold a reference to the old item and will hold a reference to
+     * the new one. The data is not deleted until both items are released.
+     */
     public CacheItem(CacheItem old) {
-    	this(old.key);
+    	this.key = old.key;
+    	this.lastModified = System.currentTimeMillis();
     	this.data = old.data;
+    	this.references = old.references;
+    	references.incrementAndGet();
+    }
+    
+    /**
+     * Calls <code>in.defaultReadObject()</code> and resets the reference
+     * count, so that the deserialized item is held by the caller only.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, 
+    		ClassNotFoundException {
+    	
+    	in.defaultReadObject();
+    	references = new AtomicInteger(1);
     }
     
     /**
@@ -197,7 +229,34 @@ public class CacheItem implements Serializable {
 		}
 	}
 	
-	public void delete() {
+	/**
+	 * Increments the reference count, unless the item has already been 
+	 * released by all holders. 
+	 * @return <code>true</code> if a reference could be obtained
+	 */
+	public boolean retain() {
+		while (true) {
+			int count = references.get();
+			if (count == 0) {
+				return false;
+			}
+			if (references.compareAndSet(count, count + 1)) {
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Decrements the reference count and deletes the data once it drops 
+	 * to zero.
+	 */
+	public void release() {
+		if (references.decrementAndGet() == 0) {
+			delete();
+		}
+	}
+	
+	private void delete() {
 		if (data instanceof Deleteable) {
 			((Deleteable) data).delete();
 		}
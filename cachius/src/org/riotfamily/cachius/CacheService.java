@@ -1,17 +1,20 @@
 package org.riotfamily.cachius;
 
+import java.io.File;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.riotfamily.cachius.invalidation.DefaultItemInvalidator;
 import org.riotfamily.cachius.invalidation.ItemIndex;
 import org.riotfamily.cachius.invalidation.ItemInvalidator;
 import org.riotfamily.cachius.persistence.DiskStore;
 import org.riotfamily.cachius.persistence.SimpleDiskStore;
+import org.riotfamily.cachius.stats.InvalidationStats;
+import org.riotfamily.cachius.stats.RegionStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,6 +30,16 @@ public class CacheService {
 	private ItemIndex index = new ItemIndex();
 	
 	private ItemInvalidator invalidator = new DefaultItemInvalidator();
+	
+	private RevalidationExecutor revalidationExecutor;
+	
+	private InvalidationStats invalidationStats = new InvalidationStats();
+	
+	private CacheSnapshot snapshot;
+	
+	private long snapshotInterval = 15 * 60 * 1000;
+	
+	private SnapshotThread snapshotThread;
 
 	public CacheService() {
 		this(new SimpleDiskStore());
@@ -43,6 +56,59 @@ public class CacheService {
 		}
 	}
 
+	/**
+	 * Sets the file where the cached items are persisted, so that they 
+	 * survive a restart. The items are restored by {@link #init()} and 
+	 * written by {@link #destroy()} as well as periodically. Default is 
+	 * <code>null</code>, which means that the cache is empty after a restart.
+	 * <p>
+	 * Note: In order to be restored, the cached content must be stored in
+	 * a persistent location, which is not the case for a 
+	 * {@link SimpleDiskStore} that uses the default temp directory.  
+	 */
+	public void setSnapshotFile(File snapshotFile) {
+		this.snapshot = snapshotFile != null 
+				? new CacheSnapshot(snapshotFile) : null;
+	}
+	
+	/**
+	 * Sets the interval in milliseconds at which the snapshot is written. 
+	 * Default is 15 minutes. A value of zero disables periodic snapshots.
+	 */
+	public void setSnapshotInterval(long snapshotInterval) {
+		this.snapshotInterval = snapshotInterval;
+	}
+	
+	/**
+	 * Sets the executor that is used to revalidate stale items in the 
+	 * background. If set, items that are marked as 
+	 * {@link CacheItem#isServeStaleWhileRevalidate() serveStaleWhileRevalidate}
+	 * are updated by a worker thread while all requests (including the one
+	 * that triggered the update) are served the stale content. This only 
+	 * works for {@link DetachableCacheHandler}s. If a background update 
+	 * fails, the entry is updated by the requesting thread from then on.
+	 * Default is <code>null</code>, which means that the first request that 
+	 * encounters a stale item has to perform the update.
+	 */
+	public void setRevalidationExecutor(RevalidationExecutor revalidationExecutor) {
+		this.revalidationExecutor = revalidationExecutor;
+	}
+	
+	public RevalidationExecutor getRevalidationExecutor() {
+		return revalidationExecutor;
+	}
+
+	public InvalidationStats getInvalidationStats() {
+		return invalidationStats;
+	}
+	
+	/**
+	 * Returns the caches of all configured regions.
+	 */
+	public Collection<Cache> getCaches() {
+		return Collections.unmodifiableCollection(caches.values());
+	}
+	
 	public Cache getCache(String region) {
 		if (region == null) {
 			region = "default";
@@ -81,174 +147,422 @@ public class CacheService {
             handler.handleUncached();
         }
         else {
-        	CacheItem item = entry.getItem();
-        	if (item.isUpToDate(handler)) {
-        		//stats.addHit();
-        		log.debug("Serving cached content: {}", entry.getKey());
-        		serveData(handler, entry);
+        	RegionStats stats = getCache(handler.getCacheRegion()).getStats();
+        	boolean upToDate;
+        	CacheItem item = entry.acquireItem();
+        	try {
+	        	upToDate = item.isUpToDate(handler);
+	        	if (upToDate) {
+	        		stats.addHit();
+	        		log.debug("Serving cached content: {}", entry.getKey());
+	        		serveItem(handler, item);
+	        	}
         	}
-        	else {
-        		//stats.addMiss();
-        		capture(entry, handler);        		        			
+        	finally {
+        		item.release();
+        	}
+        	if (!upToDate) {
+        		stats.addMiss();
+        		capture(entry, handler);
         	}
         }
 	}
 	
 	private void capture(CacheEntry entry, CacheHandler handler) throws Exception {
+		Cache cache = getCache(handler.getCacheRegion());
     	CacheItem item = entry.getItem();
-		long t1 = System.currentTimeMillis();
     	if (item != null && item.isServeStaleWhileRevalidate()) {
-    		nonBlockingCapture(entry, handler);
+    		if (!revalidateInBackground(cache, entry, handler)) {
+    			nonBlockingCapture(cache.getStats(), entry, handler);
+    		}
     	}
     	else {
-    		blockingCapture(entry, handler);
+    		blockingCapture(cache.getStats(), entry, handler);
     	}
-    	long t2 = System.currentTimeMillis();
-    	//stats.itemUpdated(item, t2 - t1);
+    	cache.updateWeight(entry);
     }
 	
-	 private void nonBlockingCapture(CacheEntry entry, CacheHandler handler)
-	 		throws Exception {
-	    	
-    	CacheItem oldItem;
-    	// Acquire a write-lock to replace the item by a temporary one
-    	// that serves the old data.
-    	WriteLock writeLock = entry.getLock().writeLock();
-		writeLock.lock();
+	/**
+	 * Submits a task to the {@link RevalidationExecutor} that updates the 
+	 * entry using a detached copy of the handler and serves the stale data.
+	 * 
+	 * @return <code>false</code> if the item could not be revalidated in the 
+	 *         background, in which case nothing has been served
+	 */
+	private boolean revalidateInBackground(final Cache cache, 
+			final CacheEntry entry, CacheHandler handler) throws Exception {
+		
+		if (revalidationExecutor == null 
+				|| !(handler instanceof DetachableCacheHandler)
+				|| entry.isBackgroundRevalidationFailed()) {
+			
+			return false;
+		}
+		// Obtain the stale item before the task is submitted, as the worker
+		// might otherwise replace it before it is served
+		CacheItem staleItem = entry.acquireItem();
+		try {
+			if (!revalidationExecutor.isPending(entry.getKey())) {
+				final CacheHandler detachedHandler = 
+						((DetachableCacheHandler) handler).detach();
+				
+				if (detachedHandler == null) {
+					return false;
+				}
+				boolean submitted = revalidationExecutor.submit(entry.getKey(), 
+						new Runnable() {
+							public void run() {
+								revalidate(cache, entry, detachedHandler);
+							}
+						});
+				
+				if (!submitted) {
+					return false;
+				}
+			}
+			log.debug("Serving stale content while revalidating {}", entry.getKey());
+			cache.getStats().addStaleServe();
+			serveItem(handler, staleItem);
+		}
+		finally {
+			staleItem.release();
+		}
+		return true;
+	}
+	
+	/**
+	 * Updates the given entry. Invoked by the {@link RevalidationExecutor}.
+	 */
+	private void revalidate(Cache cache, CacheEntry entry, CacheHandler handler) {
+		CacheItem oldItem;
+		ReentrantLock lock = entry.getLock();
+		lock.lock();
 		try {
 			oldItem = entry.getItem();
-			if (oldItem.isUpToDate(handler)) {
+			if (entry.isRemoved() || oldItem.isUpToDate(handler)) {
 				log.debug("Item has already been updated by another thread");
-				serveData(handler, entry);
 				return;
 			}
+			oldItem.retain();
+		}
+		finally {
+			lock.unlock();
+		}
+		
+		log.debug("Updating {} (background)", entry.getKey());
+		cache.getStats().addBackgroundCapture();
+		
+		CacheItem newItem = new CacheItem(entry.getKey());
+		try {
+			updateInContext(cache.getStats(), handler, newItem);
+		}
+		catch (Exception e) {
+			log.error("Failed to revalidate " + entry.getKey() 
+					+ " in the background, falling back to synchronous "
+					+ "revalidation", e);
+			
+			entry.setBackgroundRevalidationFailed();
+			revalidationExecutor.addFailure();
+			newItem.release();
+			oldItem.release();
+			return;
+		}
+		
+		lock.lock();
+		try {
+			replaceItem(entry, oldItem, newItem).release();
+		}
+		finally {
+			lock.unlock();
+		}
+		cache.updateWeight(entry);
+	}
+	
+	private void nonBlockingCapture(RegionStats stats, CacheEntry entry, 
+			CacheHandler handler) throws Exception {
+		
+		CacheItem oldItem;
+		// Acquire the lock to replace the item by a temporary one
+		// that serves the old data.
+		ReentrantLock lock = entry.getLock();
+		lock.lock();
+		try {
+			oldItem = entry.getItem();
+			if (oldItem.isUpToDate(handler)) {
+				oldItem = null;
+			}
 			else {
-				entry.setItem(new CacheItem(oldItem));					
+				oldItem.retain();
+				entry.publishItem(new CacheItem(oldItem));
 			}
 		}
 		finally {
-			// Release the write-lock unless it was already released by serveCacheEntry()
-			if (entry.getLock().isWriteLockedByCurrentThread()) {
-				writeLock.unlock();
-			}
+			lock.unlock();
+		}
+		
+		if (oldItem == null) {
+			log.debug("Item has already been updated by another thread");
+			serveData(handler, entry);
+			return;
 		}
 		
 		log.debug("Updating {} (non-blocking)", entry.getKey());
+		stats.addNonBlockingCapture();
 		
 		// Create a new CacheItem and capture the content ...
 		CacheItem newItem = new CacheItem(entry.getKey());
-
-		updateInContext(handler, newItem);
+		try {
+			updateInContext(stats, handler, newItem);
+		}
+		catch (Exception e) {
+			// Put the stale item back so that the next request tries again
+			newItem.release();
+			lock.lock();
+			try {
+				restoreItem(entry, oldItem);
+			}
+			finally {
+				lock.unlock();
+			}
+			throw e;
+		}
 		
-		// Acquire a write-lock again to swap the CacheItems
-		writeLock = entry.getLock().writeLock();
-		writeLock.lock();
+		// Acquire the lock again to swap the CacheItems
+		CacheItem servedItem;
+		lock.lock();
 		try {
-			replaceItemAndServeData(entry, handler, oldItem, newItem);
+			servedItem = replaceItem(entry, oldItem, newItem);
 		}
 		finally {
-			// The lock should have already been released by serveCacheEntry(),
-			// but in case an exception was thrown before, make sure the entry is unlocked.
-			if (entry.getLock().isWriteLockedByCurrentThread()) {
-				writeLock.unlock();
-			}
-		}	
+			lock.unlock();
+		}
+		serveAndRelease(handler, servedItem);
 	}
 	 
-    private void blockingCapture(CacheEntry entry, CacheHandler handler)
-    		throws Exception {
+    private void blockingCapture(RegionStats stats, CacheEntry entry, 
+    		CacheHandler handler) throws Exception {
     	
-    	WriteLock writeLock = entry.getLock().writeLock();
-		writeLock.lock();
+    	CacheItem servedItem = null;
+    	ReentrantLock lock = entry.getLock();
+		lock.lock();
 		try {
 			CacheItem oldItem = entry.getItem();
-			if (oldItem.isUpToDate(handler)) {
-				log.debug("Item has already been updated by another thread");
-				serveData(handler, entry);
-			}
-			else {
+			if (!oldItem.isUpToDate(handler)) {
 				// Item is stale and must be revalidated
 				log.debug("Updating {} (blocking)", entry.getKey());
+				stats.addBlockingCapture();
+				oldItem.retain();
 				CacheItem newItem = new CacheItem(entry.getKey());
-				updateInContext(handler, newItem);
-				replaceItemAndServeData(entry, handler, oldItem, newItem);
+				try {
+					updateInContext(stats, handler, newItem);
+				}
+				catch (Exception e) {
+					newItem.release();
+					oldItem.release();
+					throw e;
+				}
+				servedItem = replaceItem(entry, oldItem, newItem);
 			}
 		}
 		finally {
-			// The lock should have already been released by serveData(),
-			// but in case an exception was thrown before, make sure the entry is unlocked.
-			if (entry.getLock().isWriteLockedByCurrentThread()) {
-				writeLock.unlock();
-			}
+			lock.unlock();
+		}
+		
+		if (servedItem == null) {
+			log.debug("Item has already been updated by another thread");
+			serveData(handler, entry);
+		}
+		else {
+			serveAndRelease(handler, servedItem);
 		}
     }
     
-    private void updateInContext(CacheHandler handler, CacheItem newItem)
-    		throws Exception {
+    private void updateInContext(RegionStats stats, CacheHandler handler, 
+    		CacheItem newItem) throws Exception {
     	
     	CacheItem parent = CacheContext.getItem();
+    	long t1 = System.currentTimeMillis();
     	try { 
 	    	CacheContext.setItem(newItem);
 			newItem.setData(handler.capture(diskStore));
     	}
+    	catch (Exception e) {
+    		stats.addCaptureError();
+    		throw e;
+    	}
     	finally {
     		CacheContext.setItem(parent);
+    		stats.addCaptureTime(System.currentTimeMillis() - t1);
+    	}
+    	if (newItem.isError()) {
+    		stats.addCaptureError();
     	}
     }
     
-    private void replaceItemAndServeData(CacheEntry entry, CacheHandler handler,
-			CacheItem oldItem, CacheItem newItem) throws Exception {
-		
-		if (!newItem.isError() || !oldItem.isServeStaleOnError()) {
-			entry.setItem(newItem);
-		}
-		serveData(handler, entry);
+    /**
+     * Publishes the newly captured item unless it contains an error or the
+     * entry has been removed in the meantime. The caller must hold the 
+     * entry's lock as well as a reference to both items, which are passed
+     * on or released by this method. 
+     * 
+     * @return The item that should be served to the current client, with a 
+     *         reference held on behalf of the caller
+     */
+    private CacheItem replaceItem(CacheEntry entry, CacheItem oldItem, 
+    		CacheItem newItem) {
 		
-		if (newItem.isError()) {
-			entry.setItem(oldItem);
-			newItem.delete();
+    	CacheItem servedItem = newItem;
+		if (newItem.isError() || entry.isRemoved()) {
+			if (newItem.isError() && oldItem.isServeStaleOnError()) {
+				servedItem = oldItem;
+				oldItem.retain();
+			}
+			else {
+				newItem.retain();
+			}
+			newItem.release();
+			restoreItem(entry, oldItem);
 		}
 		else {
+			newItem.retain();
+			entry.publishItem(newItem);
 			index.remove(oldItem);
 			index.add(newItem);
-			oldItem.delete();
+			oldItem.release();
 		}
+		return servedItem;
 	}
     
     /**
-     * Serves the cached content. Acquires a read-lock for the given entry.
-     * if the current thread already has a write-lock, the lock is down-graded.
-     * When the method returns, all locks will be released.
+     * Puts the given item back into the entry (unless it has been removed)
+     * and releases the caller's reference.
+     */
+    private void restoreItem(CacheEntry entry, CacheItem oldItem) {
+    	if (entry.getItem() != oldItem && !entry.isRemoved()) {
+    		entry.publishItem(oldItem);
+    	}
+    	else {
+    		oldItem.release();
+    	}
+    }
+    
+    /**
+     * Serves the entry's current item. No locks are acquired, instead the 
+     * item's reference count is incremented to prevent the data from being
+     * deleted while it is served.
      */
     private void serveData(CacheHandler handler, CacheEntry entry) 
     		throws Exception {
     	
-		ReadLock readLock = entry.getLock().readLock();
-        readLock.lock();
-        try {
-        	if (entry.getLock().isWriteLockedByCurrentThread()) {
-        		entry.getLock().writeLock().unlock();
-        	}
-        	CacheItem item = entry.getItem();
-        	handler.serve(item.getData());
-        	CacheItem parentItem = CacheContext.getItem();
-        	if (parentItem != null) {
-        		parentItem.addAll(item);
-        	}
-        }
-        finally {
-        	readLock.unlock();	
-        }
+    	serveAndRelease(handler, entry.acquireItem());
+    }
+    
+    private void serveAndRelease(CacheHandler handler, CacheItem item)
+    		throws Exception {
+    	
+    	try {
+    		serveItem(handler, item);
+    	}
+    	finally {
+    		item.release();
+    	}
+    }
+    
+    private void serveItem(CacheHandler handler, CacheItem item) 
+    		throws Exception {
+    	
+    	handler.serve(item.getData());
+    	CacheItem parentItem = CacheContext.getItem();
+    	if (parentItem != null) {
+    		parentItem.addAll(item);
+    	}
     }
 
 	public void invalidateTaggedItems(String tag) {
+		invalidationStats.addInvalidation(tag);
 		invalidator.invalidate(index, tag);
 	}
 
+	/**
+	 * Restores the items from the snapshot file (if set) and starts the 
+	 * thread that periodically writes the snapshot.
+	 */
+	public void init() {
+		if (snapshot != null) {
+			try {
+				snapshot.read(caches, index);
+			}
+			catch (Exception e) {
+				log.error("Failed to restore cached items", e);
+			}
+			if (snapshotInterval > 0) {
+				snapshotThread = new SnapshotThread();
+				snapshotThread.start();
+			}
+		}
+	}
+	
+	/**
+	 * Writes the snapshot (if a file has been set) and stops all threads.
+	 */
 	public void destroy() throws Exception {
+		if (snapshotThread != null) {
+			snapshotThread.shutdown();
+		}
+		if (revalidationExecutor != null) {
+			revalidationExecutor.shutdown();
+		}
+		if (snapshot != null) {
+			writeSnapshot();
+		}
 		for (Cache cache : caches.values()) {
 			cache.destroy();
 		}
 	}
+	
+	private void writeSnapshot() {
+		try {
+			snapshot.write(caches.values());
+		}
+		catch (Exception e) {
+			log.error("Failed to write snapshot", e);
+		}
+	}
+	
+	/**
+	 * Thread that periodically writes the snapshot.
+	 */
+	private class SnapshotThread extends Thread {
+		
+		private boolean running = true;
+		
+		public SnapshotThread() {
+			super("Cachius-Snapshot");
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			while (true) {
+				synchronized (this) {
+					try {
+						wait(snapshotInterval);
+					}
+					catch (InterruptedException e) {
+						break;
+					}
+					if (!running) {
+						break;
+					}
+				}
+				writeSnapshot();
+			}
+		}
+		
+		public synchronized void shutdown() {
+			running = false;
+			notify();
+		}
+	}
     
 }
@@ -0,0 +1,195 @@
+package org.riotfamily.cachius;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collection;
+import java.util.Map;
+
+import org.riotfamily.cachius.invalidation.ItemIndex;
+import org.riotfamily.cachius.persistence.Restorable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists the items of all caches, so that they can be restored after a
+ * restart. Only the metadata (tags, involved files, expiration) and the 
+ * data objects are written, the actual content remains in the files 
+ * provided by the {@link org.riotfamily.cachius.persistence.DiskStore}.
+ * <p>
+ * Each item is serialized separately, so that items which can't be 
+ * serialized or deserialized (for example because a class has changed 
+ * in the meantime) are skipped without affecting the other ones. 
+ * The snapshot is written to a temporary file which is renamed once it
+ * is complete.
+ */
+public class CacheSnapshot {
+
+	private static final int VERSION = 1;
+	
+	private Logger log = LoggerFactory.getLogger(CacheSnapshot.class);
+	
+	private File file;
+	
+	public CacheSnapshot(File file) {
+		this.file = file;
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Writes all items that contain data. Returns the number of items
+	 * that have been written.
+	 */
+	public synchronized int write(Collection<Cache> caches) throws IOException {
+		File tempFile = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tempFile)));
+		
+		int count = 0;
+		try {
+			out.writeInt(VERSION);
+			out.writeLong(System.currentTimeMillis());
+			for (Cache cache : caches) {
+				String region = cache.getRegion().getName();
+				for (CacheEntry entry : cache.getEntries()) {
+					byte[] bytes = serialize(entry);
+					if (bytes != null) {
+						out.writeUTF(region);
+						out.writeInt(bytes.length);
+						out.write(bytes);
+						count++;
+					}
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+		if (!tempFile.renameTo(file)) {
+			file.delete();
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Failed to rename " + tempFile + " to " + file);
+			}
+		}
+		log.info("Wrote {} items to {}", count, file);
+		return count;
+	}
+	
+	/**
+	 * Serializes the entry's current item, or returns <code>null</code> if
+	 * the item contains no data or can't be serialized. A reference to the
+	 * item is held while it is serialized, so that the data is not deleted 
+	 * in the meantime.
+	 */
+	private byte[] serialize(CacheEntry entry) {
+		CacheItem item = entry.acquireItem();
+		try {
+			if (item.getData() == null || item.isError()) {
+				return null;
+			}
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(buffer);
+			out.writeObject(item);
+			out.close();
+			return buffer.toByteArray();
+		}
+		catch (IOException e) {
+			log.warn("Failed to serialize {}: {}", entry.getKey(), e.getMessage());
+			return null;
+		}
+		finally {
+			item.release();
+		}
+	}
+	
+	/**
+	 * Restores the items written by {@link #write(Collection)}. Items whose
+	 * data is no longer available, or that belong to regions that don't 
+	 * exist anymore, are discarded. Returns the number of restored items.
+	 * 
+	 * @see Restorable
+	 */
+	public synchronized int read(Map<String, Cache> caches, ItemIndex index) 
+			throws IOException {
+		
+		if (!file.exists()) {
+			return 0;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		
+		int count = 0;
+		try {
+			if (in.readInt() != VERSION) {
+				log.info("Ignoring snapshot {} (unsupported version)", file);
+				return 0;
+			}
+			long snapshotTime = in.readLong();
+			while (true) {
+				String region;
+				try {
+					region = in.readUTF();
+				}
+				catch (EOFException e) {
+					break;
+				}
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				CacheItem item = deserialize(bytes);
+				if (item != null && restore(caches.get(region), index, item, 
+						snapshotTime)) {
+					
+					count++;
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		log.info("Restored {} items from {}", count, file);
+		return count;
+	}
+	
+	private CacheItem deserialize(byte[] bytes) {
+		try {
+			ObjectInputStream in = new ObjectInputStream(
+					new ByteArrayInputStream(bytes));
+			
+			return (CacheItem) in.readObject();
+		}
+		catch (Exception e) {
+			log.debug("Failed to deserialize item: {}", e.getMessage());
+			return null;
+		}
+	}
+	
+	private boolean restore(Cache cache, ItemIndex index, CacheItem item,
+			long snapshotTime) {
+		
+		Object data = item.getData();
+		if (cache != null && (!(data instanceof Restorable) 
+				|| ((Restorable) data).isRestorable(snapshotTime))) {
+			
+			if (cache.restoreEntry(item)) {
+				index.add(item);
+				return true;
+			}
+		}
+		item.release();
+		return false;
+	}
+	
+}
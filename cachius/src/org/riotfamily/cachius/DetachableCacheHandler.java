@@ -0,0 +1,23 @@
+package org.riotfamily.cachius;
+
+/**
+ * CacheHandler that can create a copy of itself which remains usable after
+ * the current request has been completed. This allows the CacheService to 
+ * revalidate items in a background thread while the stale content is 
+ * served to the client.
+ * 
+ * @see CacheService#setRevalidationExecutor(RevalidationExecutor)
+ */
+public interface DetachableCacheHandler extends CacheHandler {
+
+	/**
+	 * Returns a handler that captures the same content as this one but
+	 * does not depend on any state that is bound to the current request.
+	 * The returned handler's {@link #serve(java.io.Serializable) serve} and
+	 * {@link #handleUncached()} methods will never be invoked. 
+	 * Implementors may return <code>null</code> if the content can't be
+	 * captured outside of the current request.
+	 */
+	public CacheHandler detach();
+
+}
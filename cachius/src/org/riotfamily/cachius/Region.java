@@ -12,6 +12,8 @@
  */
 package org.riotfamily.cachius;
 
+import org.riotfamily.cachius.eviction.EvictionPolicy;
+import org.riotfamily.cachius.eviction.TinyLfuEvictionPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +27,12 @@ public class Region {
 	
 	private double evictionFactor = 0.2;
 	
+	private long maxWeight;
+	
+	private Weigher weigher = new SizeWeigher();
+	
+	private EvictionPolicy evictionPolicy = new TinyLfuEvictionPolicy();
+	
 	private volatile long lastOverflow = System.currentTimeMillis();
 	
 	private volatile long averageOverflowInterval;
@@ -48,10 +56,71 @@ public class Region {
 	public void setEvictionFactor(double evictionFactor) {
 		this.evictionFactor = evictionFactor;
 	}
+	
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	/**
+	 * Sets the maximum total weight of all items in this region. When the
+	 * limit is exceeded, items are evicted until the weight drops below
+	 * <code>maxWeight * (1 - evictionFactor)</code>. Using the default
+	 * {@link SizeWeigher} the weight is the number of bytes occupied by the
+	 * cached content. A value of zero (the default) disables the limit, so
+	 * that only the {@link #setCapacity(int) capacity} is taken into account.
+	 */
+	public void setMaxWeight(long maxWeight) {
+		this.maxWeight = maxWeight;
+	}
+	
+	public Weigher getWeigher() {
+		return weigher;
+	}
+
+	/**
+	 * Sets the Weigher that is used to calculate the weight of the items.
+	 * Defaults to a {@link SizeWeigher}.
+	 */
+	public void setWeigher(Weigher weigher) {
+		this.weigher = weigher;
+	}
+
+	public EvictionPolicy getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	/**
+	 * Sets the policy that selects the items to evict when the capacity is
+	 * exceeded. Defaults to a {@link TinyLfuEvictionPolicy}.
+	 */
+	public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+		this.evictionPolicy = evictionPolicy;
+	}
 
-	public int getItemsToEvict() {
-		logOverflow();
-		return (int) Math.ceil(capacity * evictionFactor);
+	/**
+	 * Returns the number of items that remain in the cache after a clean-up.
+	 */
+	public int getSizeAfterCleanup() {
+		return capacity - (int) Math.ceil(capacity * evictionFactor);
+	}
+	
+	/**
+	 * Returns the total weight that remains in the cache after a clean-up, 
+	 * or <code>-1</code> if the weight is not limited.
+	 */
+	public long getWeightAfterCleanup() {
+		if (maxWeight <= 0) {
+			return -1;
+		}
+		return maxWeight - (long) Math.ceil(maxWeight * evictionFactor);
+	}
+	
+	/**
+	 * Returns whether the given number of items or their total weight 
+	 * exceeds the limits of this region.
+	 */
+	public boolean isExceeded(int size, long weight) {
+		return size >= capacity || (maxWeight > 0 && weight > maxWeight);
 	}
 	
 	public void logOverflow() {
@@ -0,0 +1,150 @@
+package org.riotfamily.cachius;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor that revalidates stale CacheItems in the background. Tasks are 
+ * queued in a bounded queue, so that a large number of items becoming stale
+ * at the same time (for example after a publish event) can't exhaust the
+ * available memory. At most one task per cache key is pending at any time.
+ */
+public class RevalidationExecutor implements RevalidationExecutorMBean {
+
+	private Logger log = LoggerFactory.getLogger(RevalidationExecutor.class);
+	
+	private ConcurrentMap<String, Boolean> pendingKeys = 
+			new ConcurrentHashMap<String, Boolean>();
+	
+	private AtomicLong rejectedCount = new AtomicLong();
+	
+	private AtomicLong failedCount = new AtomicLong();
+	
+	private ThreadPoolExecutor executor;
+	
+	public RevalidationExecutor() {
+		this(Runtime.getRuntime().availableProcessors(), 1000);
+	}
+	
+	public RevalidationExecutor(int poolSize, int queueCapacity) {
+		executor = new ThreadPoolExecutor(poolSize, poolSize, 
+				60, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<Runnable>(queueCapacity),
+				new WorkerThreadFactory());
+	}
+	
+	/**
+	 * Submits a task that revalidates the item with the given key, unless a
+	 * task for the same key is already pending.
+	 * 
+	 * @return <code>true</code> if the task has been queued or an equivalent
+	 *         task is already pending, <code>false</code> if the queue is full
+	 */
+	public boolean submit(final String key, final Runnable task) {
+		if (pendingKeys.putIfAbsent(key, Boolean.TRUE) != null) {
+			log.debug("Revalidation of {} is already pending", key);
+			return true;
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						task.run();
+					}
+					finally {
+						pendingKeys.remove(key);
+					}
+				}
+			});
+			return true;
+		}
+		catch (RejectedExecutionException e) {
+			pendingKeys.remove(key);
+			rejectedCount.incrementAndGet();
+			log.debug("Revalidation queue is full, rejected {}", key);
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns whether a task for the given key is queued or running.
+	 */
+	public boolean isPending(String key) {
+		return pendingKeys.containsKey(key);
+	}
+	
+	/**
+	 * Returns the number of tasks that are waiting to be executed.
+	 */
+	public int getQueueSize() {
+		return executor.getQueue().size();
+	}
+	
+	/**
+	 * Returns the number of keys that are either queued or currently being
+	 * revalidated.
+	 */
+	public int getPendingCount() {
+		return pendingKeys.size();
+	}
+	
+	/**
+	 * Returns the number of tasks that have been rejected because the 
+	 * queue was full.
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+	
+	/**
+	 * Returns the number of tasks that have been completed so far.
+	 */
+	public long getCompletedCount() {
+		return executor.getCompletedTaskCount();
+	}
+	
+	/**
+	 * Returns the number of revalidations that have failed.
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+	
+	void addFailure() {
+		failedCount.incrementAndGet();
+	}
+	
+	/**
+	 * Stops accepting new tasks and waits up to 30 seconds for the currently 
+	 * running tasks to complete. Queued tasks are discarded.
+	 */
+	public void shutdown() throws InterruptedException {
+		executor.shutdown();
+		executor.getQueue().clear();
+		executor.awaitTermination(30, TimeUnit.SECONDS);
+	}
+	
+	private static class WorkerThreadFactory implements ThreadFactory {
+		
+		private AtomicInteger threadNumber = new AtomicInteger();
+		
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Cachius-Revalidation-" 
+					+ threadNumber.incrementAndGet());
+			
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+}
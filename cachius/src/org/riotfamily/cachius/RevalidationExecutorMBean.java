@@ -0,0 +1,18 @@
+package org.riotfamily.cachius;
+
+/**
+ * Management interface of the {@link RevalidationExecutor}.
+ */
+public interface RevalidationExecutorMBean {
+
+	public int getQueueSize();
+	
+	public int getPendingCount();
+	
+	public long getRejectedCount();
+	
+	public long getCompletedCount();
+	
+	public long getFailedCount();
+	
+}
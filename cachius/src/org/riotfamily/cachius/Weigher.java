@@ -0,0 +1,27 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+/**
+ * Strategy to calculate the weight of a CacheItem. The total weight of 
+ * all items in a {@link Region} can be limited via 
+ * {@link Region#setMaxWeight(long)}.
+ */
+public interface Weigher {
+
+	/**
+	 * Returns the weight of the given item. Must not be negative.
+	 */
+	public long weigh(CacheItem item);
+
+}
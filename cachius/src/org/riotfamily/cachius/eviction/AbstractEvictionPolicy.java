@@ -0,0 +1,164 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.eviction;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.riotfamily.cachius.CacheEntry;
+
+/**
+ * Base class for eviction policies that maintain a non thread-safe data
+ * structure. Notifications are recorded in concurrent buffers which are
+ * drained in batches by whichever thread manages to acquire the eviction
+ * lock, so that request threads never wait for each other.
+ * <p>
+ * Additions and removals are never discarded. Accesses are only hints and
+ * are dropped if the read buffer is full.
+ */
+public abstract class AbstractEvictionPolicy implements EvictionPolicy {
+
+	/** Number of pending reads that triggers a drain */
+	private static final int READ_DRAIN_THRESHOLD = 64;
+
+	/** Maximum number of pending reads, further reads are dropped */
+	private static final int MAX_PENDING_READS = 16 * 1024;
+
+	private ConcurrentLinkedQueue<CacheEntry> readBuffer =
+			new ConcurrentLinkedQueue<CacheEntry>();
+
+	private AtomicInteger pendingReads = new AtomicInteger();
+
+	private ConcurrentLinkedQueue<Write> writeBuffer =
+			new ConcurrentLinkedQueue<Write>();
+
+	private ReentrantLock evictionLock = new ReentrantLock();
+
+	private int maximumSize;
+
+	public void setMaximumSize(int maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+
+	protected int getMaximumSize() {
+		return maximumSize;
+	}
+
+	public final void entryAdded(CacheEntry entry) {
+		writeBuffer.offer(new Write(entry, true));
+		tryToDrainBuffers();
+	}
+
+	public final void entryRemoved(CacheEntry entry) {
+		writeBuffer.offer(new Write(entry, false));
+		tryToDrainBuffers();
+	}
+
+	public final void entryAccessed(CacheEntry entry) {
+		int pending = pendingReads.incrementAndGet();
+		if (pending > MAX_PENDING_READS) {
+			pendingReads.decrementAndGet();
+		}
+		else {
+			readBuffer.offer(entry);
+		}
+		if (pending >= READ_DRAIN_THRESHOLD) {
+			tryToDrainBuffers();
+		}
+	}
+
+	public final CacheEntry nextVictim() {
+		evictionLock.lock();
+		try {
+			drainBuffers();
+			return selectVictim();
+		}
+		finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Drains the buffers unless another thread is already doing so.
+	 */
+	private void tryToDrainBuffers() {
+		if (evictionLock.tryLock()) {
+			try {
+				drainBuffers();
+			}
+			finally {
+				evictionLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Replays the buffered notifications. Writes are applied first so that
+	 * reads refer to entries the policy already knows about.
+	 */
+	private void drainBuffers() {
+		Write write;
+		while ((write = writeBuffer.poll()) != null) {
+			if (write.added) {
+				onAdd(write.entry);
+			}
+			else {
+				onRemove(write.entry);
+			}
+		}
+		CacheEntry entry;
+		while ((entry = readBuffer.poll()) != null) {
+			pendingReads.decrementAndGet();
+			onAccess(entry);
+		}
+	}
+
+	/**
+	 * Adds the given entry to the policy's data structure. Invoked while
+	 * holding the eviction lock.
+	 */
+	protected abstract void onAdd(CacheEntry entry);
+
+	/**
+	 * Records an access of the given entry. Invoked while holding the
+	 * eviction lock. Implementations must ignore entries they don't know.
+	 */
+	protected abstract void onAccess(CacheEntry entry);
+
+	/**
+	 * Removes the given entry from the policy's data structure. Invoked
+	 * while holding the eviction lock. Implementations must ignore entries
+	 * they don't know.
+	 */
+	protected abstract void onRemove(CacheEntry entry);
+
+	/**
+	 * Removes and returns the next eviction candidate. Invoked while holding
+	 * the eviction lock.
+	 */
+	protected abstract CacheEntry selectVictim();
+
+	private static class Write {
+
+		private CacheEntry entry;
+
+		private boolean added;
+
+		Write(CacheEntry entry, boolean added) {
+			this.entry = entry;
+			this.added = added;
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.eviction;
+
+import org.riotfamily.cachius.CacheEntry;
+
+/**
+ * Doubly-linked list of {@link Node nodes} ordered from the least to the
+ * most recently used one. All operations run in constant time. The class
+ * is not thread-safe.
+ */
+class AccessOrderList {
+
+	private Node head = new Node(null);
+
+	private int size;
+
+	AccessOrderList() {
+		head.prev = head;
+		head.next = head;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the least recently used node or <code>null</code> if the list
+	 * is empty.
+	 */
+	public Node peekFirst() {
+		return size > 0 ? head.next : null;
+	}
+
+	public void addLast(Node node) {
+		node.list = this;
+		node.prev = head.prev;
+		node.next = head;
+		head.prev.next = node;
+		head.prev = node;
+		size++;
+	}
+
+	public void remove(Node node) {
+		node.prev.next = node.next;
+		node.next.prev = node.prev;
+		node.prev = null;
+		node.next = null;
+		node.list = null;
+		size--;
+	}
+
+	public void moveToLast(Node node) {
+		remove(node);
+		addLast(node);
+	}
+
+	/**
+	 * List element that wraps a CacheEntry.
+	 */
+	static class Node {
+
+		final CacheEntry entry;
+
+		AccessOrderList list;
+
+		Node prev;
+
+		Node next;
+
+		Node(CacheEntry entry) {
+			this.entry = entry;
+		}
+	}
+
+}
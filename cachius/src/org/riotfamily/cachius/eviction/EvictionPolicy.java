@@ -0,0 +1,55 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.eviction;
+
+import org.riotfamily.cachius.CacheEntry;
+
+/**
+ * Strategy that decides which entries are removed from a
+ * {@link org.riotfamily.cachius.Cache Cache} when the capacity of its
+ * {@link org.riotfamily.cachius.Region Region} is exceeded.
+ * <p>
+ * The notification methods are invoked by request threads and must
+ * therefore be cheap and thread-safe. Each policy instance keeps track of
+ * the entries of exactly one cache and must not be shared between regions.
+ */
+public interface EvictionPolicy {
+
+	/**
+	 * Sets the number of entries the cache is trimmed to when the capacity
+	 * is exceeded. Invoked once before any other method is called.
+	 */
+	public void setMaximumSize(int maximumSize);
+
+	/**
+	 * Invoked after a new entry has been added to the cache.
+	 */
+	public void entryAdded(CacheEntry entry);
+
+	/**
+	 * Invoked when an existing entry is looked up.
+	 */
+	public void entryAccessed(CacheEntry entry);
+
+	/**
+	 * Invoked after an entry has been removed from the cache.
+	 */
+	public void entryRemoved(CacheEntry entry);
+
+	/**
+	 * Selects the entry that should be evicted next and stops tracking it.
+	 * Returns <code>null</code> if the policy doesn't know any entries.
+	 */
+	public CacheEntry nextVictim();
+
+}
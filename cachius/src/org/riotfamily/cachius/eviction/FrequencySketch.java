@@ -0,0 +1,125 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.eviction;
+
+/**
+ * Count-Min sketch that estimates how often a key has been accessed
+ * recently. Each key is mapped to four 4-bit counters, so the popularity
+ * is capped at 15. When the number of recorded accesses reaches ten times
+ * the table size, all counters are halved in order to age out entries
+ * that were popular a long time ago. The class is not thread-safe.
+ */
+class FrequencySketch {
+
+	private static final long[] SEED = {
+		0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+		0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	private static final long ONE_MASK = 0x1111111111111111L;
+
+	private long[] table;
+
+	private int tableMask;
+
+	private int sampleSize;
+
+	private int size;
+
+	FrequencySketch() {
+		ensureCapacity(16);
+	}
+
+	/**
+	 * Resizes the sketch if it is too small to hold the given number of
+	 * keys. The previously recorded frequencies are discarded in this case.
+	 */
+	public void ensureCapacity(int maximumSize) {
+		int maximum = Math.min(Math.max(maximumSize, 16), Integer.MAX_VALUE >>> 1);
+		if (table != null && table.length >= maximum) {
+			return;
+		}
+		int length = Integer.highestOneBit(maximum - 1) << 1;
+		table = new long[length];
+		tableMask = length - 1;
+		sampleSize = 10 * length;
+		size = 0;
+	}
+
+	/**
+	 * Returns the estimated number of accesses of the given key.
+	 */
+	public int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		int frequency = Integer.MAX_VALUE;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Increments the popularity of the given key.
+	 */
+	public void increment(Object key) {
+		int hash = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+		if (added && ++size == sampleSize) {
+			reset();
+		}
+	}
+
+	private boolean incrementAt(int i, int j) {
+		int offset = j << 2;
+		long mask = (0xfL << offset);
+		if ((table[i] & mask) != mask) {
+			table[i] += (1L << offset);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Halves all counters.
+	 */
+	private void reset() {
+		int count = 0;
+		for (int i = 0; i < table.length; i++) {
+			count += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		size = (size >>> 1) - (count >>> 2);
+	}
+
+	private int indexOf(int item, int i) {
+		long hash = (item + SEED[i]) * SEED[i];
+		hash += (hash >>> 32);
+		return ((int) hash) & tableMask;
+	}
+
+	private static int spread(int x) {
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+
+}
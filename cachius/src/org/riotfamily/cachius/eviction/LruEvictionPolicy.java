@@ -0,0 +1,64 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.eviction;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.riotfamily.cachius.CacheEntry;
+import org.riotfamily.cachius.eviction.AccessOrderList.Node;
+
+/**
+ * EvictionPolicy that evicts the least recently used entries.
+ */
+public class LruEvictionPolicy extends AbstractEvictionPolicy {
+
+	private Map<CacheEntry, Node> nodes = new IdentityHashMap<CacheEntry, Node>();
+
+	private AccessOrderList list = new AccessOrderList();
+
+	@Override
+	protected void onAdd(CacheEntry entry) {
+		Node node = new Node(entry);
+		nodes.put(entry, node);
+		list.addLast(node);
+	}
+
+	@Override
+	protected void onAccess(CacheEntry entry) {
+		Node node = nodes.get(entry);
+		if (node != null) {
+			list.moveToLast(node);
+		}
+	}
+
+	@Override
+	protected void onRemove(CacheEntry entry) {
+		Node node = nodes.remove(entry);
+		if (node != null) {
+			list.remove(node);
+		}
+	}
+
+	@Override
+	protected CacheEntry selectVictim() {
+		Node node = list.peekFirst();
+		if (node == null) {
+			return null;
+		}
+		list.remove(node);
+		nodes.remove(node.entry);
+		return node.entry;
+	}
+
+}
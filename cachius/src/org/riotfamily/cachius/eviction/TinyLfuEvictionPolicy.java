@@ -0,0 +1,192 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.eviction;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.riotfamily.cachius.CacheEntry;
+import org.riotfamily.cachius.eviction.AccessOrderList.Node;
+
+/**
+ * Frequency-aware EvictionPolicy (W-TinyLFU). New entries are placed in a
+ * small LRU admission window. When the window overflows and the main area
+ * is full, the oldest window entry has to compete against the oldest entry
+ * of the main area: whichever has been requested less often according to
+ * a {@link FrequencySketch} is evicted. The main area is a segmented LRU
+ * consisting of a probation and a protected segment. Entries are promoted
+ * to the protected segment when they are accessed a second time.
+ * <p>
+ * This keeps popular pages cached while entries that are requested only
+ * once, as it's typically the case for crawler traffic, are evicted early.
+ */
+public class TinyLfuEvictionPolicy extends AbstractEvictionPolicy {
+
+	private double windowRatio = 0.01;
+
+	private double protectedRatio = 0.8;
+
+	private Map<CacheEntry, Node> nodes = new IdentityHashMap<CacheEntry, Node>();
+
+	private AccessOrderList window = new AccessOrderList();
+
+	private AccessOrderList probation = new AccessOrderList();
+
+	private AccessOrderList protectedSegment = new AccessOrderList();
+
+	private FrequencySketch sketch = new FrequencySketch();
+
+	/**
+	 * Sets the portion of entries that are held in the admission window.
+	 * Default is <code>0.01</code>.
+	 */
+	public void setWindowRatio(double windowRatio) {
+		this.windowRatio = windowRatio;
+	}
+
+	/**
+	 * Sets the portion of the main area that is reserved for entries which
+	 * have been accessed more than once. Default is <code>0.8</code>.
+	 */
+	public void setProtectedRatio(double protectedRatio) {
+		this.protectedRatio = protectedRatio;
+	}
+
+	@Override
+	public void setMaximumSize(int maximumSize) {
+		super.setMaximumSize(maximumSize);
+		sketch.ensureCapacity(maximumSize);
+	}
+
+	@Override
+	protected void onAdd(CacheEntry entry) {
+		Node node = new Node(entry);
+		nodes.put(entry, node);
+		window.addLast(node);
+		sketch.increment(entry.getKey());
+		fillMainArea();
+	}
+
+	@Override
+	protected void onAccess(CacheEntry entry) {
+		Node node = nodes.get(entry);
+		if (node == null) {
+			return;
+		}
+		sketch.increment(entry.getKey());
+		if (node.list == probation) {
+			probation.remove(node);
+			protectedSegment.addLast(node);
+			demoteProtected();
+		}
+		else {
+			node.list.moveToLast(node);
+		}
+	}
+
+	@Override
+	protected void onRemove(CacheEntry entry) {
+		Node node = nodes.remove(entry);
+		if (node != null) {
+			node.list.remove(node);
+		}
+	}
+
+	@Override
+	protected CacheEntry selectVictim() {
+		fillMainArea();
+		if (window.size() > getMaxWindowSize()) {
+			Node candidate = window.peekFirst();
+			Node victim = getMainVictim();
+			if (victim != null && admit(candidate, victim)) {
+				window.remove(candidate);
+				probation.addLast(candidate);
+				return evict(victim);
+			}
+			return evict(candidate);
+		}
+		Node victim = getMainVictim();
+		if (victim == null) {
+			victim = window.peekFirst();
+		}
+		return victim != null ? evict(victim) : null;
+	}
+
+	private int getMaxWindowSize() {
+		return Math.max(1, (int) (getMaximumSize() * windowRatio));
+	}
+
+	private int getMaxMainSize() {
+		return getMaximumSize() - getMaxWindowSize();
+	}
+
+	private int getMaxProtectedSize() {
+		return (int) (getMaxMainSize() * protectedRatio);
+	}
+
+	private int getMainSize() {
+		return probation.size() + protectedSegment.size();
+	}
+
+	/**
+	 * Moves entries from the window into the probation segment as long as
+	 * the main area has not reached its maximum size. Once it is full,
+	 * overflowing window entries are kept until they are either evicted or
+	 * admitted by {@link #selectVictim()}.
+	 */
+	private void fillMainArea() {
+		while (window.size() > getMaxWindowSize()
+				&& getMainSize() < getMaxMainSize()) {
+
+			Node node = window.peekFirst();
+			window.remove(node);
+			probation.addLast(node);
+		}
+	}
+
+	/**
+	 * Moves the least recently used entries of the protected segment back
+	 * to the probation segment if the segment has grown too large.
+	 */
+	private void demoteProtected() {
+		int max = getMaxProtectedSize();
+		while (protectedSegment.size() > max) {
+			Node node = protectedSegment.peekFirst();
+			protectedSegment.remove(node);
+			probation.addLast(node);
+		}
+	}
+
+	private Node getMainVictim() {
+		Node victim = probation.peekFirst();
+		if (victim == null) {
+			victim = protectedSegment.peekFirst();
+		}
+		return victim;
+	}
+
+	/**
+	 * Returns whether the candidate is more popular than the victim.
+	 */
+	private boolean admit(Node candidate, Node victim) {
+		return sketch.frequency(candidate.entry.getKey())
+				> sketch.frequency(victim.entry.getKey());
+	}
+
+	private CacheEntry evict(Node node) {
+		node.list.remove(node);
+		nodes.remove(node.entry);
+		return node.entry;
+	}
+
+}
@@ -6,11 +6,15 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.riotfamily.cachius.CacheHandler;
+import org.riotfamily.cachius.DetachableCacheHandler;
 import org.riotfamily.cachius.http.content.Directives;
+import org.riotfamily.cachius.http.encoding.EncodingNegotiator;
+import org.riotfamily.cachius.http.support.DetachedHttpServletRequest;
+import org.riotfamily.cachius.http.support.FileServer;
 import org.riotfamily.cachius.http.support.SessionIdEncoder;
 import org.riotfamily.cachius.persistence.DiskStore;
 
-public abstract class AbstractHttpHandler implements CacheHandler {
+public abstract class AbstractHttpHandler implements DetachableCacheHandler {
 
 	private HttpServletRequest request;
 	
@@ -20,6 +24,12 @@ public abstract class AbstractHttpHandler implements CacheHandler {
 
 	private int gzipThreshold = 200;
 	
+	private String characterEncoding;
+	
+	private FileServer fileServer;
+	
+	private EncodingNegotiator encodingNegotiator;
+	
 	public AbstractHttpHandler(HttpServletRequest request,
 			HttpServletResponse response) {
 	
@@ -38,14 +48,42 @@ public abstract class AbstractHttpHandler implements CacheHandler {
 		this.gzipThreshold = gzipThreshold;
 	}
 	
+	/**
+	 * Sets the FileServer that is used to serve captured binary content.
+	 * If not set, the {@link FileServer#DEFAULT default} will be used.
+	 */
+	public void setFileServer(FileServer fileServer) {
+		this.fileServer = fileServer;
+	}
+	
+	/**
+	 * Sets the EncodingNegotiator that provides the encoders used to create
+	 * precompressed variants. If not set, the 
+	 * {@link EncodingNegotiator#DEFAULT default} will be used.
+	 */
+	public void setEncodingNegotiator(EncodingNegotiator encodingNegotiator) {
+		this.encodingNegotiator = encodingNegotiator;
+	}
+	
 	protected HttpServletRequest getRequest() {
 		return request;
 	}
 	
+	/**
+	 * Returns the response, or <code>null</code> if the handler has been
+	 * {@link #detach() detached}.
+	 */
 	protected HttpServletResponse getResponse() {
 		return response;
 	}
 	
+	/**
+	 * Returns whether the handler has been created by {@link #detach()}.
+	 */
+	protected boolean isDetached() {
+		return response == null;
+	}
+	
 	public String getCacheKey() {
 		return request.getRequestURL().toString();
 	}
@@ -69,11 +107,14 @@ public abstract class AbstractHttpHandler implements CacheHandler {
 	}
 
 	public Serializable capture(DiskStore diskStore) throws Exception {
-		ResponseData data = new ResponseData(response.getCharacterEncoding());
+		ResponseData data = new ResponseData(response != null 
+				? response.getCharacterEncoding() : characterEncoding);
 		SessionIdEncoder sessionIdEncoder = new SessionIdEncoder(request);
 		CachiusResponse cachiusResponse = new CachiusResponse(data, diskStore, 
 				sessionIdEncoder, isCompressible(), gzipThreshold , directives);
 		
+		cachiusResponse.setFileServer(fileServer);
+		cachiusResponse.setEncodingNegotiator(encodingNegotiator);
 		handleRequest(request, cachiusResponse);
 		cachiusResponse.stopCapturing();
 		return data;
@@ -83,6 +124,42 @@ public abstract class AbstractHttpHandler implements CacheHandler {
 		return false;
 	}
 	
+	/**
+	 * Creates a copy of the request and invokes {@link #createDetachedHandler}.
+	 */
+	public CacheHandler detach() {
+		AbstractHttpHandler handler = createDetachedHandler(
+				new DetachedHttpServletRequest(request));
+		
+		if (handler != null) {
+			handler.copySettings(this);
+		}
+		return handler;
+	}
+	
+	private void copySettings(AbstractHttpHandler handler) {
+		this.directives = handler.directives;
+		this.gzipThreshold = handler.gzipThreshold;
+		this.fileServer = handler.fileServer;
+		this.encodingNegotiator = handler.encodingNegotiator;
+		this.characterEncoding = handler.response != null 
+				? handler.response.getCharacterEncoding()
+				: handler.characterEncoding;
+	}
+	
+	/**
+	 * Returns a handler that uses the given request and a <code>null</code>
+	 * response. The default implementation returns <code>null</code>, which
+	 * means that the handler does not support background revalidation.
+	 * Subclasses that override this method must make sure that 
+	 * {@link #handleRequest} does not access any other request-bound state.
+	 */
+	protected AbstractHttpHandler createDetachedHandler(
+			HttpServletRequest request) {
+		
+		return null;
+	}
+	
 	protected abstract void handleRequest(HttpServletRequest request,
 			HttpServletResponse response) throws Exception; 
 
@@ -28,12 +28,14 @@ import javax.servlet.http.HttpServletResponse;
 import org.riotfamily.cachius.http.content.BinaryContent;
 import org.riotfamily.cachius.http.content.CharacterContent;
 import org.riotfamily.cachius.http.content.ChunkedContent;
+import org.riotfamily.cachius.http.content.CompressedContent;
 import org.riotfamily.cachius.http.content.ContentFragment;
 import org.riotfamily.cachius.http.content.Directives;
-import org.riotfamily.cachius.http.content.GzipContent;
+import org.riotfamily.cachius.http.encoding.EncodingNegotiator;
 import org.riotfamily.cachius.http.header.SessionIdCookie;
 import org.riotfamily.cachius.http.header.StaticCookie;
 import org.riotfamily.cachius.http.support.DelegatingServletOutputStream;
+import org.riotfamily.cachius.http.support.FileServer;
 import org.riotfamily.cachius.http.support.ScanWriter;
 import org.riotfamily.cachius.http.support.SessionIdEncoder;
 import org.riotfamily.cachius.http.support.ScanWriter.Block;
@@ -60,6 +62,10 @@ public class CachiusResponse implements HttpServletResponse {
     
     private DiskStore diskStore;
     
+    private FileServer fileServer;
+    
+    private EncodingNegotiator encodingNegotiator;
+    
     private ServletOutputStream outputStream;
     
     private PrintWriter writer;
@@ -80,6 +86,23 @@ public class CachiusResponse implements HttpServletResponse {
         this.directives = directives;
         this.file = diskStore.getFile();
     }
+    
+    /**
+     * Sets the FileServer that is used to serve binary content.
+     * If not set, the {@link FileServer#DEFAULT default} will be used.
+     */
+    public void setFileServer(FileServer fileServer) {
+		this.fileServer = fileServer;
+	}
+    
+    /**
+     * Sets the EncodingNegotiator that provides the encoders used to 
+     * create precompressed variants of compressible content. If not set,
+     * the {@link EncodingNegotiator#DEFAULT default} will be used.
+     */
+    public void setEncodingNegotiator(EncodingNegotiator encodingNegotiator) {
+		this.encodingNegotiator = encodingNegotiator;
+	}
 	
     public int getStatus() {
 		return data.getStatus();
@@ -218,14 +241,15 @@ public class CachiusResponse implements HttpServletResponse {
     		content.addTail();
     		data.setContent(content);
     	}
-    	else if (isGzip()) {
-			data.setContent(new GzipContent(file, diskStore.getFile()));
+    	else if (isCompressed()) {
+			data.setContent(new CompressedContent(file, diskStore, 
+					encodingNegotiator, fileServer));
     	}
     	else if (isCharacter()) {
     		data.setContent(new CharacterContent(file));
     	}	
     	else {
-    		data.setContent(new BinaryContent(file));
+    		data.setContent(new BinaryContent(file, fileServer));
     	}
     }
     
@@ -237,7 +261,7 @@ public class CachiusResponse implements HttpServletResponse {
 		return isCharacter() && scanWriter.foundBlocks();
 	}
 	
-	private boolean isGzip() {
+	private boolean isCompressed() {
 		return compressible && file.length() > gzipThreshold;
 	}
 
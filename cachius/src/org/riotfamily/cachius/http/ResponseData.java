@@ -12,9 +12,18 @@ import org.riotfamily.cachius.http.content.Content;
 import org.riotfamily.cachius.http.header.Cookies;
 import org.riotfamily.cachius.http.header.Headers;
 import org.riotfamily.cachius.persistence.Deleteable;
+import org.riotfamily.cachius.persistence.Restorable;
+import org.riotfamily.cachius.persistence.Sizeable;
 
 
-public class ResponseData implements Serializable, Deleteable {
+public class ResponseData implements Serializable, Deleteable, Sizeable,
+		Restorable {
+
+	/** Estimated heap usage of an instance without headers and cookies */
+	private static final int BASE_OVERHEAD = 256;
+	
+	/** Estimated heap usage of a single header or cookie */
+	private static final int HEADER_OVERHEAD = 128;
 
 	/** The HTTP Status code */
     private int statusCode;
@@ -136,6 +145,28 @@ public class ResponseData implements Serializable, Deleteable {
 		}
     }
 
+	/**
+	 * Returns the size of the captured content plus an estimate of the 
+	 * memory occupied by the ResponseData itself.
+	 */
+	public long getSize() {
+		long size = BASE_OVERHEAD;
+		if (headers != null) {
+			size += headers.size() * HEADER_OVERHEAD;
+		}
+		if (cookies != null) {
+			size += cookies.size() * HEADER_OVERHEAD;
+		}
+		if (content != null) {
+			size += content.getSize();
+		}
+		return size;
+	}
+	
+	public boolean isRestorable(long snapshotTime) {
+		return content == null || content.isUnmodifiedSince(snapshotTime);
+	}
+	
 	public void delete() {
 		if (content != null) {
 			content.delete();
@@ -7,15 +7,20 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.cachius.http.support.ContentFile;
+import org.riotfamily.cachius.http.support.FileServer;
 
 
 public class BinaryContent implements Content {
 
-	private File file;
+	private ContentFile file;
 	
 	public BinaryContent(File file) {
-		this.file = file;
+		this(file, null);
+	}
+	
+	public BinaryContent(File file, FileServer fileServer) {
+		this.file = new ContentFile(file, fileServer);
 	}
 
 	public int getLength(HttpServletRequest request, HttpServletResponse response) {
@@ -25,9 +30,17 @@ public class BinaryContent implements Content {
 	public void serve(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
 		
-		IOUtils.serve(file, response.getOutputStream());
+		file.serve(request, response);
+	}
+
+	public long getSize() {
+		return file.length();
 	}
 
+	public boolean isUnmodifiedSince(long time) {
+		return file.isUnmodifiedSince(time);
+	}
+	
 	public void delete() {
 		file.delete();
 	}
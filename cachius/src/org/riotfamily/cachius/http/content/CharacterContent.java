@@ -40,6 +40,14 @@ public class CharacterContent implements Content {
         IOUtils.serve(file, response.getWriter(), "UTF-8");
     }
 
+    public long getSize() {
+    	return file.length();
+    }
+    
+    public boolean isUnmodifiedSince(long time) {
+    	return file.exists() && file.lastModified() <= time;
+    }
+    
     public void delete() {
         file.delete();
     }
@@ -1,24 +1,41 @@
 package org.riotfamily.cachius.http.content;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.Serializable;
 import java.util.LinkedList;
 import java.util.List;
 
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
 import org.riotfamily.cachius.http.support.IOUtils;
 
-
+/**
+ * Content that contains {@link ContentFragment fragments} which are 
+ * evaluated each time the content is served. 
+ * <p>
+ * The captured content is stored as UTF-8. When the response uses the
+ * same encoding, the static parts are copied as raw bytes and only the
+ * fragments go through a Writer. Otherwise (or if the response's Writer 
+ * is already in use) the file is decoded and served character by character.
+ */
 public class ChunkedContent implements Content {
 
+	private static final String ENCODING = "UTF-8";
+
 	private File file;
 	
 	private List<Chunk> chunks = new LinkedList<Chunk>();
@@ -38,14 +55,64 @@ public class ChunkedContent implements Content {
 		lastEnd = end;
 	}
 	
-	public void addTail() {
+	/**
+	 * Adds the remaining characters after the last fragment and calculates
+	 * the byte range of each chunk. 
+	 */
+	public void addTail() throws IOException {
 		int gap = ((int) file.length()) - (lastEnd + 1);
 		if (gap > 0) {
 			chunks.add(new Chunk(gap));
 		}
+		Reader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), ENCODING));
+		
+		try {
+			for (Chunk chunk : chunks) {
+				chunk.byteLength = countBytes(reader, chunk.length);
+			}
+		}
+		finally {
+			IOUtils.closeReader(reader);
+		}
+	}
+	
+	/**
+	 * Reads the given number of characters and returns the number of bytes
+	 * they occupy in UTF-8.
+	 */
+	private static int countBytes(Reader reader, int length) throws IOException {
+		int bytes = 0;
+		for (int i = 0; i < length; i++) {
+			int c = reader.read();
+			if (c == -1) {
+				break;
+			}
+			if (c < 0x80) {
+				bytes++;
+			}
+			else if (c < 0x800) {
+				bytes += 2;
+			}
+			else if (c >= 0xD800 && c <= 0xDFFF) {
+				// Each half of a surrogate pair accounts for 2 of 4 bytes
+				bytes += 2;
+			}
+			else {
+				bytes += 3;
+			}
+		}
+		return bytes;
+	}
+	
+	private boolean isByteServable(HttpServletResponse response) {
+		return ENCODING.equalsIgnoreCase(response.getCharacterEncoding());
 	}
 
 	public int getLength(HttpServletRequest request, HttpServletResponse response) {
+		if (!isByteServable(response)) {
+			return -1;
+		}
 		int length = 0;
 		if (chunks != null) {
 			for (Chunk chunk : chunks) {
@@ -62,8 +129,47 @@ public class ChunkedContent implements Content {
 	public void serve(HttpServletRequest request, HttpServletResponse response)
 			throws ServletException, IOException {
 		
+		if (isByteServable(response)) {
+			ServletOutputStream out = null;
+			try {
+				out = response.getOutputStream();
+			}
+			catch (IllegalStateException e) {
+				// getWriter() has already been called
+			}
+			if (out != null) {
+				serveBytes(request, response, out);
+				return;
+			}
+		}
+		serveCharacters(request, response);
+	}
+	
+	private void serveBytes(HttpServletRequest request, 
+			HttpServletResponse response, OutputStream out) 
+			throws ServletException, IOException {
+		
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		FragmentResponse fragmentResponse = new FragmentResponse(response, out);
+		try {
+			for (Chunk chunk : chunks) {
+				chunk.serve(in, out, request, fragmentResponse);
+			}
+			out.flush();
+		}
+		catch (IOException e) {
+			IOUtils.handleClientAbort(e);
+		}
+		finally {
+			IOUtils.closeStream(in);
+		}
+	}
+	
+	private void serveCharacters(HttpServletRequest request, 
+			HttpServletResponse response) throws ServletException, IOException {
+		
 		Reader reader = new BufferedReader(new InputStreamReader(
-				new FileInputStream(file), "UTF-8"));
+				new FileInputStream(file), ENCODING));
 		
 		try {
 			if (chunks != null) {
@@ -77,20 +183,32 @@ public class ChunkedContent implements Content {
 		}
 	}
 	
+	public long getSize() {
+		return file.length();
+	}
+	
+	public boolean isUnmodifiedSince(long time) {
+		return file.exists() && file.lastModified() <= time;
+	}
+	
 	public void delete() {
 		file.delete();
 	}
 			
 	private static class Chunk implements Serializable {
 
+		/** Number of characters */
 		protected int length;
 		
+		/** Number of bytes in UTF-8 */
+		protected int byteLength;
+		
 		public Chunk(int length) {
 			this.length = length;
 		}
 
 		public int getLength(HttpServletRequest request, HttpServletResponse response) {
-			return length;
+			return byteLength;
 		}
 		
 		public void serve(Reader reader, HttpServletRequest request, HttpServletResponse response) 
@@ -98,6 +216,13 @@ public class ChunkedContent implements Content {
 			
 			IOUtils.copy(reader, response.getWriter(), length);
 		}
+		
+		public void serve(InputStream in, OutputStream out, 
+				HttpServletRequest request, FragmentResponse response) 
+				throws ServletException, IOException {
+			
+			IOUtils.copy(in, out, byteLength);
+		}
 	}
 	
 	private class FragmentChunk extends Chunk {
@@ -124,6 +249,53 @@ public class ChunkedContent implements Content {
 			fragment.serve(request, response);
 		}
 		
+		@Override
+		public void serve(InputStream in, OutputStream out, 
+				HttpServletRequest request, FragmentResponse response) 
+				throws ServletException, IOException {
+			
+			IOUtils.skip(in, byteLength);
+			fragment.serve(request, response);
+			response.flushWriter();
+		}
+		
+	}
+	
+	/**
+	 * Response passed to fragments while the static chunks are written as
+	 * bytes. Output written to the Writer is encoded and sent to the same
+	 * OutputStream.
+	 */
+	private static class FragmentResponse extends HttpServletResponseWrapper {
+		
+		private OutputStream out;
+		
+		private PrintWriter writer;
+		
+		public FragmentResponse(HttpServletResponse response, OutputStream out) {
+			super(response);
+			this.out = out;
+		}
+		
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if (writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(out, ENCODING));
+			}
+			return writer;
+		}
+		
+		@Override
+		public void flushBuffer() throws IOException {
+			flushWriter();
+			super.flushBuffer();
+		}
+		
+		void flushWriter() {
+			if (writer != null) {
+				writer.flush();
+			}
+		}
 	}
 	
 }
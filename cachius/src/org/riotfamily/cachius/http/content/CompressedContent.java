@@ -0,0 +1,167 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.content;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.riotfamily.cachius.http.encoding.ContentEncoder;
+import org.riotfamily.cachius.http.encoding.EncodingNegotiator;
+import org.riotfamily.cachius.http.support.ContentFile;
+import org.riotfamily.cachius.http.support.FileServer;
+import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.cachius.persistence.DiskStore;
+
+/**
+ * BinaryContent that also holds precompressed variants, one for each
+ * encoder of the {@link EncodingNegotiator}. The variant that is sent to 
+ * the client is selected via {@link EncodingNegotiator#negotiate}.
+ */
+public class CompressedContent extends BinaryContent {
+
+	private Map<String, ContentFile> variants = 
+			new LinkedHashMap<String, ContentFile>();
+	
+	private transient EncodingNegotiator negotiator;
+	
+	public CompressedContent(File file, DiskStore diskStore) 
+			throws IOException {
+		
+		this(file, diskStore, null, null);
+	}
+	
+	public CompressedContent(File file, DiskStore diskStore, 
+			EncodingNegotiator negotiator, FileServer fileServer) 
+			throws IOException {
+		
+		super(file, fileServer);
+		this.negotiator = negotiator;
+		boolean complete = false;
+		try {
+			for (ContentEncoder encoder : getNegotiator().getEncoders()) {
+				File encodedFile = diskStore.getFile();
+				variants.put(encoder.getName(), new ContentFile(encodedFile, fileServer));
+				encode(encoder, file, encodedFile);
+			}
+			complete = true;
+		}
+		finally {
+			if (!complete) {
+				// Don't leave partial variants behind
+				deleteVariants();
+			}
+		}
+	}
+	
+	private static void encode(ContentEncoder encoder, File file, 
+			File encodedFile) throws IOException {
+		
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(encodedFile);
+			encoder.encode(in, out);
+		}
+		finally {
+			IOUtils.closeStream(in);
+			// No-op unless the encoder failed before closing the stream
+			IOUtils.closeStream(out);
+		}
+	}
+	
+	/**
+	 * Returns the EncodingNegotiator passed to the constructor, or the
+	 * {@link EncodingNegotiator#DEFAULT default} if the instance has been
+	 * deserialized.
+	 */
+	protected EncodingNegotiator getNegotiator() {
+		return negotiator != null ? negotiator : EncodingNegotiator.DEFAULT;
+	}
+	
+	private ContentFile getVariant(HttpServletRequest request) {
+		String encoding = getNegotiator().negotiate(request, variants.keySet());
+		return encoding != null ? variants.get(encoding) : null;
+	}
+
+	@Override
+	public int getLength(HttpServletRequest request,
+			HttpServletResponse response) {
+		
+		ContentFile variant = getVariant(request);
+		if (variant != null) {
+			return (int) variant.length();
+		}
+		return super.getLength(request, response);
+	}
+	
+	@Override
+	public void serve(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+		
+		response.setHeader("Vary", "Accept-Encoding, User-Agent");
+		String encoding = getNegotiator().negotiate(request, variants.keySet());
+		if (encoding != null) {
+			response.setHeader("Content-Encoding", encoding);
+			variants.get(encoding).serve(request, response);
+		}
+		else {
+			super.serve(request, response);
+		}
+	}
+	
+	@Override
+	public long getSize() {
+		long size = super.getSize();
+		for (ContentFile variant : variants.values()) {
+			size += variant.length();
+		}
+		return size;
+	}
+	
+	@Override
+	public boolean isUnmodifiedSince(long time) {
+		if (!super.isUnmodifiedSince(time)) {
+			return false;
+		}
+		for (ContentFile variant : variants.values()) {
+			if (!variant.isUnmodifiedSince(time)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	public void delete() {
+		super.delete();
+		deleteVariants();
+	}
+	
+	private void deleteVariants() {
+		for (ContentFile variant : variants.values()) {
+			variant.delete();
+		}
+	}
+
+}
@@ -3,6 +3,17 @@ package org.riotfamily.cachius.http.content;
 
 public interface Content extends ContentFragment {
 
+	/**
+	 * Returns the number of bytes occupied by the cached content.
+	 */
+	public long getSize();
+	
+	/**
+	 * Returns whether the file(s) holding the content still exist and have
+	 * not been modified after the given time.
+	 */
+	public boolean isUnmodifiedSince(long time);
+	
 	public void delete();
 
 }
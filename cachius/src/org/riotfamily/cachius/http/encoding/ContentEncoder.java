@@ -0,0 +1,43 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.encoding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Strategy to create a precompressed variant of captured content.
+ */
+public interface ContentEncoder {
+
+	/**
+	 * Returns the content-coding as used in the Accept-Encoding and 
+	 * Content-Encoding headers, e.g. <code>gzip</code>.
+	 */
+	public String getName();
+	
+	/**
+	 * Returns whether the encoder can be used in the current environment.
+	 */
+	public boolean isAvailable();
+	
+	/**
+	 * Encodes the given input. Implementations must close the 
+	 * OutputStream but not the InputStream. As encoders usually write 
+	 * their trailer on close, an IOException thrown by <code>close()</code>
+	 * must be propagated.
+	 */
+	public void encode(InputStream in, OutputStream out) throws IOException;
+	
+}
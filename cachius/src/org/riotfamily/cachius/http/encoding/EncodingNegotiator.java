@@ -0,0 +1,248 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.encoding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Selects the content-coding of a response based on the request's 
+ * Accept-Encoding header and the configured {@link ContentEncoder encoders}.
+ * <p>
+ * Parsing the Accept-Encoding header and checking the User-Agent for known
+ * gzip bugs is done once per distinct header value. The results are kept
+ * in memory until the number of distinct values exceeds 
+ * {@link #setMaxCachedValues(int) a limit}.
+ */
+public class EncodingNegotiator {
+
+	public static final EncodingNegotiator DEFAULT = new EncodingNegotiator();
+	
+	private static Pattern IE_MAJOR_VERSION_PATTERN = 
+			Pattern.compile("^Mozilla/\\d\\.\\d+ \\(compatible[-;] MSIE (\\d)");
+
+	private static Pattern BUGGY_NETSCAPE_PATTERN = 
+			Pattern.compile("^Mozilla/4\\.0[678]");
+	
+	private static final String[] NONE = new String[0];
+	
+	private List<ContentEncoder> encoders = Collections.singletonList(
+			(ContentEncoder) new GzipEncoder());
+	
+	private int maxCachedValues = 1000;
+	
+	private ConcurrentMap<String, String[]> acceptedEncodings = 
+			new ConcurrentHashMap<String, String[]>();
+	
+	private ConcurrentMap<String, Boolean> gzipBugs = 
+			new ConcurrentHashMap<String, Boolean>();
+	
+	/**
+	 * Sets the encoders in the order of preference. Encoders that are not
+	 * {@link ContentEncoder#isAvailable() available} are ignored. 
+	 * By default only a {@link GzipEncoder} is used.
+	 */
+	public void setEncoders(List<ContentEncoder> encoders) {
+		ArrayList<ContentEncoder> available = new ArrayList<ContentEncoder>();
+		for (ContentEncoder encoder : encoders) {
+			if (encoder.isAvailable()) {
+				available.add(encoder);
+			}
+		}
+		this.encoders = available;
+		acceptedEncodings.clear();
+	}
+	
+	public List<ContentEncoder> getEncoders() {
+		return encoders;
+	}
+	
+	/**
+	 * Sets the maximum number of distinct header values for which the 
+	 * result is cached. Default is <code>1000</code>.
+	 */
+	public void setMaxCachedValues(int maxCachedValues) {
+		this.maxCachedValues = maxCachedValues;
+	}
+	
+	/**
+	 * Returns the name of the encoding that should be used to serve the 
+	 * response, or <code>null</code> if the content should be sent 
+	 * unencoded. Only encodings contained in the given collection are 
+	 * taken into account.
+	 */
+	public String negotiate(HttpServletRequest request, 
+			Collection<String> available) {
+		
+		if (request.getAttribute("javax.servlet.include.request_uri") != null) {
+			return null;
+		}
+		for (String name : getAcceptedEncodings(getAcceptEncoding(request))) {
+			if (available.contains(name)) {
+				if (!"gzip".equals(name) || !userAgentHasGzipBugs(
+						request.getHeader("User-Agent"))) {
+					
+					return name;
+				}
+			}
+		}
+		return null;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private String getAcceptEncoding(HttpServletRequest request) {
+		Enumeration values = request.getHeaders("Accept-Encoding");
+		if (values == null || !values.hasMoreElements()) {
+			return null;
+		}
+		String value = (String) values.nextElement();
+		if (values.hasMoreElements()) {
+			StringBuilder sb = new StringBuilder(value);
+			while (values.hasMoreElements()) {
+				sb.append(',').append(values.nextElement());
+			}
+			value = sb.toString();
+		}
+		return value;
+	}
+	
+	/**
+	 * Returns the names of the configured encoders that are accepted 
+	 * according to the given header value, ordered by their quality value
+	 * and the configured preference.
+	 */
+	protected String[] getAcceptedEncodings(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return NONE;
+		}
+		String[] names = acceptedEncodings.get(acceptEncoding);
+		if (names == null) {
+			names = parseAcceptEncoding(acceptEncoding);
+			if (acceptedEncodings.size() >= maxCachedValues) {
+				acceptedEncodings.clear();
+			}
+			acceptedEncodings.put(acceptEncoding, names);
+		}
+		return names;
+	}
+	
+	private String[] parseAcceptEncoding(String acceptEncoding) {
+		final float[] q = new float[encoders.size()];
+		Arrays.fill(q, -1);
+		float wildcard = 0;
+		for (String token : acceptEncoding.split(",")) {
+			String[] params = token.split(";");
+			String coding = params[0].trim().toLowerCase();
+			if (coding.equals("x-gzip")) {
+				coding = "gzip";
+			}
+			float value = 1;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						value = Float.parseFloat(param.substring(2));
+					}
+					catch (NumberFormatException e) {
+						value = 0;
+					}
+				}
+			}
+			if (coding.equals("*")) {
+				wildcard = value;
+			}
+			else {
+				for (int i = 0; i < encoders.size(); i++) {
+					if (encoders.get(i).getName().equals(coding)) {
+						q[i] = value;
+					}
+				}
+			}
+		}
+		List<Integer> accepted = new ArrayList<Integer>();
+		for (int i = 0; i < q.length; i++) {
+			if (q[i] == -1) {
+				q[i] = wildcard;
+			}
+			if (q[i] > 0) {
+				accepted.add(i);
+			}
+		}
+		// Stable sort, so that encoders with equal quality keep their order
+		Collections.sort(accepted, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				return Float.compare(q[i2], q[i1]);
+			}
+		});
+		String[] names = new String[accepted.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = encoders.get(accepted.get(i)).getName();
+		}
+		return names;
+	}
+	
+	/**
+	 * Returns whether the User-Agent has known gzip-related bugs. This is true
+	 * for Internet Explorer &lt; 6.0 SP2 and Mozilla 4.06, 4.07 and 4.08. The
+	 * method will also return true if the User-Agent header is not present or
+	 * empty.
+	 */
+	protected boolean userAgentHasGzipBugs(String ua) {
+		if (ua == null || ua.length() == 0) {
+			return true;
+		}
+		Boolean buggy = gzipBugs.get(ua);
+		if (buggy == null) {
+			buggy = Boolean.valueOf(checkUserAgent(ua));
+			if (gzipBugs.size() >= maxCachedValues) {
+				gzipBugs.clear();
+			}
+			gzipBugs.put(ua, buggy);
+		}
+		return buggy.booleanValue();
+	}
+	
+	private boolean checkUserAgent(String ua) {
+		Matcher m = IE_MAJOR_VERSION_PATTERN.matcher(ua);
+		if (m.find()) {
+			int major = Integer.parseInt(m.group(1));
+			if (major > 6) {
+				// Bugs are fixed in IE 7 
+				return false;
+			}
+			if (ua.indexOf("Opera") != -1) {
+				// Opera has no known gzip bugs
+				return false;
+			}
+			if (major == 6) {
+				// Bugs are fixed in Service Pack 2 
+				return ua.indexOf("SV1") == -1;
+			}
+			// All other version are buggy.
+			return true;
+		}
+		return BUGGY_NETSCAPE_PATTERN.matcher(ua).find();
+	}
+	
+}
@@ -0,0 +1,73 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.encoding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.riotfamily.cachius.http.support.IOUtils;
+
+/**
+ * ContentEncoder that creates gzip encoded content. As the content is
+ * compressed only once, the best compression level is used by default.
+ */
+public class GzipEncoder implements ContentEncoder {
+
+	private int level = Deflater.BEST_COMPRESSION;
+	
+	/**
+	 * Sets the compression level (0-9). Default is <code>9</code>.
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+	public String getName() {
+		return "gzip";
+	}
+	
+	public boolean isAvailable() {
+		return true;
+	}
+
+	public void encode(InputStream in, OutputStream out) throws IOException {
+		GZIPOutputStream gzip = new LevelGZIPOutputStream(out, level);
+		try {
+			byte[] buffer = new byte[IOUtils.BUFFER_SIZE];
+			int bytesRead;
+			while ((bytesRead = in.read(buffer)) != -1) {
+				gzip.write(buffer, 0, bytesRead);
+			}
+			// Closing writes the trailer, so failures must not be swallowed
+			gzip.close();
+			gzip = null;
+		}
+		finally {
+			IOUtils.closeStream(gzip);
+		}
+	}
+	
+	private static class LevelGZIPOutputStream extends GZIPOutputStream {
+		
+		public LevelGZIPOutputStream(OutputStream out, int level) 
+				throws IOException {
+			
+			super(out, IOUtils.BUFFER_SIZE);
+			def.setLevel(level);
+		}
+	}
+
+}
@@ -0,0 +1,99 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.encoding;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+import org.riotfamily.cachius.http.support.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ContentEncoder that uses a compressing OutputStream provided by a 
+ * third-party library, like <code>com.github.luben.zstd.ZstdOutputStream</code>
+ * or a Brotli implementation. The class is looked up by name, so that the 
+ * encoder can be configured even if the library is not on the classpath.
+ * In this case {@link #isAvailable()} returns <code>false</code>.
+ * <p>
+ * The stream class must provide a public constructor that takes the 
+ * target OutputStream as only argument.
+ */
+public class StreamContentEncoder implements ContentEncoder {
+
+	private static Logger log = LoggerFactory.getLogger(StreamContentEncoder.class);
+	
+	private String name;
+	
+	private Constructor<?> constructor;
+	
+	public StreamContentEncoder(String name, String streamClassName) {
+		this.name = name;
+		try {
+			Class<?> streamClass = Class.forName(streamClassName);
+			constructor = streamClass.getConstructor(OutputStream.class);
+		}
+		catch (ClassNotFoundException e) {
+			log.info("{} not found - {} encoding is disabled", 
+					streamClassName, name);
+		}
+		catch (NoSuchMethodException e) {
+			log.warn("{} has no constructor that takes an OutputStream", 
+					streamClassName);
+		}
+	}
+	
+	public String getName() {
+		return name;
+	}
+
+	public boolean isAvailable() {
+		return constructor != null;
+	}
+
+	public void encode(InputStream in, OutputStream out) throws IOException {
+		OutputStream encoder = createStream(out);
+		try {
+			byte[] buffer = new byte[IOUtils.BUFFER_SIZE];
+			int bytesRead;
+			while ((bytesRead = in.read(buffer)) != -1) {
+				encoder.write(buffer, 0, bytesRead);
+			}
+			// Closing writes the trailer, so failures must not be swallowed
+			encoder.close();
+			encoder = null;
+		}
+		finally {
+			IOUtils.closeStream(encoder);
+		}
+	}
+	
+	private OutputStream createStream(OutputStream out) throws IOException {
+		try {
+			return (OutputStream) constructor.newInstance(out);
+		}
+		catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+		catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
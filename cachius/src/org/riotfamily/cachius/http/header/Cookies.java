@@ -41,6 +41,10 @@ public class Cookies implements Serializable {
 		cookies = null;
 	}
 	
+	public int size() {
+		return cookies != null ? cookies.size() : 0;
+	}
+	
 	public void send(HttpServletRequest request, 
 			HttpServletResponse response) {
 
@@ -78,6 +78,10 @@ public class Headers implements Serializable {
 		headers.clear();
 	}
 	
+	public int size() {
+		return headers.size();
+	}
+	
 	public boolean contain(String name) {
 		for (Header header : headers) {
 			if (header.getName().equalsIgnoreCase(name)) {
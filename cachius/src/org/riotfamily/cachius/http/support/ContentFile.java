@@ -0,0 +1,126 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * File containing captured content that is served by a {@link FileServer}.
+ * Once the file has become hot, its bytes may be kept in memory. The
+ * in-memory copy is not serialized.
+ */
+public class ContentFile implements Serializable {
+
+	private File file;
+
+	private transient FileServer fileServer;
+
+	private transient int hits;
+
+	private transient volatile byte[] bytes;
+
+	private transient FileServer bytesOwner;
+
+	public ContentFile(File file) {
+		this(file, null);
+	}
+
+	public ContentFile(File file, FileServer fileServer) {
+		this.file = file;
+		this.fileServer = fileServer;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long length() {
+		return file.length();
+	}
+
+	public boolean isUnmodifiedSince(long time) {
+		return file.exists() && file.lastModified() <= time;
+	}
+
+	/**
+	 * Returns the FileServer passed to the constructor, or the
+	 * {@link FileServer#DEFAULT default} if the instance has been
+	 * deserialized.
+	 */
+	protected FileServer getFileServer() {
+		return fileServer != null ? fileServer : FileServer.DEFAULT;
+	}
+
+	public void serve(HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+
+		getFileServer().serve(this, request, response);
+	}
+
+	/**
+	 * Returns the in-memory copy of the file, or <code>null</code> if the
+	 * file is not hot (yet) or the server's heap capacity is exhausted.
+	 * The hit counter is not synchronized, as lost updates only delay
+	 * the loading.
+	 */
+	byte[] getBytes(FileServer server) throws IOException {
+		byte[] b = bytes;
+		if (b == null && server.isHot(file.length(), ++hits)) {
+			b = loadBytes(server);
+		}
+		return b;
+	}
+
+	private synchronized byte[] loadBytes(FileServer server) throws IOException {
+		if (bytes == null) {
+			int size = (int) file.length();
+			if (server.reserve(size)) {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+				try {
+					IOUtils.copy(file, out);
+				}
+				catch (IOException e) {
+					server.release(size);
+					throw e;
+				}
+				bytesOwner = server;
+				bytes = out.toByteArray();
+			}
+			else {
+				// Don't try again before the file has been hit another
+				// hotThreshold times
+				hits = 0;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Releases the in-memory copy and deletes the file.
+	 */
+	public synchronized void delete() {
+		if (bytes != null) {
+			bytesOwner.release(bytes.length);
+			bytes = null;
+			bytesOwner = null;
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,478 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.Principal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+/**
+ * HttpServletRequest that holds a copy of another request's state. Unlike
+ * the original request, which is recycled by the container once the
+ * response has been sent, the copy can be used to capture content in a
+ * background thread.
+ * <p>
+ * The copy has no session, no request body and does not support request
+ * dispatching. Attribute values are copied by reference.
+ */
+public class DetachedHttpServletRequest implements HttpServletRequest {
+
+	private static final String[] DATE_FORMATS = new String[] {
+		"EEE, dd MMM yyyy HH:mm:ss zzz",
+		"EEE, dd-MMM-yy HH:mm:ss zzz",
+		"EEE MMM dd HH:mm:ss yyyy"
+	};
+
+	private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+
+	private String method;
+
+	private String scheme;
+
+	private String serverName;
+
+	private int serverPort;
+
+	private String requestUri;
+
+	private String requestUrl;
+
+	private String contextPath;
+
+	private String servletPath;
+
+	private String pathInfo;
+
+	private String pathTranslated;
+
+	private String queryString;
+
+	private String protocol;
+
+	private boolean secure;
+
+	private String remoteAddr;
+
+	private String remoteHost;
+
+	private int remotePort;
+
+	private String localName;
+
+	private String localAddr;
+
+	private int localPort;
+
+	private String characterEncoding;
+
+	private String contentType;
+
+	private Locale locale;
+
+	private List<Locale> locales = new ArrayList<Locale>();
+
+	private String authType;
+
+	private String remoteUser;
+
+	private Principal userPrincipal;
+
+	private String requestedSessionId;
+
+	private boolean requestedSessionIdFromCookie;
+
+	private Cookie[] cookies;
+
+	private Map<String, List<String>> headers =
+			new LinkedHashMap<String, List<String>>();
+
+	private Map<String, String[]> parameters =
+			new LinkedHashMap<String, String[]>();
+
+	private Map<String, Object> attributes = new HashMap<String, Object>();
+
+	@SuppressWarnings("unchecked")
+	public DetachedHttpServletRequest(HttpServletRequest request) {
+		method = request.getMethod();
+		scheme = request.getScheme();
+		serverName = request.getServerName();
+		serverPort = request.getServerPort();
+		requestUri = request.getRequestURI();
+		requestUrl = request.getRequestURL().toString();
+		contextPath = request.getContextPath();
+		servletPath = request.getServletPath();
+		pathInfo = request.getPathInfo();
+		pathTranslated = request.getPathTranslated();
+		queryString = request.getQueryString();
+		protocol = request.getProtocol();
+		secure = request.isSecure();
+		remoteAddr = request.getRemoteAddr();
+		remoteHost = request.getRemoteHost();
+		remotePort = request.getRemotePort();
+		localName = request.getLocalName();
+		localAddr = request.getLocalAddr();
+		localPort = request.getLocalPort();
+		characterEncoding = request.getCharacterEncoding();
+		contentType = request.getContentType();
+		locale = request.getLocale();
+		authType = request.getAuthType();
+		remoteUser = request.getRemoteUser();
+		userPrincipal = request.getUserPrincipal();
+		requestedSessionId = request.getRequestedSessionId();
+		requestedSessionIdFromCookie = request.isRequestedSessionIdFromCookie();
+		cookies = request.getCookies();
+
+		Enumeration<Locale> localeEnum = request.getLocales();
+		while (localeEnum.hasMoreElements()) {
+			locales.add(localeEnum.nextElement());
+		}
+		Enumeration<String> names = request.getHeaderNames();
+		if (names != null) {
+			while (names.hasMoreElements()) {
+				String name = names.nextElement();
+				List<String> values = new ArrayList<String>();
+				Enumeration<String> valueEnum = request.getHeaders(name);
+				while (valueEnum.hasMoreElements()) {
+					values.add(valueEnum.nextElement());
+				}
+				headers.put(name.toLowerCase(), values);
+			}
+		}
+		parameters.putAll(request.getParameterMap());
+		names = request.getAttributeNames();
+		while (names.hasMoreElements()) {
+			String name = names.nextElement();
+			attributes.put(name, request.getAttribute(name));
+		}
+	}
+
+	// ----------------------------------------------------------------------
+	// Attributes
+	// ----------------------------------------------------------------------
+
+	public Object getAttribute(String name) {
+		return attributes.get(name);
+	}
+
+	public Enumeration<String> getAttributeNames() {
+		return Collections.enumeration(attributes.keySet());
+	}
+
+	public void setAttribute(String name, Object value) {
+		if (value == null) {
+			attributes.remove(name);
+		}
+		else {
+			attributes.put(name, value);
+		}
+	}
+
+	public void removeAttribute(String name) {
+		attributes.remove(name);
+	}
+
+	// ----------------------------------------------------------------------
+	// Headers
+	// ----------------------------------------------------------------------
+
+	public String getHeader(String name) {
+		List<String> values = headers.get(name.toLowerCase());
+		return values != null && !values.isEmpty() ? values.get(0) : null;
+	}
+
+	public Enumeration<String> getHeaders(String name) {
+		List<String> values = headers.get(name.toLowerCase());
+		if (values == null) {
+			values = Collections.emptyList();
+		}
+		return Collections.enumeration(values);
+	}
+
+	public Enumeration<String> getHeaderNames() {
+		return Collections.enumeration(headers.keySet());
+	}
+
+	public long getDateHeader(String name) {
+		String value = getHeader(name);
+		if (value == null) {
+			return -1;
+		}
+		for (String pattern : DATE_FORMATS) {
+			SimpleDateFormat format = new SimpleDateFormat(pattern, Locale.US);
+			format.setTimeZone(GMT);
+			try {
+				return format.parse(value).getTime();
+			}
+			catch (ParseException e) {
+			}
+		}
+		throw new IllegalArgumentException("Cannot parse date value '"
+				+ value + "' for '" + name + "' header");
+	}
+
+	public int getIntHeader(String name) {
+		String value = getHeader(name);
+		return value != null ? Integer.parseInt(value) : -1;
+	}
+
+	public Cookie[] getCookies() {
+		return cookies;
+	}
+
+	// ----------------------------------------------------------------------
+	// Parameters
+	// ----------------------------------------------------------------------
+
+	public String getParameter(String name) {
+		String[] values = parameters.get(name);
+		return values != null && values.length > 0 ? values[0] : null;
+	}
+
+	public Map<String, String[]> getParameterMap() {
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	public Enumeration<String> getParameterNames() {
+		return Collections.enumeration(parameters.keySet());
+	}
+
+	public String[] getParameterValues(String name) {
+		return parameters.get(name);
+	}
+
+	// ----------------------------------------------------------------------
+	// Request properties
+	// ----------------------------------------------------------------------
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getScheme() {
+		return scheme;
+	}
+
+	public String getServerName() {
+		return serverName;
+	}
+
+	public int getServerPort() {
+		return serverPort;
+	}
+
+	public String getRequestURI() {
+		return requestUri;
+	}
+
+	public StringBuffer getRequestURL() {
+		return new StringBuffer(requestUrl);
+	}
+
+	public String getContextPath() {
+		return contextPath;
+	}
+
+	public String getServletPath() {
+		return servletPath;
+	}
+
+	public String getPathInfo() {
+		return pathInfo;
+	}
+
+	public String getPathTranslated() {
+		return pathTranslated;
+	}
+
+	public String getQueryString() {
+		return queryString;
+	}
+
+	public String getProtocol() {
+		return protocol;
+	}
+
+	public boolean isSecure() {
+		return secure;
+	}
+
+	public String getRemoteAddr() {
+		return remoteAddr;
+	}
+
+	public String getRemoteHost() {
+		return remoteHost;
+	}
+
+	public int getRemotePort() {
+		return remotePort;
+	}
+
+	public String getLocalName() {
+		return localName;
+	}
+
+	public String getLocalAddr() {
+		return localAddr;
+	}
+
+	public int getLocalPort() {
+		return localPort;
+	}
+
+	public String getCharacterEncoding() {
+		return characterEncoding;
+	}
+
+	public void setCharacterEncoding(String characterEncoding)
+			throws UnsupportedEncodingException {
+
+		this.characterEncoding = characterEncoding;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public int getContentLength() {
+		return -1;
+	}
+
+	public Locale getLocale() {
+		return locale;
+	}
+
+	public Enumeration<Locale> getLocales() {
+		return Collections.enumeration(locales);
+	}
+
+	// ----------------------------------------------------------------------
+	// Security
+	// ----------------------------------------------------------------------
+
+	public String getAuthType() {
+		return authType;
+	}
+
+	public String getRemoteUser() {
+		return remoteUser;
+	}
+
+	public Principal getUserPrincipal() {
+		return userPrincipal;
+	}
+
+	/**
+	 * Always returns <code>false</code>, as roles can't be checked once
+	 * the original request has been completed.
+	 */
+	public boolean isUserInRole(String role) {
+		return false;
+	}
+
+	// ----------------------------------------------------------------------
+	// Session
+	// ----------------------------------------------------------------------
+
+	public String getRequestedSessionId() {
+		return requestedSessionId;
+	}
+
+	public boolean isRequestedSessionIdFromCookie() {
+		return requestedSessionIdFromCookie;
+	}
+
+	public boolean isRequestedSessionIdFromURL() {
+		return !requestedSessionIdFromCookie && requestedSessionId != null;
+	}
+
+	/**
+	 * @deprecated
+	 */
+	@Deprecated
+	public boolean isRequestedSessionIdFromUrl() {
+		return isRequestedSessionIdFromURL();
+	}
+
+	public boolean isRequestedSessionIdValid() {
+		return false;
+	}
+
+	/**
+	 * Always returns <code>null</code>, as detached requests have no session.
+	 */
+	public HttpSession getSession(boolean create) {
+		if (create) {
+			throw new IllegalStateException(
+					"Detached requests can't create a session");
+		}
+		return null;
+	}
+
+	/**
+	 * Throws an IllegalStateException, as detached requests have no session.
+	 */
+	public HttpSession getSession() {
+		return getSession(true);
+	}
+
+	// ----------------------------------------------------------------------
+	// Unsupported operations
+	// ----------------------------------------------------------------------
+
+	public ServletInputStream getInputStream() throws IOException {
+		throw new IllegalStateException(
+				"Detached requests don't provide a body");
+	}
+
+	public BufferedReader getReader() throws IOException {
+		throw new IllegalStateException(
+				"Detached requests don't provide a body");
+	}
+
+	/**
+	 * Always returns <code>null</code>, as detached requests can't be
+	 * dispatched.
+	 */
+	public RequestDispatcher getRequestDispatcher(String path) {
+		throw new IllegalStateException(
+				"Detached requests don't support request dispatching");
+	}
+
+	/**
+	 * @deprecated
+	 */
+	@Deprecated
+	public String getRealPath(String path) {
+		return null;
+	}
+
+}
@@ -0,0 +1,209 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.support;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Strategy that decides how a {@link ContentFile} is written to the client.
+ * <ul>
+ * <li>Small files that have been served several times are kept in memory,
+ * as long as the configured heap capacity is not exceeded.</li>
+ * <li>All other files are copied through a buffer.</li>
+ * </ul>
+ * ContentFiles are never served via sendfile: the container writes the file
+ * after the request has been processed, when the CacheItem may already have
+ * been evicted and its files deleted. Files whose lifetime is not bound to
+ * a CacheItem can be served via sendfile using 
+ * {@link #serve(File, long, long, HttpServletRequest, HttpServletResponse)}.
+ */
+public class FileServer {
+
+	public static final FileServer DEFAULT = new FileServer();
+
+	private static final String SENDFILE_SUPPORT_ATTRIBUTE =
+			"org.apache.tomcat.sendfile.support";
+
+	private static final String SENDFILE_FILENAME_ATTRIBUTE =
+			"org.apache.tomcat.sendfile.filename";
+
+	private static final String SENDFILE_START_ATTRIBUTE =
+			"org.apache.tomcat.sendfile.start";
+
+	private static final String SENDFILE_END_ATTRIBUTE =
+			"org.apache.tomcat.sendfile.end";
+
+	private static final String INCLUDE_URI_ATTRIBUTE =
+			"javax.servlet.include.request_uri";
+
+	private long transferThreshold = 64 * 1024;
+
+	private boolean sendfileEnabled = false;
+
+	private int heapThreshold = 16 * 1024;
+
+	private int hotThreshold = 3;
+
+	private long heapCapacity = 8 * 1024 * 1024;
+
+	private AtomicLong heapUsage = new AtomicLong();
+
+	/**
+	 * Sets the size in bytes above which files passed to
+	 * {@link #serve(File, long, long, HttpServletRequest, HttpServletResponse)}
+	 * are handed over to sendfile, if enabled. Default is 64 KB.
+	 */
+	public void setTransferThreshold(long transferThreshold) {
+		this.transferThreshold = transferThreshold;
+	}
+
+	/**
+	 * Sets whether large files passed to 
+	 * {@link #serve(File, long, long, HttpServletRequest, HttpServletResponse)}
+	 * may be served using Tomcat's sendfile support. Default is 
+	 * <code>false</code>. Note that output written via sendfile bypasses all 
+	 * response wrappers, so this should only be enabled if no filter needs 
+	 * to see the response body.
+	 */
+	public void setSendfileEnabled(boolean sendfileEnabled) {
+		this.sendfileEnabled = sendfileEnabled;
+	}
+
+	/**
+	 * Sets the size in bytes up to which files may be kept in memory.
+	 * Default is 16 KB. Set to <code>0</code> to disable the in-memory tier.
+	 */
+	public void setHeapThreshold(int heapThreshold) {
+		this.heapThreshold = heapThreshold;
+	}
+
+	/**
+	 * Sets how often a file must be served before it is kept in memory.
+	 * Default is <code>3</code>.
+	 */
+	public void setHotThreshold(int hotThreshold) {
+		this.hotThreshold = hotThreshold;
+	}
+
+	/**
+	 * Sets the total number of bytes that may be kept in memory.
+	 * Default is 8 MB.
+	 */
+	public void setHeapCapacity(long heapCapacity) {
+		this.heapCapacity = heapCapacity;
+	}
+
+	/**
+	 * Returns the number of bytes currently kept in memory.
+	 */
+	public long getHeapUsage() {
+		return heapUsage.get();
+	}
+
+	public void serve(ContentFile file, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+
+		byte[] bytes = file.getBytes(this);
+		if (bytes != null) {
+			try {
+				response.getOutputStream().write(bytes);
+			}
+			catch (IOException e) {
+				IOUtils.handleClientAbort(e);
+			}
+		}
+		else {
+			IOUtils.serve(file.getFile(), response.getOutputStream());
+		}
+	}
+	
+	/**
+	 * Serves a range of the given file, which must not be deleted or 
+	 * modified once this method has returned, as the container may send 
+	 * it later on. Large ranges are handed over to the container's sendfile
+	 * support, if enabled and available. The caller is responsible for 
+	 * setting the Content-Length header.
+	 * 
+	 * @return the number of bytes copied, or <code>-1</code> if the client
+	 * 		aborted the transfer
+	 */
+	public long serve(File file, long start, long length, 
+			HttpServletRequest request, HttpServletResponse response) 
+			throws IOException {
+		
+		if (length > transferThreshold 
+				&& sendfile(file, start, length, request, response)) {
+			
+			return length;
+		}
+		return IOUtils.transfer(file, start, length, response.getOutputStream());
+	}
+
+	/**
+	 * Hands the file over to the container if sendfile is enabled and
+	 * supported. The file is only sent this way if the response is the
+	 * container's own response, as wrappers (and nested Cachius captures)
+	 * would not see the content otherwise.
+	 */
+	protected boolean sendfile(File file, long start, long length, 
+			HttpServletRequest request, HttpServletResponse response) {
+
+		if (!sendfileEnabled
+				|| !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))
+				|| request.getAttribute(INCLUDE_URI_ATTRIBUTE) != null
+				|| response instanceof HttpServletResponseWrapper
+				|| response.isCommitted()) {
+
+			return false;
+		}
+		request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getAbsolutePath());
+		request.setAttribute(SENDFILE_START_ATTRIBUTE, Long.valueOf(start));
+		request.setAttribute(SENDFILE_END_ATTRIBUTE, Long.valueOf(start + length));
+		return true;
+	}
+
+	/**
+	 * Returns whether a file with the given length that has been served
+	 * the given number of times should be kept in memory.
+	 */
+	boolean isHot(long length, int hits) {
+		return length > 0 && length <= heapThreshold && hits >= hotThreshold;
+	}
+
+	/**
+	 * Reserves the given number of bytes of the heap capacity.
+	 * Returns <code>false</code> if the capacity would be exceeded.
+	 */
+	boolean reserve(int size) {
+		while (true) {
+			long usage = heapUsage.get();
+			if (usage + size > heapCapacity) {
+				return false;
+			}
+			if (heapUsage.compareAndSet(usage, usage + size)) {
+				return true;
+			}
+		}
+	}
+
+	void release(int size) {
+		heapUsage.addAndGet(-size);
+	}
+
+}
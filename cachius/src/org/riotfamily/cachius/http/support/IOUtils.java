@@ -23,6 +23,9 @@ import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 public class IOUtils {
 	
@@ -59,6 +62,46 @@ public class IOUtils {
 		}
 	}
 	
+	/**
+	 * Copies the given number of bytes from an InputStream to an 
+	 * OutputStream. Neither of the streams is closed.
+	 * @return the number of bytes copied
+	 */
+	public static int copy(InputStream in, OutputStream out, int length) 
+			throws IOException {
+		
+		byte[] buffer = new byte[Math.min(length, BUFFER_SIZE)];
+		int remaining = length;
+		while (remaining > 0) {
+			int bytesRead = in.read(buffer, 0, Math.min(remaining, buffer.length));
+			if (bytesRead == -1) {
+				break;
+			}
+			out.write(buffer, 0, bytesRead);
+			remaining -= bytesRead;
+		}
+		return length - remaining;
+	}
+	
+	/**
+	 * Skips the given number of bytes. Unlike InputStream.skip(long) this
+	 * method does not return until all bytes have been skipped or the end
+	 * of the stream has been reached.
+	 */
+	public static void skip(InputStream in, long length) throws IOException {
+		long remaining = length;
+		while (remaining > 0) {
+			long skipped = in.skip(remaining);
+			if (skipped <= 0) {
+				if (in.read() == -1) {
+					break;
+				}
+				skipped = 1;
+			}
+			remaining -= skipped;
+		}
+	}
+	
 	/**
 	 * Copies the content of the given InputStream to an OutputStream,
 	 * swallowing exceptions caused by a ClientAbortException.
@@ -71,12 +114,8 @@ public class IOUtils {
 		try {
 			return copy(in, out);
 		}
-		catch (SocketException e) {
-		}
 		catch (IOException e) {
-			if (!SocketException.class.isInstance(e.getCause())) {
-				throw e;
-			}
+			handleClientAbort(e);
 		}
 		return -1;
 	}
@@ -100,12 +139,43 @@ public class IOUtils {
 		try {
 			return copy(file, out);
 		}
-		catch (SocketException e) {
-		}
 		catch (IOException e) {
-			if (!SocketException.class.isInstance(e.getCause())) {
-				throw e;
+			handleClientAbort(e);
+		}
+		return -1;
+	}
+	
+	/**
+	 * Copies a range of the given File to an OutputStream using
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)}.
+	 * As the OutputStream is wrapped in a generic channel, the data is 
+	 * still copied through a buffer. Unlike {@link #copy(File, OutputStream)}
+	 * this method supports ranges and files larger than 2 GB. Exceptions 
+	 * caused by a ClientAbortException are swallowed.
+	 * 
+	 * @return the number of bytes copied, or <code>-1</code> if the client
+	 * 		aborted the transfer
+	 */
+	public static long transfer(File file, long position, long length, 
+			OutputStream out) throws IOException {
+		
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			WritableByteChannel target = Channels.newChannel(out);
+			long end = Math.min(position + length, channel.size());
+			long pos = position;
+			while (pos < end) {
+				pos += channel.transferTo(pos, end - pos, target);
 			}
+			out.flush();
+			return pos - position;
+		}
+		catch (IOException e) {
+			handleClientAbort(e);
+		}
+		finally {
+			closeStream(in);
 		}
 		return -1;
 	}
@@ -157,12 +227,8 @@ public class IOUtils {
 		try {
 			return copy(in, out);
 		}
-		catch (SocketException e) {
-		}
 		catch (IOException e) {
-			if (!SocketException.class.isInstance(e.getCause())) {
-				throw e;
-			}
+			handleClientAbort(e);
 		}
 		return -1;
 	}
@@ -195,12 +261,8 @@ public class IOUtils {
 		try {
 			return copy(in, out, encoding);
 		}
-		catch (SocketException e) {
-		}
 		catch (IOException e) {
-			if (!SocketException.class.isInstance(e.getCause())) {
-				throw e;
-			}
+			handleClientAbort(e);
 		}
 		return -1;
 	}
@@ -229,16 +291,25 @@ public class IOUtils {
 		try {
 			return copy(file, out, encoding);
 		}
-		catch (SocketException e) {
-		}
 		catch (IOException e) {
-			if (!SocketException.class.isInstance(e.getCause())) {
-				throw e;
-			}
+			handleClientAbort(e);
 		}
 		return -1;
 	}
 		
+	/**
+	 * Swallows the given exception if it has been caused by the client
+	 * closing the connection (a ClientAbortException in Tomcat), and 
+	 * rethrows it otherwise.
+	 */
+	public static void handleClientAbort(IOException e) throws IOException {
+		if (!(e instanceof SocketException) 
+				&& !SocketException.class.isInstance(e.getCause())) {
+			
+			throw e;
+		}
+	}
+	
 	public static void closeStream(InputStream in) {
 		if (in != null) {
 			try {
@@ -1,36 +1,57 @@
 package org.riotfamily.cachius.invalidation;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.riotfamily.cachius.CacheItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Inverted index that maps tags to the items tagged with them. 
+ * <p>
+ * The items of each tag are stored in a concurrent identity set, so that 
+ * items can be added and removed in constant time, even if a tag is shared
+ * by tens of thousands of items (as it is the case for entity class tags).
+ * Invalidation iterates over the set without blocking concurrent updates.
+ * Empty sets are discarded. Additions and removals of a tag may run 
+ * concurrently, but never while the tag's set is being discarded.
+ */
 public class ItemIndex {
 
 	private Logger log = LoggerFactory.getLogger(ItemIndex.class);
 	
-	private ConcurrentHashMap<String, List<CacheItem>> taggedItems =
-			new ConcurrentHashMap<String, List<CacheItem>>();
+	private ConcurrentMap<String, ItemSet> taggedItems =
+			new ConcurrentHashMap<String, ItemSet>();
 	
 	public void add(CacheItem item) {
 		Set<String> tags = item.getTags();
 		if (tags != null) {
 			for (String tag : tags) {
 				log.debug("Tagging item with {}", tag);
-				List<CacheItem> items = taggedItems.get(tag);
+				add(tag, item);
+			}
+		}
+	}
+	
+	private void add(String tag, CacheItem item) {
+		while (true) {
+			ItemSet items = taggedItems.get(tag);
+			if (items == null) {
+				ItemSet newItems = new ItemSet();
+				items = taggedItems.putIfAbsent(tag, newItems);
 				if (items == null) {
-					List<CacheItem> newItems = new ArrayList<CacheItem>();
-					List<CacheItem> oldItems = taggedItems.putIfAbsent(tag, newItems);
-					items = oldItems != null ? oldItems : newItems;
-				}
-				synchronized (items) {
-					items.add(item);
+					items = newItems;
 				}
 			}
+			if (items.add(item)) {
+				break;
+			}
+			// The set has been discarded by a concurrent remove(), retry
 		}
 	}
 	
@@ -38,14 +59,9 @@ public class ItemIndex {
 		Set<String> tags = item.getTags();
 		if (tags != null) {
 			for (String tag : tags) {
-				List<CacheItem> items = taggedItems.get(tag);
-				if (items != null) {
-					synchronized (items) {
-						items.remove(item);
-						if (items.isEmpty()) {
-							taggedItems.remove(tag);
-						}
-					}
+				ItemSet items = taggedItems.get(tag);
+				if (items != null && items.remove(item)) {
+					taggedItems.remove(tag, items);
 				}
 			}
 		}
@@ -54,15 +70,95 @@ public class ItemIndex {
 	public void invalidate(String tag) {
 		if (tag != null) {
 			log.debug("Invalidating items tagged with {}", tag);
-			List<CacheItem> items = taggedItems.get(tag);
+			ItemSet items = taggedItems.get(tag);
 			if (items != null) {
-				synchronized (items) {
-					for (CacheItem item : items) {
-						item.invalidate();
-					}
+				for (CacheItem item : items) {
+					item.invalidate();
 				}
 			}
 		}
 	}
+	
+	/**
+	 * Returns the number of tags.
+	 */
+	public int getTagCount() {
+		return taggedItems.size();
+	}
+	
+	/**
+	 * Returns the number of items tagged with the given tag.
+	 */
+	public int getItemCount(String tag) {
+		ItemSet items = taggedItems.get(tag);
+		return items != null ? items.size() : 0;
+	}
+	
+	/**
+	 * Concurrent set that compares its elements by identity. CacheItems
+	 * don't override <code>equals()</code>, so the keySet of a 
+	 * ConcurrentHashMap is sufficient. Once the set has become empty, it
+	 * is discarded and rejects further additions, so that no item can be
+	 * added to a set that is no longer referenced by the index.
+	 */
+	private static class ItemSet implements Iterable<CacheItem> {
+		
+		private ConcurrentHashMap<CacheItem, Boolean> map = 
+				new ConcurrentHashMap<CacheItem, Boolean>(4);
+		
+		private ReadWriteLock lock = new ReentrantReadWriteLock();
+		
+		private boolean discarded;
+		
+		/**
+		 * Adds the item, unless the set has been discarded.
+		 * 
+		 * @return <code>false</code> if the set has been discarded
+		 */
+		public boolean add(CacheItem item) {
+			lock.readLock().lock();
+			try {
+				if (discarded) {
+					return false;
+				}
+				map.put(item, Boolean.TRUE);
+				return true;
+			}
+			finally {
+				lock.readLock().unlock();
+			}
+		}
+		
+		/**
+		 * Removes the item and discards the set if it is empty afterwards.
+		 * 
+		 * @return <code>true</code> if the set has been discarded
+		 */
+		public boolean remove(CacheItem item) {
+			map.remove(item);
+			if (!map.isEmpty()) {
+				return false;
+			}
+			lock.writeLock().lock();
+			try {
+				if (discarded || !map.isEmpty()) {
+					return false;
+				}
+				discarded = true;
+				return true;
+			}
+			finally {
+				lock.writeLock().unlock();
+			}
+		}
+		
+		public int size() {
+			return map.size();
+		}
+		
+		public Iterator<CacheItem> iterator() {
+			return map.keySet().iterator();
+		}
+	}
 
 }
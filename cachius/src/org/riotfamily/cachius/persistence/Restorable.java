@@ -0,0 +1,29 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.persistence;
+
+/**
+ * Interface for cached data that references external resources, like files
+ * provided by a {@link DiskStore}. Used to check whether data that has been
+ * restored from a snapshot is still usable.
+ */
+public interface Restorable {
+
+	/**
+	 * Returns whether all resources referenced by the data still exist and
+	 * have not been modified after the given time. Files that have been 
+	 * modified may have been deleted and re-created for other data.
+	 */
+	public boolean isRestorable(long snapshotTime);
+
+}
@@ -0,0 +1,115 @@
+package org.riotfamily.cachius.stats;
+
+/**
+ * Histogram with exponentially growing bucket sizes. The first bucket 
+ * holds values below 1, the next one values between 1 and 2, then 2 to 4 
+ * and so on. The last bucket holds all values that exceed the range of the
+ * preceding buckets.
+ */
+public class Histogram {
+
+	private StripedCounter[] buckets;
+	
+	private StripedCounter sum = new StripedCounter();
+	
+	/**
+	 * Creates a histogram that covers values from 0 to 
+	 * <code>2^(bucketCount - 2)</code>.
+	 */
+	public Histogram(int bucketCount) {
+		buckets = new StripedCounter[bucketCount];
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new StripedCounter();
+		}
+	}
+	
+	public void record(long value) {
+		int i = value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value);
+		buckets[Math.min(i, buckets.length - 1)].increment();
+		sum.add(value);
+	}
+	
+	/**
+	 * Returns the upper bound (exclusive) of the bucket with the given index,
+	 * or <code>-1</code> for the last bucket, which has no upper bound.
+	 */
+	public long getUpperBound(int bucket) {
+		if (bucket >= buckets.length - 1) {
+			return -1;
+		}
+		return 1L << bucket;
+	}
+	
+	public int getBucketCount() {
+		return buckets.length;
+	}
+	
+	/**
+	 * Returns the number of recorded values in each bucket.
+	 */
+	public long[] getCounts() {
+		long[] counts = new long[buckets.length];
+		for (int i = 0; i < buckets.length; i++) {
+			counts[i] = buckets[i].get();
+		}
+		return counts;
+	}
+	
+	public long getCount() {
+		long count = 0;
+		for (StripedCounter bucket : buckets) {
+			count += bucket.get();
+		}
+		return count;
+	}
+	
+	public long getSum() {
+		return sum.get();
+	}
+	
+	/**
+	 * Returns the average of all recorded values, or <code>-1</code> if no
+	 * values have been recorded.
+	 */
+	public long getAverage() {
+		long count = getCount();
+		return count > 0 ? getSum() / count : -1;
+	}
+	
+	/**
+	 * Returns an estimate for the given percentile, that is the upper bound 
+	 * of the bucket that contains the value. If the value falls into the 
+	 * last bucket, the lower bound of that bucket is returned. 
+	 * 
+	 * @param p Percentile between 0 and 1
+	 * @return The estimated value or <code>-1</code> if no values have been 
+	 *         recorded
+	 */
+	public long getPercentile(double p) {
+		long[] counts = getCounts();
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		if (total == 0) {
+			return -1;
+		}
+		long threshold = (long) Math.ceil(total * p);
+		long n = 0;
+		for (int i = 0; i < counts.length - 1; i++) {
+			n += counts[i];
+			if (n >= threshold) {
+				return getUpperBound(i);
+			}
+		}
+		return 1L << (counts.length - 2);
+	}
+	
+	public void reset() {
+		for (StripedCounter bucket : buckets) {
+			bucket.reset();
+		}
+		sum.reset();
+	}
+	
+}
@@ -0,0 +1,64 @@
+package org.riotfamily.cachius.stats;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how often items have been invalidated, grouped by tag. As tags 
+ * usually contain an object id (like <code>com.example.Page#42</code>),
+ * everything after the first <code>#</code> is stripped, so that the
+ * number of counters is limited by the number of tagged types.
+ */
+public class InvalidationStats implements InvalidationStatsMBean {
+
+	private ConcurrentMap<String, AtomicLong> counts = 
+			new ConcurrentHashMap<String, AtomicLong>();
+	
+	public void addInvalidation(String tag) {
+		if (tag == null) {
+			return;
+		}
+		String group = getGroup(tag);
+		AtomicLong count = counts.get(group);
+		if (count == null) {
+			AtomicLong newCount = new AtomicLong();
+			count = counts.putIfAbsent(group, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		count.incrementAndGet();
+	}
+	
+	protected String getGroup(String tag) {
+		int i = tag.indexOf('#');
+		return i != -1 ? tag.substring(0, i) : tag;
+	}
+	
+	public long getTotalInvalidations() {
+		long total = 0;
+		for (AtomicLong count : counts.values()) {
+			total += count.get();
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns the number of invalidations per tag, sorted by tag.
+	 */
+	public Map<String, Long> getInvalidations() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : counts.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().get());
+		}
+		return result;
+	}
+	
+	public void reset() {
+		counts.clear();
+	}
+	
+}
@@ -0,0 +1,16 @@
+package org.riotfamily.cachius.stats;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link InvalidationStats}.
+ */
+public interface InvalidationStatsMBean {
+
+	public long getTotalInvalidations();
+	
+	public Map<String, Long> getInvalidations();
+	
+	public void reset();
+	
+}
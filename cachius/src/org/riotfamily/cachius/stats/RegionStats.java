@@ -0,0 +1,158 @@
+package org.riotfamily.cachius.stats;
+
+import org.riotfamily.cachius.Cache;
+
+/**
+ * Statistics of a single cache region. All counters can be updated 
+ * concurrently without contention.
+ */
+public class RegionStats implements RegionStatsMBean {
+
+	private Cache cache;
+	
+	private StripedCounter hits = new StripedCounter();
+	
+	private StripedCounter misses = new StripedCounter();
+	
+	private StripedCounter staleServes = new StripedCounter();
+	
+	private StripedCounter blockingCaptures = new StripedCounter();
+	
+	private StripedCounter nonBlockingCaptures = new StripedCounter();
+	
+	private StripedCounter backgroundCaptures = new StripedCounter();
+	
+	private StripedCounter captureErrors = new StripedCounter();
+	
+	private StripedCounter evictions = new StripedCounter();
+	
+	/** Capture times in milliseconds, up to 2^16 (65 seconds) */
+	private Histogram captureTimes = new Histogram(18);
+	
+	public RegionStats(Cache cache) {
+		this.cache = cache;
+	}
+	
+	public String getName() {
+		return cache.getRegion().getName();
+	}
+	
+	public int getSize() {
+		return cache.getSize();
+	}
+	
+	public long getWeight() {
+		return cache.getWeight();
+	}
+	
+	public void addHit() {
+		hits.increment();
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public void addMiss() {
+		misses.increment();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the ratio of hits to the total number of lookups, or 
+	 * <code>0</code> if there haven't been any lookups yet.
+	 */
+	public double getHitRatio() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total > 0 ? (double) hits / total : 0;
+	}
+	
+	/**
+	 * Records that stale content has been served while the item was 
+	 * revalidated in the background.
+	 */
+	public void addStaleServe() {
+		staleServes.increment();
+	}
+	
+	public long getStaleServes() {
+		return staleServes.get();
+	}
+	
+	public void addBlockingCapture() {
+		blockingCaptures.increment();
+	}
+	
+	public long getBlockingCaptures() {
+		return blockingCaptures.get();
+	}
+	
+	public void addNonBlockingCapture() {
+		nonBlockingCaptures.increment();
+	}
+	
+	public long getNonBlockingCaptures() {
+		return nonBlockingCaptures.get();
+	}
+	
+	public void addBackgroundCapture() {
+		backgroundCaptures.increment();
+	}
+	
+	public long getBackgroundCaptures() {
+		return backgroundCaptures.get();
+	}
+	
+	public void addCaptureError() {
+		captureErrors.increment();
+	}
+	
+	public long getCaptureErrors() {
+		return captureErrors.get();
+	}
+	
+	public void addCaptureTime(long millis) {
+		captureTimes.record(millis);
+	}
+	
+	public Histogram getCaptureTimes() {
+		return captureTimes;
+	}
+	
+	public long getAverageCaptureTime() {
+		return captureTimes.getAverage();
+	}
+	
+	public long getCaptureTime95thPercentile() {
+		return captureTimes.getPercentile(0.95);
+	}
+	
+	public long getCaptureTime99thPercentile() {
+		return captureTimes.getPercentile(0.99);
+	}
+	
+	public void addEviction() {
+		evictions.increment();
+	}
+	
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	public void reset() {
+		hits.reset();
+		misses.reset();
+		staleServes.reset();
+		blockingCaptures.reset();
+		nonBlockingCaptures.reset();
+		backgroundCaptures.reset();
+		captureErrors.reset();
+		evictions.reset();
+		captureTimes.reset();
+	}
+	
+}
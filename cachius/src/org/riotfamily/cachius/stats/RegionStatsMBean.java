@@ -0,0 +1,40 @@
+package org.riotfamily.cachius.stats;
+
+/**
+ * Management interface of the {@link RegionStats}.
+ */
+public interface RegionStatsMBean {
+
+	public String getName();
+	
+	public int getSize();
+	
+	public long getWeight();
+	
+	public long getHits();
+	
+	public long getMisses();
+	
+	public double getHitRatio();
+	
+	public long getStaleServes();
+	
+	public long getBlockingCaptures();
+	
+	public long getNonBlockingCaptures();
+	
+	public long getBackgroundCaptures();
+	
+	public long getCaptureErrors();
+	
+	public long getAverageCaptureTime();
+	
+	public long getCaptureTime95thPercentile();
+	
+	public long getCaptureTime99thPercentile();
+	
+	public long getEvictions();
+	
+	public void reset();
+	
+}
@@ -0,0 +1,82 @@
+package org.riotfamily.cachius.stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.riotfamily.cachius.Cache;
+import org.riotfamily.cachius.CacheService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the statistics of a {@link CacheService} with an MBeanServer.
+ * The following MBeans are exported:
+ * <ul>
+ * <li><code>org.riotfamily.cachius:type=Region,name=&lt;region&gt;</code></li>
+ * <li><code>org.riotfamily.cachius:type=Invalidation</code></li>
+ * <li><code>org.riotfamily.cachius:type=Revalidation</code> (if a 
+ *     RevalidationExecutor is configured)</li>
+ * </ul>
+ */
+public class StatsMBeanExporter {
+
+	public static final String DOMAIN = "org.riotfamily.cachius";
+	
+	private Logger log = LoggerFactory.getLogger(StatsMBeanExporter.class);
+	
+	private CacheService cacheService;
+	
+	private MBeanServer server;
+	
+	private List<ObjectName> registeredNames = new ArrayList<ObjectName>();
+	
+	public StatsMBeanExporter(CacheService cacheService) {
+		this(cacheService, ManagementFactory.getPlatformMBeanServer());
+	}
+	
+	public StatsMBeanExporter(CacheService cacheService, MBeanServer server) {
+		this.cacheService = cacheService;
+		this.server = server;
+	}
+	
+	public void register() throws JMException {
+		for (Cache cache : cacheService.getCaches()) {
+			register(cache.getStats(), "type=Region,name=" 
+					+ ObjectName.quote(cache.getRegion().getName()));
+		}
+		register(cacheService.getInvalidationStats(), "type=Invalidation");
+		if (cacheService.getRevalidationExecutor() != null) {
+			register(cacheService.getRevalidationExecutor(), "type=Revalidation");
+		}
+	}
+	
+	private void register(Object mbean, String properties) throws JMException {
+		ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+		if (server.isRegistered(name)) {
+			log.warn("Replacing existing MBean {}", name);
+			server.unregisterMBean(name);
+		}
+		server.registerMBean(mbean, name);
+		registeredNames.add(name);
+	}
+	
+	public void unregister() {
+		for (ObjectName name : registeredNames) {
+			try {
+				if (server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+			}
+			catch (JMException e) {
+				log.warn("Failed to unregister MBean " + name, e);
+			}
+		}
+		registeredNames.clear();
+	}
+	
+}
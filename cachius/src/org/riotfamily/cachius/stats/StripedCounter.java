@@ -0,0 +1,74 @@
+package org.riotfamily.cachius.stats;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that is optimized for frequent updates by many threads and 
+ * infrequent reads. Instead of a single value that would be contended by
+ * all threads, the counter is split into several cells. Each thread updates
+ * the cell selected by its id. Reading the value sums up all cells, hence 
+ * the result is not an atomic snapshot.
+ */
+public class StripedCounter {
+
+	/** 
+	 * Number of array elements between two cells. Keeps the cells in 
+	 * different cache lines, so that updates don't cause false sharing.
+	 */
+	private static final int PADDING = 8;
+	
+	private static final int STRIPES = stripes();
+	
+	private AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+	
+	private static int stripes() {
+		int n = Runtime.getRuntime().availableProcessors() * 2;
+		int stripes = 1;
+		while (stripes < n) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+	
+	private int index() {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32));
+		h ^= (h >>> 16);
+		return (h & (STRIPES - 1)) * PADDING;
+	}
+	
+	public void increment() {
+		cells.incrementAndGet(index());
+	}
+	
+	public void add(long delta) {
+		cells.addAndGet(index(), delta);
+	}
+	
+	/**
+	 * Returns the sum of all cells.
+	 */
+	public long get() {
+		long sum = 0;
+		for (int i = 0; i < cells.length(); i += PADDING) {
+			sum += cells.get(i);
+		}
+		return sum;
+	}
+	
+	/**
+	 * Resets all cells to zero. Updates that happen concurrently may or may
+	 * not be lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < cells.length(); i += PADDING) {
+			cells.set(i, 0);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return String.valueOf(get());
+	}
+	
+}
@@ -0,0 +1,284 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.cachius.persistence.Deleteable;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.cachius.stats.RegionStats;
+
+public class CacheServiceTest {
+
+	private CacheService cacheService;
+
+	@Before
+	public void setUp() {
+		cacheService = new CacheService();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		cacheService.destroy();
+	}
+
+	@Test
+	public void testHit() throws Exception {
+		TestHandler handler = new TestHandler();
+		cacheService.handle(handler);
+		cacheService.handle(handler);
+		assertEquals(1, handler.captured.get());
+		assertEquals(2, handler.served.get());
+	}
+
+	@Test
+	public void testStatistics() throws Exception {
+		TestHandler handler = new TestHandler();
+		cacheService.handle(handler);
+		cacheService.handle(handler);
+		cacheService.invalidateTaggedItems("test#1");
+		RegionStats stats = cacheService.getCache(null).getStats();
+		assertEquals(1, stats.getHits());
+		assertEquals(1, stats.getMisses());
+		assertEquals(1, stats.getBlockingCaptures());
+		assertEquals(1, stats.getCaptureTimes().getCount());
+		assertEquals(Long.valueOf(1), 
+				cacheService.getInvalidationStats().getInvalidations().get("test"));
+	}
+
+	@Test
+	public void testInvalidation() throws Exception {
+		TestHandler handler = new TestHandler();
+		cacheService.handle(handler);
+		TestData first = handler.lastServed;
+		Thread.sleep(5);
+		cacheService.invalidateTaggedItems("test");
+		cacheService.handle(handler);
+		assertEquals(2, handler.captured.get());
+		assertNotSame(first, handler.lastServed);
+		assertTrue(first.deleted);
+		assertFalse(handler.lastServed.deleted);
+	}
+
+	@Test
+	public void testDataIsNotDeletedWhileServed() throws Exception {
+		final TestHandler handler = new TestHandler();
+		cacheService.handle(handler);
+		TestData first = handler.lastServed;
+
+		final CountDownLatch serving = new CountDownLatch(1);
+		final CountDownLatch replaced = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					cacheService.handle(new TestHandler() {
+						@Override
+						public void serve(Serializable data) throws Exception {
+							serving.countDown();
+							replaced.await();
+							assertFalse(((TestData) data).deleted);
+						}
+					});
+				}
+				catch (Throwable e) {
+					failure.set(e);
+					serving.countDown();
+				}
+			}
+		};
+		reader.start();
+		serving.await();
+
+		Thread.sleep(5);
+		cacheService.invalidateTaggedItems("test");
+		cacheService.handle(handler);
+		assertEquals(2, handler.captured.get());
+		assertFalse(first.deleted);
+
+		replaced.countDown();
+		reader.join();
+		if (failure.get() instanceof Error) {
+			throw (Error) failure.get();
+		}
+		if (failure.get() != null) {
+			throw (Exception) failure.get();
+		}
+		assertTrue(first.deleted);
+	}
+
+	@Test
+	public void testErrorIsNotCached() throws Exception {
+		TestHandler handler = new TestHandler();
+		handler.error = true;
+		cacheService.handle(handler);
+		assertTrue(handler.lastServed.deleted);
+		handler.error = false;
+		cacheService.handle(handler);
+		assertEquals(2, handler.captured.get());
+		assertFalse(handler.lastServed.deleted);
+	}
+
+	@Test
+	public void testBackgroundRevalidation() throws Exception {
+		RevalidationExecutor executor = new RevalidationExecutor(1, 10);
+		cacheService.setRevalidationExecutor(executor);
+		TestHandler handler = new TestHandler();
+		handler.serveStaleWhileRevalidate = true;
+		cacheService.handle(handler);
+		TestData first = handler.lastServed;
+		
+		Thread.sleep(5);
+		cacheService.invalidateTaggedItems("test");
+		cacheService.handle(handler);
+		assertSame(first, handler.lastServed);
+		
+		while (executor.getCompletedCount() < 1) {
+			Thread.sleep(5);
+		}
+		assertEquals(2, handler.captured.get());
+		assertEquals(0, executor.getPendingCount());
+		assertTrue(first.deleted);
+		
+		cacheService.handle(handler);
+		assertNotSame(first, handler.lastServed);
+		assertEquals(2, handler.captured.get());
+	}
+
+	@Test
+	public void testFailedBackgroundRevalidation() throws Exception {
+		RevalidationExecutor executor = new RevalidationExecutor(1, 10);
+		cacheService.setRevalidationExecutor(executor);
+		TestHandler handler = new TestHandler();
+		handler.serveStaleWhileRevalidate = true;
+		cacheService.handle(handler);
+		
+		Thread.sleep(5);
+		cacheService.invalidateTaggedItems("test");
+		handler.failure = true;
+		cacheService.handle(handler);
+		while (executor.getCompletedCount() < 1) {
+			Thread.sleep(5);
+		}
+		assertEquals(1, executor.getFailedCount());
+		assertEquals(1, handler.captured.get());
+		
+		handler.failure = false;
+		cacheService.handle(handler);
+		assertEquals(2, handler.captured.get());
+		RegionStats stats = cacheService.getCache(null).getStats();
+		assertEquals(1, stats.getNonBlockingCaptures());
+		assertEquals(1, executor.getCompletedCount());
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		File file = File.createTempFile("cachius", ".snapshot");
+		try {
+			cacheService.setSnapshotFile(file);
+			cacheService.handle(new TestHandler());
+			cacheService.destroy();
+			
+			cacheService = new CacheService();
+			cacheService.setSnapshotFile(file);
+			cacheService.init();
+			TestHandler handler = new TestHandler();
+			cacheService.handle(handler);
+			assertEquals(0, handler.captured.get());
+			assertEquals(1, handler.served.get());
+			
+			Thread.sleep(5);
+			cacheService.invalidateTaggedItems("test");
+			cacheService.handle(handler);
+			assertEquals(1, handler.captured.get());
+		}
+		finally {
+			cacheService.setSnapshotFile(null);
+			file.delete();
+		}
+	}
+
+	private static class TestHandler implements DetachableCacheHandler {
+
+		AtomicInteger captured = new AtomicInteger();
+
+		AtomicInteger served = new AtomicInteger();
+
+		volatile TestData lastServed;
+
+		volatile boolean error;
+		
+		volatile boolean serveStaleWhileRevalidate;
+		
+		volatile boolean failure;
+
+		public String getCacheKey() {
+			return "key";
+		}
+
+		public String getCacheRegion() {
+			return null;
+		}
+
+		public long getLastModified() {
+			return System.currentTimeMillis();
+		}
+
+		public Serializable capture(DiskStore diskStore) throws Exception {
+			if (failure) {
+				throw new IllegalStateException("Capture failed");
+			}
+			captured.incrementAndGet();
+			CacheContext.tag("test");
+			if (error) {
+				CacheContext.error();
+			}
+			if (serveStaleWhileRevalidate) {
+				CacheContext.serveStaleWhileRevalidate();
+			}
+			return new TestData();
+		}
+
+		public void serve(Serializable data) throws Exception {
+			served.incrementAndGet();
+			lastServed = (TestData) data;
+		}
+
+		public void handleUncached() throws Exception {
+		}
+		
+		public CacheHandler detach() {
+			return this;
+		}
+
+	}
+
+	private static class TestData implements Serializable, Deleteable {
+
+		volatile boolean deleted;
+
+		public void delete() {
+			deleted = true;
+		}
+	}
+}
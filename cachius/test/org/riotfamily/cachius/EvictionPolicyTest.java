@@ -0,0 +1,86 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.riotfamily.cachius.eviction.EvictionPolicy;
+import org.riotfamily.cachius.eviction.LruEvictionPolicy;
+import org.riotfamily.cachius.eviction.TinyLfuEvictionPolicy;
+
+public class EvictionPolicyTest {
+
+	@Test
+	public void testLruOrder() {
+		EvictionPolicy policy = new LruEvictionPolicy();
+		policy.setMaximumSize(2);
+		CacheEntry a = new CacheEntry("a");
+		CacheEntry b = new CacheEntry("b");
+		CacheEntry c = new CacheEntry("c");
+		policy.entryAdded(a);
+		policy.entryAdded(b);
+		policy.entryAdded(c);
+		policy.entryAccessed(a);
+		assertSame(b, policy.nextVictim());
+		assertSame(c, policy.nextVictim());
+		assertSame(a, policy.nextVictim());
+		assertNull(policy.nextVictim());
+	}
+
+	@Test
+	public void testRemovedEntriesAreIgnored() {
+		EvictionPolicy policy = new LruEvictionPolicy();
+		CacheEntry a = new CacheEntry("a");
+		CacheEntry b = new CacheEntry("b");
+		policy.entryAdded(a);
+		policy.entryAdded(b);
+		policy.entryRemoved(a);
+		policy.entryAccessed(a);
+		assertSame(b, policy.nextVictim());
+		assertNull(policy.nextVictim());
+	}
+
+	@Test
+	public void testPopularEntriesSurviveScan() {
+		EvictionPolicy policy = new TinyLfuEvictionPolicy();
+		policy.setMaximumSize(100);
+		Set<CacheEntry> popular = new HashSet<CacheEntry>();
+		for (int i = 0; i < 100; i++) {
+			CacheEntry entry = new CacheEntry("popular" + i);
+			policy.entryAdded(entry);
+			popular.add(entry);
+		}
+		for (int n = 0; n < 5; n++) {
+			for (CacheEntry entry : popular) {
+				policy.entryAccessed(entry);
+			}
+		}
+		for (int i = 0; i < 1000; i++) {
+			policy.entryAdded(new CacheEntry("scan" + i));
+		}
+		int evictedPopular = 0;
+		for (int i = 0; i < 1000; i++) {
+			CacheEntry victim = policy.nextVictim();
+			assertNotNull(victim);
+			if (popular.contains(victim)) {
+				evictedPopular++;
+			}
+		}
+		assertTrue(evictedPopular < 5);
+	}
+
+}
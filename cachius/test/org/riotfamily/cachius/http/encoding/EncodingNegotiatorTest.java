@@ -0,0 +1,109 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.http.encoding;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class EncodingNegotiatorTest {
+
+	private EncodingNegotiator negotiator;
+	
+	@Before
+	public void setUp() {
+		negotiator = new EncodingNegotiator();
+		List<ContentEncoder> encoders = new ArrayList<ContentEncoder>();
+		encoders.add(new TestEncoder("br"));
+		encoders.add(new GzipEncoder());
+		negotiator.setEncoders(encoders);
+	}
+	
+	@Test
+	public void testPreferenceOrder() {
+		assertArrayEquals(new String[] {"br", "gzip"}, 
+				negotiator.getAcceptedEncodings("gzip, deflate, br"));
+		
+		assertArrayEquals(new String[] {"gzip"}, 
+				negotiator.getAcceptedEncodings("gzip, deflate"));
+	}
+	
+	@Test
+	public void testQualityValues() {
+		assertArrayEquals(new String[] {"gzip", "br"}, 
+				negotiator.getAcceptedEncodings("br;q=0.5, gzip"));
+		
+		assertArrayEquals(new String[] {"br"}, 
+				negotiator.getAcceptedEncodings("*, gzip;q=0"));
+		
+		assertArrayEquals(new String[] {"gzip"}, 
+				negotiator.getAcceptedEncodings("x-gzip"));
+		
+		assertArrayEquals(new String[0], 
+				negotiator.getAcceptedEncodings("identity"));
+	}
+	
+	@Test
+	public void testGzipBugs() {
+		assertTrue(negotiator.userAgentHasGzipBugs(
+				"Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1)"));
+		
+		assertFalse(negotiator.userAgentHasGzipBugs(
+				"Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1; SV1)"));
+		
+		assertFalse(negotiator.userAgentHasGzipBugs(
+				"Mozilla/5.0 (Windows NT 10.0; rv:91.0) Gecko/20100101"));
+	}
+	
+	@Test(expected=IOException.class)
+	public void testFailedCloseIsPropagated() throws IOException {
+		OutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public void close() throws IOException {
+				throw new IOException("Disk full");
+			}
+		};
+		new GzipEncoder().encode(new ByteArrayInputStream(new byte[100]), out);
+	}
+	
+	private static class TestEncoder implements ContentEncoder {
+		
+		private String name;
+		
+		public TestEncoder(String name) {
+			this.name = name;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public boolean isAvailable() {
+			return true;
+		}
+		
+		public void encode(InputStream in, OutputStream out) throws IOException {
+			out.close();
+		}
+	}
+	
+}
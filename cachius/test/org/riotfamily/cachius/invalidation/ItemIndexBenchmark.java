@@ -0,0 +1,136 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.riotfamily.cachius.CacheItem;
+
+/**
+ * Compares the {@link ItemIndex} with the previous implementation, which 
+ * stored the items of each tag in a synchronized ArrayList. Simulates 
+ * captures that replace items sharing a popular tag (like an entity class 
+ * tag). Run with <code>java ItemIndexBenchmark [items] [replacements]</code>.
+ */
+public class ItemIndexBenchmark {
+
+	public static void main(String[] args) {
+		int items = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int replacements = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		for (int run = 0; run < 3; run++) {
+			System.out.printf("ArrayList index: %6d ms%n", 
+					run(new ListItemIndex(), items, replacements));
+			
+			System.out.printf("ItemIndex:       %6d ms%n", 
+					run(new ItemIndexAdapter(), items, replacements));
+		}
+	}
+	
+	private static long run(Index index, int itemCount, int replacements) {
+		CacheItem[] items = new CacheItem[itemCount];
+		for (int i = 0; i < itemCount; i++) {
+			items[i] = createItem("item" + i, i);
+			index.add(items[i]);
+		}
+		long start = System.currentTimeMillis();
+		for (int n = 0; n < replacements; n++) {
+			int i = (n * 7919) % itemCount;
+			CacheItem newItem = createItem("item" + i, i);
+			index.remove(items[i]);
+			index.add(newItem);
+			items[i] = newItem;
+			if (n % 1000 == 0) {
+				index.invalidate("com.example.Page");
+			}
+		}
+		return System.currentTimeMillis() - start;
+	}
+	
+	private static CacheItem createItem(String key, int i) {
+		CacheItem item = new CacheItem(key);
+		item.addTag("com.example.Page");
+		item.addTag("com.example.Page#" + i);
+		item.addTag("com.example.Site#" + (i % 10));
+		return item;
+	}
+	
+	private interface Index {
+		
+		public void add(CacheItem item);
+		
+		public void remove(CacheItem item);
+		
+		public void invalidate(String tag);
+	}
+	
+	private static class ItemIndexAdapter extends ItemIndex implements Index {
+	}
+	
+	/**
+	 * The previous ItemIndex implementation.
+	 */
+	private static class ListItemIndex implements Index {
+		
+		private ConcurrentHashMap<String, List<CacheItem>> taggedItems =
+				new ConcurrentHashMap<String, List<CacheItem>>();
+		
+		public void add(CacheItem item) {
+			Set<String> tags = item.getTags();
+			if (tags != null) {
+				for (String tag : tags) {
+					List<CacheItem> items = taggedItems.get(tag);
+					if (items == null) {
+						List<CacheItem> newItems = new ArrayList<CacheItem>();
+						List<CacheItem> oldItems = taggedItems.putIfAbsent(tag, newItems);
+						items = oldItems != null ? oldItems : newItems;
+					}
+					synchronized (items) {
+						items.add(item);
+					}
+				}
+			}
+		}
+		
+		public void remove(CacheItem item) {
+			Set<String> tags = item.getTags();
+			if (tags != null) {
+				for (String tag : tags) {
+					List<CacheItem> items = taggedItems.get(tag);
+					if (items != null) {
+						synchronized (items) {
+							items.remove(item);
+							if (items.isEmpty()) {
+								taggedItems.remove(tag);
+							}
+						}
+					}
+				}
+			}
+		}
+		
+		public void invalidate(String tag) {
+			List<CacheItem> items = taggedItems.get(tag);
+			if (items != null) {
+				synchronized (items) {
+					for (CacheItem item : items) {
+						item.invalidate();
+					}
+				}
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,93 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.cachius.invalidation;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.riotfamily.cachius.CacheItem;
+
+public class ItemIndexTest {
+
+	private CacheItem createItem(String key, String... tags) {
+		CacheItem item = new CacheItem(key);
+		for (String tag : tags) {
+			item.addTag(tag);
+		}
+		return item;
+	}
+	
+	@Test
+	public void testInvalidate() {
+		ItemIndex index = new ItemIndex();
+		CacheItem a = createItem("a", "x", "y");
+		CacheItem b = createItem("b", "y");
+		index.add(a);
+		index.add(b);
+		index.invalidate("x");
+		assertTrue(a.isInvalidated());
+		assertFalse(b.isInvalidated());
+		index.invalidate("y");
+		assertTrue(b.isInvalidated());
+	}
+	
+	@Test
+	public void testRemove() {
+		ItemIndex index = new ItemIndex();
+		CacheItem a = createItem("a", "x");
+		CacheItem b = createItem("b", "x");
+		index.add(a);
+		index.add(b);
+		assertEquals(2, index.getItemCount("x"));
+		index.remove(a);
+		index.invalidate("x");
+		assertFalse(a.isInvalidated());
+		assertTrue(b.isInvalidated());
+		index.remove(b);
+		assertEquals(0, index.getTagCount());
+	}
+	
+	@Test
+	public void testConcurrentAddAndRemove() throws Exception {
+		final ItemIndex index = new ItemIndex();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 10000; j++) {
+							CacheItem item = createItem("item", "x");
+							index.add(item);
+							index.remove(item);
+						}
+					}
+					catch (Throwable e) {
+						failure.set(e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(failure.get());
+		assertEquals(0, index.getItemCount("x"));
+		assertEquals(0, index.getTagCount());
+	}
+	
+}
@@ -24,11 +24,13 @@ import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
 import org.hibernate.type.Type;
 import org.riotfamily.common.util.Generics;
+import org.riotfamily.common.web.support.RequestTiming;
 
 
 /**
  * Hibernate {@link Interceptor} that allows the chaining of multiple 
- * implementations.
+ * implementations. Additionally the number of loaded entities is recorded
+ * as {@link RequestTiming#LOAD} count.
  * 
  * @author Felix Gnass [fgnass at neteye dot de]
  * @since 8.0
@@ -60,6 +62,7 @@ public class ChainedInterceptor implements SessionFactoryAwareInterceptor {
 	public boolean onLoad(Object entity, Serializable id, Object[] state,
 			String[] propertyNames, Type[] types) {
 		
+		RequestTiming.count(RequestTiming.LOAD);
 		boolean result = false;
 		for (Interceptor interceptor : interceptors) {
 			result |= interceptor.onLoad(entity, id, state, propertyNames, types);
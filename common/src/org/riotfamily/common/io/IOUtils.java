@@ -84,12 +84,8 @@ public class IOUtils {
 		try {
 			return copy(in, out);
 		}
-		catch (SocketException e) {
-		}
 		catch (IOException e) {
-			if (!SocketException.class.isInstance(e.getCause())) {
-				throw e;
-			}
+			handleClientAbort(e);
 		}
 		return -1;
 	}
@@ -113,12 +109,8 @@ public class IOUtils {
 		try {
 			return copy(file, out);
 		}
-		catch (SocketException e) {
-		}
 		catch (IOException e) {
-			if (!SocketException.class.isInstance(e.getCause())) {
-				throw e;
-			}
+			handleClientAbort(e);
 		}
 		return -1;
 	}
@@ -159,12 +151,8 @@ public class IOUtils {
 		try {
 			return copy(in, out);
 		}
-		catch (SocketException e) {
-		}
 		catch (IOException e) {
-			if (!SocketException.class.isInstance(e.getCause())) {
-				throw e;
-			}
+			handleClientAbort(e);
 		}
 		return -1;
 	}
@@ -197,12 +185,8 @@ public class IOUtils {
 		try {
 			return copy(in, out, encoding);
 		}
-		catch (SocketException e) {
-		}
 		catch (IOException e) {
-			if (!SocketException.class.isInstance(e.getCause())) {
-				throw e;
-			}
+			handleClientAbort(e);
 		}
 		return -1;
 	}
@@ -231,12 +215,8 @@ public class IOUtils {
 		try {
 			return copy(file, out, encoding);
 		}
-		catch (SocketException e) {
-		}
 		catch (IOException e) {
-			if (!SocketException.class.isInstance(e.getCause())) {
-				throw e;
-			}
+			handleClientAbort(e);
 		}
 		return -1;
 	}
@@ -249,12 +229,21 @@ public class IOUtils {
 		try {
 			out.write(buffer);
 		}
-		catch (SocketException e) {
-		}
 		catch (IOException e) {
-			if (!SocketException.class.isInstance(e.getCause())) {
-				throw e;
-			}
+			handleClientAbort(e);
+		}
+	}
+	
+	/**
+	 * Swallows the given exception if it has been caused by the client
+	 * closing the connection (a ClientAbortException in Tomcat), and 
+	 * rethrows it otherwise.
+	 */
+	public static void handleClientAbort(IOException e) throws IOException {
+		if (!(e instanceof SocketException) 
+				&& !SocketException.class.isInstance(e.getCause())) {
+			
+			throw e;
 		}
 	}
 	
@@ -0,0 +1,63 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.common.web.cache;
+
+import java.util.Locale;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.riotfamily.cachius.http.support.DetachedHttpServletRequest;
+import org.riotfamily.common.web.support.RequestHolder;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.context.i18n.SimpleLocaleContext;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * Holds the thread-bound state that is set up by the DispatcherServlet and
+ * the {@link RequestHolder} for a request, so that it can be restored when
+ * a {@link DetachedHttpServletRequest} is processed in a background thread.
+ * <p>
+ * Instances must be created by the thread that handles the original 
+ * request.
+ */
+public class DetachedRequestContext {
+
+	private Locale locale;
+	
+	public DetachedRequestContext() {
+		this.locale = LocaleContextHolder.getLocale();
+	}
+	
+	/**
+	 * Binds the given request and response to the current thread.
+	 */
+	public void bind(HttpServletRequest request, HttpServletResponse response) {
+		LocaleContextHolder.setLocaleContext(new SimpleLocaleContext(locale));
+		RequestContextHolder.setRequestAttributes(
+				new ServletRequestAttributes(request));
+		
+		RequestHolder.set(request, response);
+	}
+	
+	/**
+	 * Removes all thread-bound state set by {@link #bind}.
+	 */
+	public void reset() {
+		RequestHolder.unset();
+		RequestContextHolder.resetRequestAttributes();
+		LocaleContextHolder.resetLocaleContext();
+	}
+	
+}
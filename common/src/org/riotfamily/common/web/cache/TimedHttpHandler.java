@@ -0,0 +1,59 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.common.web.cache;
+
+import java.io.Serializable;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.riotfamily.cachius.http.AbstractHttpHandler;
+import org.riotfamily.cachius.persistence.DiskStore;
+import org.riotfamily.common.web.support.RequestTiming;
+
+/**
+ * AbstractHttpHandler that records the time spent in capturing and serving
+ * content as {@link RequestTiming#CAPTURE} and {@link RequestTiming#SERVE}
+ * spans.
+ */
+public abstract class TimedHttpHandler extends AbstractHttpHandler {
+
+	public TimedHttpHandler(HttpServletRequest request,
+			HttpServletResponse response) {
+		
+		super(request, response);
+	}
+	
+	@Override
+	public Serializable capture(DiskStore diskStore) throws Exception {
+		RequestTiming.enter(RequestTiming.CAPTURE);
+		try {
+			return super.capture(diskStore);
+		}
+		finally {
+			RequestTiming.exit(RequestTiming.CAPTURE);
+		}
+	}
+	
+	@Override
+	public void serve(Serializable obj) throws Exception {
+		RequestTiming.enter(RequestTiming.SERVE);
+		try {
+			super.serve(obj);
+		}
+		finally {
+			RequestTiming.exit(RequestTiming.SERVE);
+		}
+	}
+	
+}
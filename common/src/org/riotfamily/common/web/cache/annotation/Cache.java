@@ -37,4 +37,12 @@ public @interface Cache {
 	
 	boolean serveStaleWhileRevalidate() default true;
 	
+	/**
+	 * Whether the method can be invoked outside of the original request,
+	 * so that stale content can be revalidated in the background. Only set
+	 * this if the method and its view neither use the session, nor include 
+	 * other resources, nor access lazy associations of request attributes.
+	 */
+	boolean renderDetached() default false;
+	
 }
@@ -38,6 +38,8 @@ import org.riotfamily.common.util.ExceptionUtils;
 import org.riotfamily.common.util.FormatUtils;
 import org.riotfamily.common.util.Generics;
 import org.riotfamily.common.web.cache.CacheKeyAugmentor;
+import org.riotfamily.common.web.cache.DetachedRequestContext;
+import org.riotfamily.common.web.cache.TimedHttpHandler;
 import org.riotfamily.common.web.mvc.view.ViewResolverHelper;
 import org.riotfamily.common.web.support.ServletUtils;
 import org.slf4j.Logger;
@@ -261,7 +263,7 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 	
 	// ----------------------------------------------------------------------
 	
-	private class AnnotationCacheHandler extends AbstractHttpHandler {
+	private class AnnotationCacheHandler extends TimedHttpHandler {
 
 		private Object handler;
 		
@@ -273,6 +275,8 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 		
 		private Method lastModifiedMethod;
 		
+		private DetachedRequestContext detachedContext;
+		
 		public AnnotationCacheHandler(HttpServletRequest request, 
 				HttpServletResponse response, Object handler) {
 			
@@ -281,6 +285,21 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 			init();
 		}
 		
+		/**
+		 * Creates a detached copy of the given handler. 
+		 */
+		private AnnotationCacheHandler(HttpServletRequest request, 
+				AnnotationCacheHandler source) {
+			
+			super(request, null);
+			this.handler = source.handler;
+			this.handlerMethod = source.handlerMethod;
+			this.args = source.args;
+			this.annotation = source.annotation;
+			this.lastModifiedMethod = source.lastModifiedMethod;
+			this.detachedContext = new DetachedRequestContext();
+		}
+		
 		private void init() {
 			ProxyFactory proxyFactory = new ProxyFactory(handler);
 			proxyFactory.setProxyTargetClass(true);
@@ -382,10 +401,37 @@ public class CacheAnnotationHandlerAdapter extends AnnotationMethodHandlerAdapte
 			return getDefaultMethodLevelCacheKey(handlerMethod, args);
 		}
 		
+		@Override
+		protected AbstractHttpHandler createDetachedHandler(
+				HttpServletRequest request) {
+			
+			if (!annotation.renderDetached()) {
+				return null;
+			}
+			return new AnnotationCacheHandler(request, this);
+		}
+		
 		@Override
 		protected void handleRequest(HttpServletRequest request,
 				HttpServletResponse response) throws Exception {
 			
+			if (detachedContext != null) {
+				detachedContext.bind(request, response);
+				try {
+					handleRequestInternal(request, response);
+				}
+				finally {
+					detachedContext.reset();
+				}
+			}
+			else {
+				handleRequestInternal(request, response);
+			}
+		}
+		
+		private void handleRequestInternal(HttpServletRequest request,
+				HttpServletResponse response) throws Exception {
+			
 			applyContextSettings();
 			ModelAndView mv = doHandle(request, response, handler);
 			if (mv != null) {
@@ -18,6 +18,8 @@ import javax.servlet.http.HttpServletResponse;
 import org.riotfamily.cachius.CacheContext;
 import org.riotfamily.cachius.http.AbstractHttpHandler;
 import org.riotfamily.common.web.cache.CacheKeyAugmentor;
+import org.riotfamily.common.web.cache.DetachedRequestContext;
+import org.riotfamily.common.web.cache.TimedHttpHandler;
 import org.riotfamily.common.web.mvc.view.ViewResolverHelper;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.View;
@@ -26,7 +28,7 @@ import org.springframework.web.servlet.View;
  * @author Felix Gnass [fgnass at neteye dot de]
  * @since 6.5
  */
-public class ControllerCacheHandler extends AbstractHttpHandler {
+public class ControllerCacheHandler extends TimedHttpHandler {
 
 	private CacheableController controller;
 
@@ -34,6 +36,8 @@ public class ControllerCacheHandler extends AbstractHttpHandler {
 	
 	private ViewResolverHelper viewResolverHelper;
 	
+	private DetachedRequestContext detachedContext;
+	
 	public ControllerCacheHandler(HttpServletRequest request, 
 			HttpServletResponse response, CacheableController controller,
 			CacheKeyAugmentor cacheKeyAugmentor,
@@ -70,10 +74,44 @@ public class ControllerCacheHandler extends AbstractHttpHandler {
 		return false;
 	}
 	
+	@Override
+	protected AbstractHttpHandler createDetachedHandler(
+			HttpServletRequest request) {
+		
+		if (!(controller instanceof DetachableController) 
+				|| !((DetachableController) controller).canRenderDetached(
+				getRequest())) {
+			
+			return null;
+		}
+		ControllerCacheHandler handler = new ControllerCacheHandler(request, 
+				null, controller, cacheKeyAugmentor, viewResolverHelper);
+		
+		handler.detachedContext = new DetachedRequestContext();
+		return handler;
+	}
+	
 	@Override
 	protected void handleRequest(HttpServletRequest request,
 			HttpServletResponse response) throws Exception {
 		
+		if (detachedContext != null) {
+			detachedContext.bind(request, response);
+			try {
+				handleRequestInternal(response);
+			}
+			finally {
+				detachedContext.reset();
+			}
+		}
+		else {
+			handleRequestInternal(response);
+		}
+	}
+	
+	private void handleRequestInternal(HttpServletResponse response) 
+			throws Exception {
+		
 		ModelAndView mv = controller.handleRequest(getRequest(), response);
 		long ttl = controller.getTimeToLive();
 		if (ttl >= 0) {
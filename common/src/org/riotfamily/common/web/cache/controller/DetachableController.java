@@ -0,0 +1,35 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.common.web.cache.controller;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.riotfamily.cachius.http.support.DetachedHttpServletRequest;
+
+/**
+ * Interface that can be implemented by {@link CacheableController}s whose 
+ * stale content may be revalidated in a background thread.
+ */
+public interface DetachableController {
+
+	/**
+	 * Returns whether the controller can handle a 
+	 * {@link DetachedHttpServletRequest copy} of the given request after 
+	 * the request has been completed. Implementors must only return 
+	 * <code>true</code> if neither the controller nor its view use the 
+	 * session, include other resources or access lazy associations of 
+	 * request attributes.
+	 */
+	public boolean canRenderDetached(HttpServletRequest request);
+
+}
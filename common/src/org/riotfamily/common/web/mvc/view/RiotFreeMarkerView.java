@@ -23,6 +23,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.riotfamily.common.collection.GuardedMap;
 import org.riotfamily.common.util.Generics;
 import org.riotfamily.common.web.support.RequestHolder;
+import org.riotfamily.common.web.support.RequestTiming;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.servlet.support.RequestContextUtils;
@@ -93,7 +94,13 @@ public class RiotFreeMarkerView extends FreeMarkerView {
 			emptyModel.put(MODEL_ATTRIBUTE, model);
 			model = emptyModel;
 		}
-		super.render(model, request, wrapResponse(request, response));
+		RequestTiming.enter(RequestTiming.VIEW);
+		try {
+			super.render(model, request, wrapResponse(request, response));
+		}
+		finally {
+			RequestTiming.exit(RequestTiming.VIEW);
+		}
 	}
 
 	/**
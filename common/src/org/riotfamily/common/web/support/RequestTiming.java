@@ -0,0 +1,230 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.common.web.support;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records where the time of a request is spent. Instrumented code calls 
+ * {@link #enter(String)} and {@link #exit(String)} around the work it 
+ * wants to account for. Spans may be nested, the time of a nested span is 
+ * subtracted from its parent, so that each category reports exclusive time.
+ * <p>
+ * Recording only takes place between {@link #start()} and {@link #stop()},
+ * which are invoked by the code that handles the request. All other calls
+ * are no-ops, so that instrumented code can also run outside of requests,
+ * like in background revalidation threads.
+ */
+public final class RequestTiming {
+
+	/** Time spent executing SQL statements */
+	public static final String SQL = "sql";
+	
+	/** Number of entities loaded by Hibernate */
+	public static final String LOAD = "load";
+	
+	/** Time spent in capturing content, excluding nested spans */
+	public static final String CAPTURE = "capture";
+	
+	/** Time spent in rendering views */
+	public static final String VIEW = "view";
+	
+	/** Time spent in sending cached content to the client */
+	public static final String SERVE = "serve";
+	
+	private static ThreadLocal<RequestTiming> current = 
+			new ThreadLocal<RequestTiming>();
+	
+	private Map<String, long[]> values = new LinkedHashMap<String, long[]>();
+	
+	private String[] stack = new String[8];
+	
+	private int depth;
+	
+	private long last;
+	
+	private long startTime = System.nanoTime();
+	
+	private long totalTime = -1;
+	
+	private RequestTiming() {
+	}
+	
+	/**
+	 * Starts recording for the current thread.
+	 */
+	public static void start() {
+		current.set(new RequestTiming());
+	}
+	
+	/**
+	 * Stops recording for the current thread and returns the results,
+	 * or <code>null</code> if {@link #start()} has not been called.
+	 */
+	public static RequestTiming stop() {
+		RequestTiming timing = current.get();
+		if (timing != null) {
+			current.remove();
+			timing.close();
+		}
+		return timing;
+	}
+	
+	/**
+	 * Returns whether {@link #start()} has been called for the current thread.
+	 */
+	public static boolean isRecording() {
+		return current.get() != null;
+	}
+	
+	/**
+	 * Starts a span of the given category.
+	 */
+	public static void enter(String category) {
+		RequestTiming timing = current.get();
+		if (timing != null) {
+			timing.push(category);
+		}
+	}
+	
+	/**
+	 * Ends the innermost span of the given category. Spans that have been 
+	 * entered after it, but not exited, are ended too.
+	 */
+	public static void exit(String category) {
+		RequestTiming timing = current.get();
+		if (timing != null) {
+			timing.pop(category);
+		}
+	}
+	
+	/**
+	 * Increments the counter of the given category without recording any 
+	 * time.
+	 */
+	public static void count(String category) {
+		RequestTiming timing = current.get();
+		if (timing != null) {
+			timing.getValues(category)[1]++;
+		}
+	}
+	
+	private long[] getValues(String category) {
+		long[] v = values.get(category);
+		if (v == null) {
+			v = new long[2];
+			values.put(category, v);
+		}
+		return v;
+	}
+	
+	private void push(String category) {
+		long now = System.nanoTime();
+		if (depth > 0) {
+			getValues(stack[depth - 1])[0] += now - last;
+		}
+		if (depth == stack.length) {
+			String[] newStack = new String[depth * 2];
+			System.arraycopy(stack, 0, newStack, 0, depth);
+			stack = newStack;
+		}
+		stack[depth++] = category;
+		getValues(category)[1]++;
+		last = now;
+	}
+	
+	private void pop(String category) {
+		int i = depth - 1;
+		while (i >= 0 && !stack[i].equals(category)) {
+			i--;
+		}
+		if (i < 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		getValues(stack[depth - 1])[0] += now - last;
+		while (depth > i) {
+			stack[--depth] = null;
+		}
+		last = now;
+	}
+	
+	private void close() {
+		long now = System.nanoTime();
+		if (depth > 0) {
+			getValues(stack[depth - 1])[0] += now - last;
+			depth = 0;
+		}
+		totalTime = now - startTime;
+	}
+	
+	/**
+	 * Returns the total time in milliseconds between {@link #start()} and
+	 * {@link #stop()}.
+	 */
+	public long getTotalTime() {
+		return totalTime / 1000000;
+	}
+	
+	/**
+	 * Returns the exclusive time in milliseconds spent in spans of the 
+	 * given category.
+	 */
+	public long getTime(String category) {
+		long[] v = values.get(category);
+		return v != null ? v[0] / 1000000 : 0;
+	}
+	
+	/**
+	 * Returns how often a span of the given category has been entered or 
+	 * {@link #count(String) counted}.
+	 */
+	public long getCount(String category) {
+		long[] v = values.get(category);
+		return v != null ? v[1] : 0;
+	}
+	
+	/**
+	 * Returns the time in milliseconds that has not been recorded by 
+	 * any span.
+	 */
+	public long getUnaccountedTime() {
+		long accounted = 0;
+		for (long[] v : values.values()) {
+			accounted += v[0];
+		}
+		return Math.max(0, (totalTime - accounted) / 1000000);
+	}
+	
+	/**
+	 * Returns the recorded categories.
+	 */
+	public Iterable<String> getCategories() {
+		return Collections.unmodifiableSet(values.keySet());
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, long[]> entry : values.entrySet()) {
+			sb.append(entry.getKey()).append('=')
+					.append(entry.getValue()[0] / 1000000).append("ms/")
+					.append(entry.getValue()[1]).append(", ");
+		}
+		sb.append("other=").append(getUnaccountedTime()).append("ms");
+		return sb.toString();
+	}
+	
+}
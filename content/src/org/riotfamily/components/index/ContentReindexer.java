@@ -0,0 +1,143 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.components.index;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.SessionFactory;
+import org.riotfamily.common.scheduling.ScheduledTaskSupport;
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.components.model.Content;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Scheduled task that rebuilds the indexes of all contents. The id range is
+ * split into chunks which are processed in parallel, each chunk in a
+ * separate transaction and Hibernate session. The task is not scheduled by
+ * default, set <code>riot.content.reindex.schedule</code> to
+ * <code>startup</code> in order to rebuild the indexes after a migration.
+ */
+public class ContentReindexer extends ScheduledTaskSupport {
+
+	private Logger log = LoggerFactory.getLogger(ContentReindexer.class);
+
+	private HibernateContentIndexer indexer;
+
+	private SessionFactory sessionFactory;
+
+	private TransactionTemplate transactionTemplate;
+
+	private int chunkSize = 500;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	public ContentReindexer(HibernateContentIndexer indexer,
+			SessionFactory sessionFactory, PlatformTransactionManager tx) {
+
+		this.indexer = indexer;
+		this.sessionFactory = sessionFactory;
+		this.transactionTemplate = new TransactionTemplate(tx);
+	}
+
+	/**
+	 * Sets the size of the id ranges that are indexed in one transaction.
+	 * Default is <code>500</code>.
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Sets the number of chunks that are indexed in parallel. Defaults to
+	 * the number of available processors.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void execute() throws Exception {
+		Long[] range = transactionTemplate.execute(new TransactionCallback<Long[]>() {
+			public Long[] doInTransaction(TransactionStatus status) {
+				return Content.findIdRange();
+			}
+		});
+		if (range[0] == null) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		log.info("Rebuilding indexes of contents {} to {} ...", range[0], range[1]);
+		final AtomicInteger count = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> futures = Generics.newArrayList();
+			for (long from = range[0]; from <= range[1]; from += chunkSize) {
+				futures.add(executor.submit(new Chunk(from, from + chunkSize, count)));
+			}
+			int failed = 0;
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				}
+				catch (Exception e) {
+					log.error("Failed to index contents", e);
+					failed++;
+				}
+			}
+			log.info("Indexed {} contents in {} ms, {} chunks failed", new Object[] {
+					count.get(), System.currentTimeMillis() - start, failed });
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Indexes all contents within an id range.
+	 */
+	private class Chunk implements Runnable {
+
+		private long from;
+
+		private long to;
+
+		private AtomicInteger count;
+
+		public Chunk(long from, long to, AtomicInteger count) {
+			this.from = from;
+			this.to = to;
+			this.count = count;
+		}
+
+		public void run() {
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					List<Content> contents = Content.findByIdRange(from, to);
+					indexer.updateIndexes(sessionFactory.getCurrentSession(), contents);
+					count.addAndGet(contents.size());
+				}
+			});
+		}
+	}
+
+}
@@ -14,9 +14,15 @@ package org.riotfamily.components.index;
 
 import static org.hibernate.EntityMode.POJO;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import org.hibernate.Hibernate;
+import org.hibernate.Session;
 import org.hibernate.annotations.Filter;
 import org.hibernate.metadata.ClassMetadata;
 import org.riotfamily.common.util.Generics;
@@ -24,7 +30,14 @@ import org.riotfamily.components.model.Content;
 import org.riotfamily.components.model.ContentContainer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
@@ -35,32 +48,216 @@ import org.springframework.util.StringUtils;
  * the indexer will look for a mapped class called <code>FooContentIndex</code>,
  * that is a subclass of {@link ContentIndex}.
  * </p>
+ * <p>
+ * If a transaction manager is set, created and modified contents are not
+ * indexed right away. Instead, their ids are queued when the transaction
+ * commits and a background thread updates the indexes in batches, one
+ * transaction per batch. Multiple modifications of the same Content are
+ * coalesced into a single update. Indexes of deleted contents are always 
+ * removed synchronously.
+ * </p>
+ * <p>
+ * <b>Note:</b> In background mode the cache tags of a Content are 
+ * invalidated before its index is updated. Cached lists that are based on
+ * a ContentIndex may therefore be stale unless the index class is 
+ * annotated with {@link org.riotfamily.common.web.cache.TagCacheItems 
+ * TagCacheItems}.
+ * </p>
  * @see ContentIndex
+ * @see ContentReindexer
  */
 public class HibernateContentIndexer extends HibernateDaoSupport 
-		implements ContentIndexer {
+		implements ContentIndexer, DisposableBean {
 
 	private Logger log = LoggerFactory.getLogger(HibernateContentIndexer.class);
 	
 	private Map<String, ClassMetadata> metaDataMap = Generics.newHashMap();
 	
+	private ConcurrentMap<Long, Boolean> pendingIds = Generics.newConcurrentHashMap();
+	
+	private TransactionTemplate transactionTemplate;
+	
+	private long interval = 1000;
+	
+	private int batchSize = 100;
+	
+	private IndexerThread indexerThread;
+	
+	/**
+	 * Sets the transaction manager used to update the indexes in the
+	 * background. If not set (the default), indexes are updated within
+	 * the transaction that modifies the Content.
+	 */
+	public void setTransactionManager(PlatformTransactionManager tx) {
+		this.transactionTemplate = tx != null ? new TransactionTemplate(tx) : null;
+	}
+	
+	/**
+	 * Sets the interval (in milliseconds) at which queued contents are 
+	 * indexed. Default is <code>1000</code>.
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+	
+	/**
+	 * Sets the maximal number of contents indexed in one transaction.
+	 * Default is <code>100</code>.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+	
+	public int getPendingCount() {
+		return pendingIds.size();
+	}
+	
+	@Override
+	protected void initDao() throws Exception {
+		if (transactionTemplate != null) {
+			indexerThread = new IndexerThread();
+			indexerThread.start();
+		}
+	}
+	
+	/**
+	 * Stops the background thread, waits until its current run has 
+	 * finished and indexes all remaining contents.
+	 */
+	public void destroy() {
+		if (indexerThread != null) {
+			indexerThread.shutdown();
+			try {
+				indexerThread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			indexerThread = null;
+			indexPendingContents();
+		}
+	}
+	
 	public void contentCreated(Content content) {
-		Object index = createIndex(content);
-		if (index != null) {
-			getSession().save(index);
+		if (indexerThread != null) {
+			schedule(content.getId());
+		}
+		else {
+			Object index = createIndex(content);
+			if (index != null) {
+				getSession().save(index);
+			}
 		}
 	}
 
 	public void contentDeleted(Content content) {
-		Object index = loadIndexByContent(content);
+		pendingIds.remove(content.getId());
+		Object index = loadIndexByContent(getSession(), content);
 		if (index != null) {
 			getSession().delete(index);
 		}
 	}
 
 	public void contentModified(Content content) {
-		contentDeleted(content);
-		contentCreated(content);
+		if (indexerThread != null) {
+			schedule(content.getId());
+		}
+		else {
+			contentDeleted(content);
+			contentCreated(content);
+		}
+	}
+	
+	/**
+	 * Queues the given Content once the current transaction has been 
+	 * committed.
+	 */
+	private void schedule(final Long contentId) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(
+					new TransactionSynchronizationAdapter() {
+				
+				@Override
+				public void afterCommit() {
+					pendingIds.put(contentId, Boolean.TRUE);
+				}
+			});
+		}
+		else {
+			pendingIds.put(contentId, Boolean.TRUE);
+		}
+	}
+	
+	/**
+	 * Updates the indexes of all queued contents. Invoked by the background
+	 * thread.
+	 */
+	void indexPendingContents() {
+		List<Long> ids = Generics.newArrayList();
+		Iterator<Long> it = pendingIds.keySet().iterator();
+		while (it.hasNext()) {
+			ids.add(it.next());
+			it.remove();
+		}
+		for (int i = 0; i < ids.size(); i += batchSize) {
+			List<Long> batch = ids.subList(i, Math.min(i + batchSize, ids.size()));
+			try {
+				indexContents(batch);
+			}
+			catch (RuntimeException e) {
+				log.debug("Batch failed, indexing contents one by one", e);
+				for (Long id : batch) {
+					try {
+						indexContents(Collections.singletonList(id));
+					}
+					catch (RuntimeException ex) {
+						log.error("Failed to index content " + id, ex);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Updates the indexes of the contents with the given ids within a 
+	 * single transaction.
+	 */
+	private void indexContents(final List<Long> ids) {
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				List<Content> contents = Generics.newArrayList();
+				for (Long id : ids) {
+					Content content = (Content) getSession().get(Content.class, id);
+					if (content != null) {
+						contents.add(content);
+					}
+				}
+				updateIndexes(getSession(), contents);
+			}
+		});
+	}
+	
+	/**
+	 * Deletes and re-creates the indexes of the given contents. All existing
+	 * indexes are deleted first, as Hibernate would otherwise try to insert 
+	 * the new rows before the old ones are removed.
+	 */
+	public void updateIndexes(Session session, Collection<Content> contents) {
+		for (Content content : contents) {
+			Object index = loadIndexByContent(session, content);
+			if (index != null) {
+				session.delete(index);
+			}
+		}
+		session.flush();
+		for (Content content : contents) {
+			Object index = createIndex(content);
+			if (index != null) {
+				session.save(index);
+			}
+		}
+		session.flush();
 	}
 	
 	private Object createIndex(Content content) {
@@ -82,7 +279,7 @@ public class HibernateContentIndexer extends HibernateDaoSupport
 		return null;
 	}
 		
-	private ClassMetadata getIndexClassMetadata(String ownerClassName) {
+	private synchronized ClassMetadata getIndexClassMetadata(String ownerClassName) {
 		if (metaDataMap.containsKey(ownerClassName)) {
 			return metaDataMap.get(ownerClassName);
 		}
@@ -106,7 +303,7 @@ public class HibernateContentIndexer extends HibernateDaoSupport
 		return meta;
 	}
 
-	private Object loadIndexByContent(Content content) {
+	private Object loadIndexByContent(Session session, Content content) {
 		ContentContainer container = content.getContainer();
 		if (container != null) {
 			Object owner = container.getOwner();
@@ -114,11 +311,54 @@ public class HibernateContentIndexer extends HibernateDaoSupport
 				String ownerClassName = Hibernate.getClass(owner).getName();
 				ClassMetadata meta = getIndexClassMetadata(ownerClassName);
 				if (meta != null) {
-					return getSession().get(meta.getEntityName(), content.getId());
+					return session.get(meta.getEntityName(), content.getId());
 				}
 			}
 		}
 		return null;
-	}	
+	}
+	
+	/**
+	 * Thread that periodically indexes the queued contents.
+	 */
+	private class IndexerThread extends Thread {
+		
+		private boolean running = true;
+		
+		public IndexerThread() {
+			super("Riot-ContentIndexer");
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			while (true) {
+				synchronized (this) {
+					try {
+						wait(interval);
+					}
+					catch (InterruptedException e) {
+						break;
+					}
+					if (!running) {
+						break;
+					}
+				}
+				if (!pendingIds.isEmpty()) {
+					try {
+						indexPendingContents();
+					}
+					catch (Exception e) {
+						log.error("Failed to index contents", e);
+					}
+				}
+			}
+		}
+		
+		public synchronized void shutdown() {
+			running = false;
+			notify();
+		}
+	}
 	
 }
@@ -0,0 +1,436 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.components.model;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.Entity;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.proxy.HibernateProxy;
+import org.riotfamily.common.hibernate.HibernateUtils;
+
+/**
+ * ContentMapMarshaller that keeps the decoded form of persistent contents,
+ * so that contents which are loaded by multiple Hibernate sessions only
+ * have to be parsed once. The actual work is delegated to another
+ * marshaller.
+ * <p>
+ * The decoded form is an immutable tree of templates that is shared by all
+ * threads. Each unmarshal operation creates a new ContentMap from the
+ * template, as ContentMaps are mutable and belong to a single Content.
+ * Referenced entities are stored as class and id and are loaded from the
+ * current session when the ContentMap is created.
+ * <p>
+ * Entries are keyed by the content's id. A cached entry is only used if
+ * both the version and the serialized data match. Contents that contain
+ * values which can't be copied safely (anything but Strings, Numbers,
+ * Booleans, Characters, Enums, Locales, Dates, entities and the common
+ * collection types) are not cached. Once the capacity is reached, the
+ * least recently used entry is evicted.
+ */
+public class CachingContentMapMarshaller implements ContentMapMarshaller {
+
+	private ContentMapMarshaller marshaller;
+
+	private SessionFactory sessionFactory;
+
+	/** Access-ordered, so that the least recently used entry is evicted */
+	private Map<Long, DecodedContent> cache = 
+			new LinkedHashMap<Long, DecodedContent>(16, 0.75f, true) {
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, DecodedContent> eldest) {
+			return size() > capacity;
+		}
+	};
+
+	private int capacity = 10000;
+
+	private AtomicLong hits = new AtomicLong();
+
+	private AtomicLong misses = new AtomicLong();
+
+	public CachingContentMapMarshaller(ContentMapMarshaller marshaller,
+			SessionFactory sessionFactory) {
+
+		this.marshaller = marshaller;
+		this.sessionFactory = sessionFactory;
+	}
+
+	/**
+	 * Sets the maximal number of contents to keep. Default is
+	 * <code>10000</code>.
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public int getSize() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public String marshal(ContentMap contentMap) {
+		return marshaller.marshal(contentMap);
+	}
+
+	public ContentMap unmarshal(Content owner, String xml) {
+		Long id = owner.getId();
+		if (id == null) {
+			return marshaller.unmarshal(owner, xml);
+		}
+		DecodedContent decoded;
+		synchronized (cache) {
+			decoded = cache.get(id);
+		}
+		if (decoded != null && decoded.matches(owner.getVersion(), xml)) {
+			hits.incrementAndGet();
+			return (ContentMap) decoded.root.create(owner, null);
+		}
+		misses.incrementAndGet();
+		ContentMap map = marshaller.unmarshal(owner, xml);
+		Template root = createTemplate(map);
+		if (root != null) {
+			DecodedContent entry = new DecodedContent(owner.getVersion(), xml, root);
+			synchronized (cache) {
+				cache.put(id, entry);
+			}
+		}
+		return map;
+	}
+
+	// -----------------------------------------------------------------------
+	// Template creation
+	// -----------------------------------------------------------------------
+
+	/**
+	 * Returns a template for the given value, or <code>null</code> if the
+	 * value can't be copied safely.
+	 */
+	private Template createTemplate(Object value) {
+		if (value == null || isImmutable(value)) {
+			return new ValueTemplate(value);
+		}
+		Class<?> c = value.getClass();
+		if (c == Component.class) {
+			Component component = (Component) value;
+			MapTemplate template = new ComponentTemplate(
+					component.getFragmentId(), component.getType());
+
+			return template.populate(component) ? template : null;
+		}
+		if (c == ContentMapImpl.class) {
+			ContentMapImpl map = (ContentMapImpl) value;
+			MapTemplate template = new MapTemplate(map.getFragmentId());
+			return template.populate(map) ? template : null;
+		}
+		if (c == ComponentList.class) {
+			ComponentList list = (ComponentList) value;
+			ListTemplate template = new ListTemplate(list.getFragmentId(),
+					list.getPath());
+
+			return template.populate(list) ? template : null;
+		}
+		if (c == Date.class) {
+			return new DateTemplate((Date) value);
+		}
+		if (value instanceof HibernateProxy) {
+			HibernateProxy proxy = (HibernateProxy) value;
+			return new EntityTemplate(
+					proxy.getHibernateLazyInitializer().getPersistentClass(),
+					proxy.getHibernateLazyInitializer().getIdentifier());
+		}
+		if (c.isAnnotationPresent(Entity.class)) {
+			return new EntityTemplate(c,
+					HibernateUtils.getId(sessionFactory, value));
+		}
+		if (isCopyableCollection(value)) {
+			CollectionTemplate template = new CollectionTemplate(value.getClass());
+			return template.populate(value) ? template : null;
+		}
+		return null;
+	}
+
+	private static boolean isImmutable(Object value) {
+		Class<?> c = value.getClass();
+		return c == String.class || c == Integer.class || c == Long.class
+				|| c == Double.class || c == Float.class || c == Short.class
+				|| c == Byte.class || c == BigDecimal.class
+				|| c == BigInteger.class || c == Boolean.class
+				|| c == Character.class || c == Locale.class
+				|| value instanceof Enum<?>;
+	}
+
+	private static boolean isCopyableCollection(Object value) {
+		Class<?> c = value.getClass();
+		return c == ArrayList.class || c == HashSet.class
+				|| c == LinkedHashSet.class || c == HashMap.class
+				|| c == LinkedHashMap.class;
+	}
+
+	private static class DecodedContent {
+
+		private int version;
+
+		private String xml;
+
+		private Template root;
+
+		DecodedContent(int version, String xml, Template root) {
+			this.version = version;
+			this.xml = xml;
+			this.root = root;
+		}
+
+		boolean matches(int version, String xml) {
+			return this.version == version && this.xml.equals(xml);
+		}
+	}
+
+	/**
+	 * Immutable description of a value that can create a copy of the value
+	 * for a given Content.
+	 */
+	private interface Template {
+
+		public Object create(Content owner, Object parent);
+
+	}
+
+	private static class ValueTemplate implements Template {
+
+		private Object value;
+
+		ValueTemplate(Object value) {
+			this.value = value;
+		}
+
+		public Object create(Content owner, Object parent) {
+			return value;
+		}
+	}
+
+	private static class DateTemplate implements Template {
+
+		private long time;
+
+		DateTemplate(Date date) {
+			this.time = date.getTime();
+		}
+
+		public Object create(Content owner, Object parent) {
+			return new Date(time);
+		}
+	}
+
+	private class EntityTemplate implements Template {
+
+		private Class<?> entityClass;
+
+		private Serializable id;
+
+		EntityTemplate(Class<?> entityClass, Serializable id) {
+			this.entityClass = entityClass;
+			this.id = id;
+		}
+
+		public Object create(Content owner, Object parent) {
+			Object entity = sessionFactory.getCurrentSession().get(entityClass, id);
+			if (entity != null) {
+				owner.addReference(entity);
+			}
+			return entity;
+		}
+	}
+
+	private class MapTemplate implements Template {
+
+		String fragmentId;
+
+		private String[] keys;
+
+		private Template[] values;
+
+		MapTemplate(String fragmentId) {
+			this.fragmentId = fragmentId;
+		}
+
+		boolean populate(Map<String, Object> map) {
+			keys = new String[map.size()];
+			values = new Template[map.size()];
+			int i = 0;
+			for (Map.Entry<String, Object> entry : map.entrySet()) {
+				keys[i] = entry.getKey();
+				values[i] = createTemplate(entry.getValue());
+				if (values[i] == null) {
+					return false;
+				}
+				i++;
+			}
+			return true;
+		}
+
+		public Object create(Content owner, Object parent) {
+			ContentMapImpl map = createMap(owner, parent);
+			for (int i = 0; i < keys.length; i++) {
+				map.put(keys[i], values[i].create(owner, map));
+			}
+			return map;
+		}
+
+		protected ContentMapImpl createMap(Content owner, Object parent) {
+			return new ContentMapImpl(owner, fragmentId);
+		}
+	}
+
+	private class ComponentTemplate extends MapTemplate {
+
+		private String type;
+
+		ComponentTemplate(String fragmentId, String type) {
+			super(fragmentId);
+			this.type = type;
+		}
+
+		@Override
+		protected ContentMapImpl createMap(Content owner, Object parent) {
+			Component component = new Component((ComponentList) parent,
+					fragmentId);
+
+			component.setType(type);
+			return component;
+		}
+	}
+
+	private class ListTemplate implements Template {
+
+		private String fragmentId;
+
+		private String path;
+
+		private Template[] components;
+
+		ListTemplate(String fragmentId, String path) {
+			this.fragmentId = fragmentId;
+			this.path = path;
+		}
+
+		boolean populate(ComponentList list) {
+			components = new Template[list.size()];
+			for (int i = 0; i < components.length; i++) {
+				components[i] = createTemplate(list.get(i));
+				if (components[i] == null) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public Object create(Content owner, Object parent) {
+			ComponentList list = new ComponentList(owner, fragmentId, path);
+			for (Template component : components) {
+				list.add((Component) component.create(owner, list));
+			}
+			return list;
+		}
+	}
+
+	private class CollectionTemplate implements Template {
+
+		private Class<?> collectionClass;
+
+		private Template[] elements;
+
+		private Template[] keys;
+
+		CollectionTemplate(Class<?> collectionClass) {
+			this.collectionClass = collectionClass;
+		}
+
+		boolean populate(Object value) {
+			Collection<?> c;
+			if (value instanceof Map<?, ?>) {
+				Map<?, ?> map = (Map<?, ?>) value;
+				keys = new Template[map.size()];
+				int i = 0;
+				for (Object key : map.keySet()) {
+					keys[i] = createTemplate(key);
+					if (keys[i++] == null) {
+						return false;
+					}
+				}
+				c = map.values();
+			}
+			else {
+				c = (Collection<?>) value;
+			}
+			elements = new Template[c.size()];
+			int i = 0;
+			for (Object element : c) {
+				elements[i] = createTemplate(element);
+				if (elements[i++] == null) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@SuppressWarnings("unchecked")
+		public Object create(Content owner, Object parent) {
+			Object result;
+			try {
+				result = collectionClass.newInstance();
+			}
+			catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+			if (keys != null) {
+				Map<Object, Object> map = (Map<Object, Object>) result;
+				for (int i = 0; i < keys.length; i++) {
+					map.put(keys[i].create(owner, parent),
+							elements[i].create(owner, parent));
+				}
+			}
+			else {
+				Collection<Object> c = (Collection<Object>) result;
+				for (Template element : elements) {
+					c.add(element.create(owner, parent));
+				}
+			}
+			return result;
+		}
+	}
+
+}
@@ -13,6 +13,7 @@
 package org.riotfamily.components.model;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -130,6 +131,19 @@ public class Content extends ActiveRecordBeanSupport implements ContentMap {
 		}
 	}
 	
+	/**
+	 * Serializes the content again using the current marshaller, without 
+	 * marking it as dirty. Used to convert existing contents after the 
+	 * marshaller's format has been changed.
+	 */
+	public void remarshal() {
+		if (xml != null && !xmlRequiresUpdate) {
+			unmarshal();
+			references = Generics.newHashSet();
+			xml = marshaller.marshal(map);
+		}
+	}
+	
 	public boolean isDirty() {
 		return dirty || xmlRequiresUpdate;
 	}
@@ -276,6 +290,37 @@ public class Content extends ActiveRecordBeanSupport implements ContentMap {
 		return load(Content.class, id);
 	}
 	
+	/**
+	 * Returns up to <code>max</code> ids greater than the given one, in 
+	 * ascending order.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Long> findIds(long lastId, int max) {
+		return (List<Long>) query(Content.class, 
+				"select id from {} where id > ? order by id", lastId)
+				.setMaxResults(max).list();
+	}
+	
+	/**
+	 * Returns the smallest and the largest id. Both values are 
+	 * <code>null</code> if no Content exists.
+	 */
+	public static Long[] findIdRange() {
+		Object[] row = (Object[]) query(Content.class, 
+				"select min(id), max(id) from {}").list().get(0);
+		
+		return new Long[] { (Long) row[0], (Long) row[1] };
+	}
+	
+	/**
+	 * Returns all contents with an id between <code>from</code> (inclusive)
+	 * and <code>to</code> (exclusive).
+	 */
+	public static List<Content> findByIdRange(long from, long to) {
+		return query(Content.class, "from {} where id >= ? and id < ? order by id", 
+				from, to).find();
+	}
+	
 	@SuppressWarnings("unchecked")
 	public static<T extends ContentFragment> T loadFragment(String id) {
 		Content content = loadByFragmentId(id);
@@ -0,0 +1,97 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.components.xstream;
+
+import java.util.List;
+
+import org.riotfamily.common.scheduling.ScheduledTaskSupport;
+import org.riotfamily.components.model.Content;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Scheduled task that converts all contents that are not stored in the 
+ * format configured for the {@link XStreamMarshaller}. The ids are read 
+ * page by page and each batch of contents is converted in a separate 
+ * transaction. The task is not scheduled by default, set 
+ * <code>riot.content.remarshal.schedule</code> to <code>startup</code> in 
+ * order to migrate existing contents after the format has been changed.
+ */
+public class ContentRemarshaller extends ScheduledTaskSupport {
+
+	private Logger log = LoggerFactory.getLogger(ContentRemarshaller.class);
+	
+	private XStreamMarshaller marshaller;
+	
+	private TransactionTemplate transactionTemplate;
+	
+	private int batchSize = 100;
+	
+	public ContentRemarshaller(XStreamMarshaller marshaller, 
+			PlatformTransactionManager tx) {
+		
+		this.marshaller = marshaller;
+		this.transactionTemplate = new TransactionTemplate(tx);
+	}
+	
+	/**
+	 * Sets the number of contents converted per transaction. 
+	 * Default is <code>100</code>.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void execute() throws Exception {
+		log.info("Checking the format of all contents ...");
+		int checked = 0;
+		int converted = 0;
+		long lastId = Long.MIN_VALUE;
+		while (true) {
+			final long from = lastId;
+			final List<Long> batch = transactionTemplate.execute(
+					new TransactionCallback<List<Long>>() {
+				
+				public List<Long> doInTransaction(TransactionStatus status) {
+					return Content.findIds(from, batchSize);
+				}
+			});
+			if (batch.isEmpty()) {
+				break;
+			}
+			lastId = batch.get(batch.size() - 1);
+			checked += batch.size();
+			converted += transactionTemplate.execute(new TransactionCallback<Integer>() {
+				public Integer doInTransaction(TransactionStatus status) {
+					int count = 0;
+					for (Long id : batch) {
+						Content content = Content.load(id);
+						if (content != null && content.getXml() != null
+								&& !marshaller.isCurrentFormat(content.getXml())) {
+							
+							content.remarshal();
+							count++;
+						}
+					}
+					return count;
+				}
+			});
+		}
+		log.info("Converted {} of {} contents", converted, checked);
+	}
+
+}
@@ -12,9 +12,12 @@
  */
 package org.riotfamily.components.xstream;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
 
+import org.riotfamily.common.util.Base64;
 import org.riotfamily.components.model.Component;
 import org.riotfamily.components.model.ComponentList;
 import org.riotfamily.components.model.Content;
@@ -30,23 +33,62 @@ import com.thoughtworks.xstream.converters.DataHolder;
 import com.thoughtworks.xstream.io.HierarchicalStreamDriver;
 import com.thoughtworks.xstream.io.HierarchicalStreamReader;
 import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
-import com.thoughtworks.xstream.io.xml.DomDriver;
+import com.thoughtworks.xstream.io.binary.BinaryStreamReader;
+import com.thoughtworks.xstream.io.binary.BinaryStreamWriter;
+import com.thoughtworks.xstream.io.xml.XppDriver;
 import com.thoughtworks.xstream.mapper.Mapper;
 import com.thoughtworks.xstream.mapper.MapperWrapper;
 
+/**
+ * ContentMapMarshaller that uses XStream to serialize the content. By default
+ * the content is stored as XML, which is read and written by a streaming 
+ * pull-parser ({@link XppDriver}). Alternatively, XStream's binary format
+ * can be used, which is more compact and faster to parse. As the column
+ * holds text, the binary data is stored Base64 encoded, prefixed with 
+ * {@link #BINARY_PREFIX}. 
+ * <p>
+ * Both formats can always be read, regardless of the configured one. 
+ * Existing contents are converted when they are saved the next time, or in
+ * bulk by the {@link ContentRemarshaller}. 
+ */
 public class XStreamMarshaller implements ContentMapMarshaller, 
 		InitializingBean, ApplicationContextAware {
 
+	public static final String BINARY_PREFIX = "#bin:";
+	
 	private XStream xstream;
 	
 	private HierarchicalStreamDriver driver;
 
 	private ApplicationContext applicationContext;
 	
+	private boolean binary;
+	
+	private Base64 base64 = new Base64();
 
+	/**
+	 * Sets the driver used to read and write XML. Defaults to an 
+	 * {@link XppDriver}.
+	 */
 	public void setDriver(HierarchicalStreamDriver driver) {
 		this.driver = driver;
 	}
+	
+	/**
+	 * Sets whether the content should be written in XStream's binary format
+	 * instead of XML. Default is <code>false</code>.
+	 */
+	public void setBinary(boolean binary) {
+		this.binary = binary;
+	}
+	
+	/**
+	 * Returns whether the given serialized content uses the configured 
+	 * format.
+	 */
+	public boolean isCurrentFormat(String xml) {
+		return xml.startsWith(BINARY_PREFIX) == binary;
+	}
 
 	public void setApplicationContext(ApplicationContext applicationContext) {
 		this.applicationContext = applicationContext;
@@ -54,7 +96,7 @@ public class XStreamMarshaller implements ContentMapMarshaller,
 		
 	public void afterPropertiesSet() throws Exception {
 		if (driver == null) {
-			driver = new DomDriver("UTF-8");
+			driver = new XppDriver();
 		}
 
 		xstream = new XStream(driver) {
@@ -86,17 +128,38 @@ public class XStreamMarshaller implements ContentMapMarshaller,
 	}
 	
 	public ContentMap unmarshal(Content owner, String xml) {
-		HierarchicalStreamReader reader = driver.createReader(new StringReader(
-				xml));
-		return (ContentMap) xstream.unmarshal(reader, null,
-				createDataHolder(owner));
+		HierarchicalStreamReader reader;
+		if (xml.startsWith(BINARY_PREFIX)) {
+			byte[] data = base64.decodeFromString(xml.substring(
+					BINARY_PREFIX.length()));
+			
+			reader = new BinaryStreamReader(new ByteArrayInputStream(data));
+		}
+		else {
+			reader = driver.createReader(new StringReader(xml));
+		}
+		try {
+			return (ContentMap) xstream.unmarshal(reader, null,
+					createDataHolder(owner));
+		}
+		finally {
+			reader.close();
+		}
 	}
 	
 	public String marshal(ContentMap contentMap) {
 		Content owner = contentMap.getContent();
+		if (binary) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			HierarchicalStreamWriter writer = new BinaryStreamWriter(out);
+			xstream.marshal(contentMap, writer, createDataHolder(owner));
+			writer.flush();
+			return BINARY_PREFIX + base64.encodeToString(out.toByteArray());
+		}
 		StringWriter sw = new StringWriter();
 		HierarchicalStreamWriter writer = driver.createWriter(sw);
 		xstream.marshal(contentMap, writer, createDataHolder(owner));
+		writer.flush();
 		return sw.toString();
 	}
 	
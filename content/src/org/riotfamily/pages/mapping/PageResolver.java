@@ -15,12 +15,16 @@ package org.riotfamily.pages.mapping;
 import javax.servlet.http.HttpServletRequest;
 
 import org.riotfamily.common.util.FormatUtils;
+import org.riotfamily.common.util.SpringUtils;
 import org.riotfamily.common.web.support.ServletUtils;
 import org.riotfamily.components.support.EditModeUtils;
 import org.riotfamily.pages.config.SystemPageType;
+import org.riotfamily.pages.mapping.PageRoutingTable.Route;
 import org.riotfamily.pages.model.ContentPage;
 import org.riotfamily.pages.model.Page;
 import org.riotfamily.pages.model.Site;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.support.RequestContextUtils;
 
 /**
  * @author Carsten Woelk [cwoelk at neteye dot de]
@@ -33,11 +37,31 @@ public final class PageResolver {
 
 	public static final String PAGE_ATTRIBUTE = PageResolver.class.getName() + ".page";
 
+	public static final String ROUTING_TABLE_BEAN_NAME = "pageRoutingTable";
+	
 	private static final Object NOT_FOUND = new Object();
 	
 	private PageResolver() {
 	}
 	
+	/**
+	 * Returns the routing table used to resolve sites and pages. The table
+	 * is looked up in the request's WebApplicationContext under the name
+	 * {@value #ROUTING_TABLE_BEAN_NAME}. If no table is defined, the 
+	 * database is queried for each request.
+	 */
+	private static PageRoutingTable getRoutingTable(HttpServletRequest request) {
+		WebApplicationContext context;
+		try {
+			context = RequestContextUtils.getWebApplicationContext(request);
+		}
+		catch (IllegalStateException e) {
+			return null;
+		}
+		return SpringUtils.getBeanIfExists(context, ROUTING_TABLE_BEAN_NAME, 
+				PageRoutingTable.class);
+	}
+	
 	/**
 	 * Returns the first Site that matches the given request. The PathCompleter
 	 * is used to strip the servlet mapping from the request URI.
@@ -86,6 +110,11 @@ public final class PageResolver {
 	
 	private static Site resolveSite(HttpServletRequest request) {
 		String hostName = request.getServerName();
+		PageRoutingTable routingTable = getRoutingTable(request);
+		if (routingTable != null) {
+			Long siteId = routingTable.getSiteId(hostName);
+			return siteId != null ? Site.load(siteId) : null;
+		}
 		return Site.loadByHostName(hostName);
 	}
 
@@ -95,9 +124,16 @@ public final class PageResolver {
 			return null;
 		}
 		String lookupPath = getLookupPath(request);
-		Page page = ContentPage.loadBySiteAndPath(site, lookupPath);
-		if (page == null) {
-			page = resolveVirtualChildPage(site, lookupPath);
+		Page page;
+		PageRoutingTable routingTable = getRoutingTable(request);
+		if (routingTable != null) {
+			page = resolveRoute(routingTable, site, lookupPath);
+		}
+		else {
+			page = ContentPage.loadBySiteAndPath(site, lookupPath);
+			if (page == null) {
+				page = resolveVirtualChildPage(site, lookupPath);
+			}
 		}
 		if (page == null || 
 				(!page.getContentContainer().isPublished() && 
@@ -108,6 +144,21 @@ public final class PageResolver {
 		return page;
 	}
 	
+	private static Page resolveRoute(PageRoutingTable routingTable, Site site,
+			String lookupPath) {
+		
+		Route route = routingTable.getRoute(site.getId(), lookupPath);
+		if (route == null) {
+			return null;
+		}
+		ContentPage page = ContentPage.load(route.getPageId());
+		if (page == null || !route.isVirtual()) {
+			return page;
+		}
+		SystemPageType parentType = (SystemPageType) page.getPageType();
+		return parentType.getVirtualChildType().resolve(page, route.getTail());
+	}
+	
 	private static Page resolveVirtualChildPage(Site site, String lookupPath) {
 		for (ContentPage parent : ContentPage.findByTypesAndSite(site.getSchema().getVirtualParents(), site)) {
 			if (lookupPath.startsWith(parent.getPath())) {
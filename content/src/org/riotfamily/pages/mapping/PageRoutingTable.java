@@ -0,0 +1,355 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.pages.mapping;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hibernate.Session;
+import org.riotfamily.common.hibernate.EntityListener;
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.pages.model.ContentPage;
+import org.riotfamily.pages.model.Site;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * In-memory routing table used by the {@link PageResolver}. The table maps
+ * host names to sites and contains a path tree for each site, so that
+ * requests can be resolved without querying the database. Only ids are
+ * kept, the entities are loaded from the current session (and thus from
+ * the second-level cache).
+ * <p>
+ * The table is rebuilt in bulk when a {@link Site} or {@link ContentPage}
+ * has been modified. If a transaction is active, the table is not
+ * invalidated before the transaction has completed. The new table is built
+ * without holding a lock. While it is being built, concurrent lookups are
+ * answered from the previous table.
+ */
+public class PageRoutingTable implements EntityListener {
+
+	private Logger log = LoggerFactory.getLogger(PageRoutingTable.class);
+
+	private TransactionTemplate transaction;
+
+	private AtomicLong revision = new AtomicLong();
+
+	private AtomicReference<Routes> routes = new AtomicReference<Routes>();
+
+	private AtomicBoolean building = new AtomicBoolean();
+
+	public PageRoutingTable(PlatformTransactionManager tx) {
+		this.transaction = new TransactionTemplate(tx);
+	}
+
+	/**
+	 * Returns the id of the Site that matches the given host name, or
+	 * <code>null</code> if no Site matches.
+	 */
+	public Long getSiteId(String hostName) {
+		Routes current = getRoutes();
+		Long siteId = current.sitesByHost.get(hostName);
+		return siteId != null ? siteId : current.catchAllSiteId;
+	}
+
+	/**
+	 * Returns the route for the given site and path, or <code>null</code>
+	 * if neither a page nor a virtual parent matches.
+	 */
+	public Route getRoute(Long siteId, String path) {
+		PathNode root = getRoutes().pathsBySite.get(siteId);
+		return root != null ? root.find(path) : null;
+	}
+
+	/**
+	 * Discards the current table. It will be rebuilt upon the next lookup.
+	 */
+	public void invalidate() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(
+					new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCompletion(int status) {
+					revision.incrementAndGet();
+				}
+			});
+		}
+		else {
+			revision.incrementAndGet();
+		}
+	}
+
+	private Routes getRoutes() {
+		Routes current = routes.get();
+		long rev = revision.get();
+		if (current != null && current.revision == rev) {
+			return current;
+		}
+		if (!building.compareAndSet(false, true)) {
+			if (current != null) {
+				// Another thread is rebuilding the table, use the old one
+				return current;
+			}
+			return publish(buildRoutes(rev));
+		}
+		try {
+			return publish(buildRoutes(rev));
+		}
+		finally {
+			building.set(false);
+		}
+	}
+
+	/**
+	 * Publishes the given table unless a table with a higher revision has
+	 * been published in the meantime.
+	 */
+	private Routes publish(Routes built) {
+		while (true) {
+			Routes current = routes.get();
+			if (current != null && current.revision >= built.revision) {
+				return current;
+			}
+			if (routes.compareAndSet(current, built)) {
+				return built;
+			}
+		}
+	}
+
+	private Routes buildRoutes(final long rev) {
+		long start = System.currentTimeMillis();
+		Routes result = transaction.execute(new TransactionCallback<Routes>() {
+			public Routes doInTransaction(TransactionStatus status) {
+				Routes routes = new Routes(rev);
+				Map<Long, Set<String>> virtualParents = Generics.newHashMap();
+				for (Site site : Site.findAll()) {
+					routes.addSite(site);
+					virtualParents.put(site.getId(),
+							site.getSchema().getVirtualParents());
+				}
+				for (Object[] row : ContentPage.findAllPaths()) {
+					Long siteId = (Long) row[1];
+					Set<String> types = virtualParents.get(siteId);
+					routes.addPage((Long) row[0], siteId, (String) row[2],
+							types != null && types.contains(row[3]));
+				}
+				return routes;
+			}
+		});
+		log.debug("Built routing table in {} ms",
+				System.currentTimeMillis() - start);
+
+		return result;
+	}
+
+	// -----------------------------------------------------------------------
+	// Implementation of the EntityListener interface
+	// -----------------------------------------------------------------------
+
+	public boolean supports(Class<?> entityClass) {
+		return Site.class.isAssignableFrom(entityClass)
+				|| ContentPage.class.isAssignableFrom(entityClass);
+	}
+
+	public void onSave(Object entity, Session session) {
+		invalidate();
+	}
+
+	public void onUpdate(Object entity, Object oldState, Session session) {
+		invalidate();
+	}
+
+	public void onDelete(Object entity, Session session) {
+		invalidate();
+	}
+
+	// -----------------------------------------------------------------------
+
+	/**
+	 * Result of a path lookup. Either the page itself was found, or the
+	 * closest virtual parent whose path is a prefix of the requested one.
+	 */
+	public static class Route {
+
+		private Long pageId;
+
+		private String tail;
+
+		Route(Long pageId, String tail) {
+			this.pageId = pageId;
+			this.tail = tail;
+		}
+
+		/**
+		 * Returns the id of the matching page or virtual parent.
+		 */
+		public Long getPageId() {
+			return pageId;
+		}
+
+		/**
+		 * Returns whether the route points to a virtual parent.
+		 */
+		public boolean isVirtual() {
+			return tail != null;
+		}
+
+		/**
+		 * Returns the part of the path that has to be resolved by the
+		 * virtual parent, or <code>null</code> if the page itself matched.
+		 */
+		public String getTail() {
+			return tail;
+		}
+	}
+
+	/**
+	 * Immutable (once built) snapshot of all routes.
+	 */
+	private static class Routes {
+
+		private long revision;
+
+		private Map<String, Long> sitesByHost = Generics.newHashMap();
+
+		private Long catchAllSiteId;
+
+		private Map<Long, PathNode> pathsBySite = Generics.newHashMap();
+
+		Routes(long revision) {
+			this.revision = revision;
+		}
+
+		/**
+		 * Adds the given Site. Sites must be added in the order of their
+		 * position, so that the first Site matching a host name wins.
+		 */
+		void addSite(Site site) {
+			if (site.getHostName() != null) {
+				putIfAbsent(site.getHostName(), site.getId());
+			}
+			else if (catchAllSiteId == null) {
+				catchAllSiteId = site.getId();
+			}
+			if (site.getAliases() != null) {
+				for (String alias : site.getAliases()) {
+					putIfAbsent(alias, site.getId());
+				}
+			}
+			pathsBySite.put(site.getId(), new PathNode());
+		}
+
+		private void putIfAbsent(String hostName, Long siteId) {
+			if (!sitesByHost.containsKey(hostName)) {
+				sitesByHost.put(hostName, siteId);
+			}
+		}
+
+		void addPage(Long pageId, Long siteId, String path, boolean virtualParent) {
+			PathNode root = pathsBySite.get(siteId);
+			if (root != null && path != null && path.startsWith("/")) {
+				root.add(path, pageId, virtualParent);
+			}
+		}
+	}
+
+	/**
+	 * Node of a path tree. Each node represents one path component.
+	 */
+	static class PathNode {
+
+		private Map<String, PathNode> children;
+
+		private Long pageId;
+
+		/** Path of the page, only set if the page is a virtual parent */
+		private String virtualParentPath;
+
+		void add(String path, Long pageId, boolean virtualParent) {
+			PathNode node = this;
+			int start = 1;
+			while (start <= path.length() && path.length() > 1) {
+				int end = path.indexOf('/', start);
+				if (end == -1) {
+					end = path.length();
+				}
+				node = node.getOrCreateChild(path.substring(start, end));
+				start = end + 1;
+			}
+			node.pageId = pageId;
+			if (virtualParent) {
+				node.virtualParentPath = path;
+			}
+		}
+
+		private PathNode getOrCreateChild(String component) {
+			if (children == null) {
+				children = Generics.newHashMap();
+			}
+			PathNode child = children.get(component);
+			if (child == null) {
+				child = new PathNode();
+				children.put(component, child);
+			}
+			return child;
+		}
+
+		/**
+		 * Looks up the given path. Paths that don't start with a slash never
+		 * match.
+		 */
+		Route find(String path) {
+			if (!path.startsWith("/")) {
+				return null;
+			}
+			PathNode node = this;
+			PathNode virtualParent = null;
+			int start = 1;
+			while (node != null && start <= path.length() && path.length() > 1) {
+				if (node.virtualParentPath != null) {
+					virtualParent = node;
+				}
+				if (node.children == null) {
+					node = null;
+					break;
+				}
+				int end = path.indexOf('/', start);
+				if (end == -1) {
+					end = path.length();
+				}
+				node = node.children.get(path.substring(start, end));
+				start = end + 1;
+			}
+			if (node != null && node.pageId != null) {
+				return new Route(node.pageId, null);
+			}
+			if (virtualParent != null) {
+				return new Route(virtualParent.pageId, path.substring(
+						virtualParent.virtualParentPath.length()));
+			}
+			return null;
+		}
+	}
+
+}
@@ -340,6 +340,16 @@ public class ContentPage extends ContentEntity implements Page, Lifecycle {
 				.cache().load();
 	}
 
+	/**
+	 * Returns the id, site id, path and page type of all pages. 
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Object[]> findAllPaths() {
+		return (List<Object[]>) query(ContentPage.class,
+				"select p.id, p.site.id, p.path, p.pageTypeName from {} p")
+				.list();
+	}
+	
 	public static List<ContentPage> findByTypesAndSite(Collection<String> types, Site site) {
 		if (types == null || types.isEmpty()) {
 			return Collections.emptyList();
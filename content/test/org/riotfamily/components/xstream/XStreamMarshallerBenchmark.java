@@ -0,0 +1,97 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.components.xstream;
+
+import org.riotfamily.components.model.Component;
+import org.riotfamily.components.model.ComponentList;
+import org.riotfamily.components.model.Content;
+import org.riotfamily.components.model.ContentMap;
+import org.riotfamily.components.model.ContentMapImpl;
+
+import com.thoughtworks.xstream.io.xml.DomDriver;
+
+/**
+ * Compares the DOM based XML format used previously with the streaming 
+ * XML and the binary format of the {@link XStreamMarshaller}. Run with 
+ * <code>java XStreamMarshallerBenchmark [components] [iterations]</code>.
+ */
+public class XStreamMarshallerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int components = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		
+		XStreamMarshaller dom = new XStreamMarshaller();
+		dom.setDriver(new DomDriver("UTF-8"));
+		dom.afterPropertiesSet();
+		
+		XStreamMarshaller xpp = new XStreamMarshaller();
+		xpp.afterPropertiesSet();
+		
+		XStreamMarshaller binary = new XStreamMarshaller();
+		binary.setBinary(true);
+		binary.afterPropertiesSet();
+		
+		for (int run = 0; run < 3; run++) {
+			run("DOM XML", dom, components, iterations);
+			run("Streaming XML", xpp, components, iterations);
+			run("Binary", binary, components, iterations);
+		}
+	}
+	
+	private static void run(String name, XStreamMarshaller marshaller,
+			int components, int iterations) {
+		
+		ContentMap map = createContentMap(marshaller, components);
+		String data = marshaller.marshal(map);
+		
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < iterations; i++) {
+			marshaller.marshal(map);
+		}
+		long marshalTime = System.currentTimeMillis() - start;
+		
+		start = System.currentTimeMillis();
+		for (int i = 0; i < iterations; i++) {
+			Content owner = new Content();
+			owner.setMarshaller(marshaller);
+			marshaller.unmarshal(owner, data);
+		}
+		long unmarshalTime = System.currentTimeMillis() - start;
+		
+		System.out.printf("%-14s %6d chars, marshal: %5d ms, unmarshal: %5d ms%n", 
+				name, data.length(), marshalTime, unmarshalTime);
+	}
+	
+	private static ContentMap createContentMap(XStreamMarshaller marshaller, 
+			int components) {
+		
+		Content content = new Content();
+		content.setMarshaller(marshaller);
+		ContentMap map = new ContentMapImpl(content);
+		map.put("title", "Benchmark");
+		ComponentList list = new ComponentList(map, "main");
+		for (int i = 0; i < components; i++) {
+			Component component = new Component(list);
+			component.setType(i % 2 == 0 ? "text" : "teaser");
+			component.put("headline", "Headline " + i);
+			component.put("text", "<p>Lorem ipsum dolor sit amet, consectetur " 
+					+ "adipisicing elit, sed do eiusmod tempor incididunt.</p>");
+			
+			component.put("position", i);
+			list.add(component);
+		}
+		map.put("main", list);
+		return map;
+	}
+}
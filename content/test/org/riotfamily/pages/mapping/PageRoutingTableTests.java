@@ -0,0 +1,85 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.pages.mapping;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.riotfamily.pages.mapping.PageRoutingTable.PathNode;
+import org.riotfamily.pages.mapping.PageRoutingTable.Route;
+
+public class PageRoutingTableTests {
+
+	private PathNode root;
+	
+	@Before
+	public void setUp() {
+		root = new PathNode();
+		root.add("/", 1L, false);
+		root.add("/foo", 2L, false);
+		root.add("/foo/bar", 3L, false);
+		root.add("/news", 4L, true);
+		root.add("/news/archive", 5L, true);
+	}
+	
+	@Test
+	public void testFindPage() {
+		assertRoute(1L, null, root.find("/"));
+		assertRoute(2L, null, root.find("/foo"));
+		assertRoute(3L, null, root.find("/foo/bar"));
+		assertRoute(4L, null, root.find("/news"));
+	}
+	
+	@Test
+	public void testNoMatch() {
+		assertNull(root.find("/baz"));
+		assertNull(root.find("/foo/baz"));
+		assertNull(root.find("/foo/bar/baz"));
+		assertNull(root.find("foo"));
+		assertNull(root.find(""));
+	}
+	
+	@Test
+	public void testFindVirtualChild() {
+		assertRoute(4L, "/2010/hello", root.find("/news/2010/hello"));
+		assertRoute(4L, "/arch", root.find("/news/arch"));
+	}
+	
+	@Test
+	public void testDeepestVirtualParentWins() {
+		assertRoute(5L, "/2009", root.find("/news/archive/2009"));
+	}
+	
+	@Test
+	public void testVirtualParentsMatchWholeComponents() {
+		// A plain prefix match would have resolved this to /news
+		assertNull(root.find("/newsletter"));
+		assertNull(root.find("/newsletter/2010"));
+	}
+	
+	@Test
+	public void testIntermediateNodeWithoutPage() {
+		PathNode node = new PathNode();
+		node.add("/a/b", 1L, false);
+		assertNull(node.find("/a"));
+		assertRoute(1L, null, node.find("/a/b"));
+	}
+	
+	private static void assertRoute(Long pageId, String tail, Route route) {
+		assertNotNull(route);
+		assertEquals(pageId, route.getPageId());
+		assertEquals(tail != null, route.isVirtual());
+		assertEquals(tail, route.getTail());
+	}
+}
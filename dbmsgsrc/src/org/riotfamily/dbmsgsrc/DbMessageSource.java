@@ -13,26 +13,72 @@
 package org.riotfamily.dbmsgsrc;
 
 import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.riotfamily.common.hibernate.ActiveRecordUtils;
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.dbmsgsrc.MessageBundleSnapshot.Translation;
 import org.riotfamily.dbmsgsrc.model.Message;
 import org.riotfamily.dbmsgsrc.model.MessageBundleEntry;
-import org.springframework.transaction.annotation.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 
-@Transactional
+/**
+ * MessageSource that reads messages from the database. All messages of the 
+ * bundle are held in an immutable {@link MessageBundleSnapshot}, so that 
+ * lookups don't require a Hibernate session or transaction. The snapshot
+ * is reloaded in bulk when the {@link MessageBundleChangeTracker} reports 
+ * a modification of the bundle. While one thread reloads the bundle, the
+ * other threads keep using the previous snapshot.
+ * <p>
+ * Codes that are not contained in the bundle are handed over to the 
+ * {@link MessageCodeRegistrar}, which adds them to the database in the 
+ * background, using the default message (if present) as text. Until then, 
+ * the default message is returned. 
+ */
 public class DbMessageSource extends AbstractMessageSource {
 
 	public static final String DEFAULT_BUNDLE = "default";
 	
+	private Logger log = LoggerFactory.getLogger(DbMessageSource.class);
+	
 	private String bundle = DEFAULT_BUNDLE;
 	
 	private boolean fallbackToDefaultCountry = true;
 	
 	private boolean escapeSingleQuotes = true;
 
+	private MessageBundleChangeTracker changeTracker;
+	
+	private MessageCodeRegistrar codeRegistrar;
+	
+	private TransactionTemplate transaction;
+	
+	private volatile MessageBundleSnapshot snapshot;
+	
+	private Object snapshotMonitor = new Object();
+	
+	private AtomicBoolean reloading = new AtomicBoolean();
+	
+	private Map<Locale, List<Locale>> fallbackChains = Generics.newConcurrentHashMap();
+	
+	public DbMessageSource(MessageBundleChangeTracker changeTracker,
+			MessageCodeRegistrar codeRegistrar, PlatformTransactionManager tx) {
+		
+		this.changeTracker = changeTracker;
+		this.codeRegistrar = codeRegistrar;
+		this.transaction = new TransactionTemplate(tx);
+	}
+	
 	public void setBundle(String bundle) {
 		this.bundle = bundle;
 	}
@@ -45,6 +91,7 @@ public class DbMessageSource extends AbstractMessageSource {
 	 */
 	public void setFallbackToDefaultCountry(boolean fallbackToDefaultCountry) {
 		this.fallbackToDefaultCountry = fallbackToDefaultCountry;
+		fallbackChains.clear();
 	}
 
 	/**
@@ -53,51 +100,121 @@ public class DbMessageSource extends AbstractMessageSource {
 	 */
 	public void setEscapeSingleQuotes(boolean escapeSingleQuotes) {
 		this.escapeSingleQuotes = escapeSingleQuotes;
+		snapshot = null;
 	}
-		
+	
+	/**
+	 * Returns the entry with the given code, creating it if it does not 
+	 * exist yet. Unlike the lookup methods, this method writes to the 
+	 * database synchronously, as the entry is needed right away.
+	 */
 	MessageBundleEntry getEntry(final String code, final String defaultMessage) {
-		MessageBundleEntry result = MessageBundleEntry.loadByBundleAndCode(bundle, code);
+		return transaction.execute(new TransactionCallback<MessageBundleEntry>() {
+			public MessageBundleEntry doInTransaction(TransactionStatus status) {
+				MessageBundleEntry result = MessageBundleEntry.loadByBundleAndCode(bundle, code);
+				if (result == null) {
+					result = new MessageBundleEntry(bundle, code, defaultMessage);
+					result.save();
+					ActiveRecordUtils.flushSession();
+				}
+				return result;
+			}
+		});
+	}
+	
+	/**
+	 * Returns a snapshot of the bundle. If the bundle has been modified since
+	 * the current snapshot was taken, the calling thread reloads it, unless
+	 * another thread is already doing so. Callers only wait if no snapshot
+	 * has been loaded yet.
+	 */
+	MessageBundleSnapshot getSnapshot() {
+		MessageBundleSnapshot result = snapshot;
 		if (result == null) {
-			result = new MessageBundleEntry(bundle, code, defaultMessage);
-			result.save();
-			ActiveRecordUtils.flushSession();
+			synchronized (snapshotMonitor) {
+				result = snapshot;
+				if (result == null) {
+					result = loadSnapshot(changeTracker.getRevision(bundle));
+					snapshot = result;
+				}
+			}
+		}
+		else {
+			long revision = changeTracker.getRevision(bundle);
+			if (result.getRevision() != revision 
+					&& reloading.compareAndSet(false, true)) {
+				
+				try {
+					result = loadSnapshot(revision);
+					snapshot = result;
+				}
+				finally {
+					reloading.set(false);
+				}
+			}
 		}
 		return result;
 	}
 	
+	private MessageBundleSnapshot loadSnapshot(final long revision) {
+		long start = System.currentTimeMillis();
+		MessageBundleSnapshot result = transaction.execute(
+				new TransactionCallback<MessageBundleSnapshot>() {
+			
+			public MessageBundleSnapshot doInTransaction(TransactionStatus status) {
+				return new MessageBundleSnapshot(revision, 
+						MessageBundleEntry.findMessagesByBundle(bundle),
+						escapeSingleQuotes);
+			}
+		});
+		log.debug("Loaded {} entries of bundle '{}' in {} ms", new Object[] {
+				result.size(), bundle, System.currentTimeMillis() - start });
+		
+		return result;
+	}
+	
 	@Override
 	protected MessageFormat resolveCode(String code, Locale locale, String defaultMessage) {
-		MessageBundleEntry entry = getEntry(code, defaultMessage);
-		Message message = getMessage(entry, locale);
-		if (message != null) {
-			return message.getMessageFormat(escapeSingleQuotes);
+		MessageBundleSnapshot current = getSnapshot();
+		if (current.contains(code)) {
+			Translation translation = current.getTranslation(code, getFallbackChain(locale));
+			return translation != null ? translation.getMessageFormat() : null;
+		}
+		codeRegistrar.register(bundle, code, defaultMessage);
+		if (StringUtils.hasText(defaultMessage)) {
+			return Message.createMessageFormat(defaultMessage, 
+					MessageBundleEntry.C_LOCALE, escapeSingleQuotes);
 		}
 		return null;
 	}
 	
 	@Override
 	protected String resolveCodeWithoutArguments(String code, Locale locale, String defaultMessage) {
-		MessageBundleEntry entry = getEntry(code, defaultMessage);
-		Message message = getMessage(entry, locale);
-		if (message != null) {
-			return message.getText();
+		MessageBundleSnapshot current = getSnapshot();
+		if (current.contains(code)) {
+			Translation translation = current.getTranslation(code, getFallbackChain(locale));
+			return translation != null ? translation.getText() : null;
 		}
-		return null;
+		codeRegistrar.register(bundle, code, defaultMessage);
+		return StringUtils.hasText(defaultMessage) ? defaultMessage : null;
 	}
 	
-	protected Message getMessage(MessageBundleEntry entry, Locale locale) {
-		Message message = null;
-		Map<Locale, Message> messages = entry.getMessages();
-		if (messages != null) {
-			while (message == null && locale != null) {
-				message = messages.get(locale);
-				locale = getFallbackLocale(locale);
+	/**
+	 * Returns the given Locale, followed by its fallbacks and the 
+	 * {@link MessageBundleEntry#C_LOCALE}. 
+	 */
+	private List<Locale> getFallbackChain(Locale locale) {
+		List<Locale> chain = fallbackChains.get(locale);
+		if (chain == null) {
+			chain = Generics.newArrayList();
+			for (Locale l = locale; l != null; l = getFallbackLocale(l)) {
+				chain.add(l);
 			}
+			chain.add(MessageBundleEntry.C_LOCALE);
+			chain = Collections.unmodifiableList(chain);
+			fallbackChains.put(locale, chain);
 		}
-		if (message == null) {
-			message = entry.getDefaultMessage();
-		}
-		return message;
+		return chain;
 	}
 	
 	/**
@@ -0,0 +1,116 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.dbmsgsrc;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.Session;
+import org.riotfamily.common.hibernate.EntityListener;
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.dbmsgsrc.model.Message;
+import org.riotfamily.dbmsgsrc.model.MessageBundleEntry;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * EntityListener that keeps a revision number for each message bundle.
+ * The revision is incremented whenever an entry or message of the bundle
+ * is saved, updated or deleted, so that {@link DbMessageSource}s can tell
+ * whether their {@link MessageBundleSnapshot} is still up-to-date.
+ * <p>
+ * If a transaction is active, the revision is not incremented before the
+ * transaction has completed. Otherwise a snapshot that is reloaded between
+ * the flush and the commit would not contain the changes.
+ */
+public class MessageBundleChangeTracker implements EntityListener {
+
+	private ConcurrentMap<String, AtomicLong> revisions = Generics.newConcurrentHashMap();
+
+	/** Revision of all bundles, incremented if the bundle is unknown */
+	private AtomicLong globalRevision = new AtomicLong();
+
+	/**
+	 * Returns the current revision of the given bundle.
+	 */
+	public long getRevision(String bundle) {
+		return globalRevision.get() + getCounter(bundle).get();
+	}
+
+	private AtomicLong getCounter(String bundle) {
+		AtomicLong counter = revisions.get(bundle);
+		if (counter == null) {
+			counter = new AtomicLong();
+			AtomicLong existing = revisions.putIfAbsent(bundle, counter);
+			if (existing != null) {
+				counter = existing;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Marks the given bundle as modified. Pass <code>null</code> to mark
+	 * all bundles as modified.
+	 */
+	public void bundleModified(final String bundle) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(
+					new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCompletion(int status) {
+					incrementRevision(bundle);
+				}
+			});
+		}
+		else {
+			incrementRevision(bundle);
+		}
+	}
+
+	private void incrementRevision(String bundle) {
+		if (bundle != null) {
+			getCounter(bundle).incrementAndGet();
+		}
+		else {
+			globalRevision.incrementAndGet();
+		}
+	}
+
+	private String getBundle(Object entity) {
+		if (entity instanceof MessageBundleEntry) {
+			return ((MessageBundleEntry) entity).getBundle();
+		}
+		MessageBundleEntry entry = ((Message) entity).getEntry();
+		return entry != null ? entry.getBundle() : null;
+	}
+
+	public boolean supports(Class<?> entityClass) {
+		return MessageBundleEntry.class.isAssignableFrom(entityClass)
+				|| Message.class.isAssignableFrom(entityClass);
+	}
+
+	public void onSave(Object entity, Session session) {
+		bundleModified(getBundle(entity));
+	}
+
+	public void onUpdate(Object entity, Object oldState, Session session) {
+		bundleModified(getBundle(entity));
+	}
+
+	public void onDelete(Object entity, Session session) {
+		bundleModified(getBundle(entity));
+	}
+
+}
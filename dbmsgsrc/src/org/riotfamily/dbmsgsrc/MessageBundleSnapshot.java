@@ -0,0 +1,128 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.dbmsgsrc;
+
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.dbmsgsrc.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable in-memory copy of all messages of a bundle. The texts are
+ * parsed into MessageFormats when the snapshot is created, so that lookups
+ * neither require a Hibernate session nor any parsing.
+ */
+class MessageBundleSnapshot {
+
+	private static Logger log = LoggerFactory.getLogger(MessageBundleSnapshot.class);
+
+	private long revision;
+
+	private Map<String, Map<Locale, Translation>> entries;
+
+	/**
+	 * Creates a snapshot from the rows returned by
+	 * {@link org.riotfamily.dbmsgsrc.model.MessageBundleEntry#findMessagesByBundle(String)}.
+	 */
+	public MessageBundleSnapshot(long revision, List<Object[]> rows,
+			boolean escapeSingleQuotes) {
+
+		this.revision = revision;
+		this.entries = Generics.newHashMap();
+		for (Object[] row : rows) {
+			String code = (String) row[0];
+			Locale locale = (Locale) row[1];
+			String text = (String) row[2];
+			Map<Locale, Translation> translations = entries.get(code);
+			if (translations == null) {
+				translations = Generics.newHashMap();
+				entries.put(code, translations);
+			}
+			if (locale != null) {
+				translations.put(locale, new Translation(code, locale, text,
+						escapeSingleQuotes));
+			}
+		}
+	}
+
+	/**
+	 * Returns the revision of the bundle at the time the snapshot was taken.
+	 */
+	public long getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Returns whether an entry with the given code exists.
+	 */
+	public boolean contains(String code) {
+		return entries.containsKey(code);
+	}
+
+	/**
+	 * Returns the translation for the first Locale in the given fallback
+	 * chain, or <code>null</code> if none of the Locales is translated.
+	 */
+	public Translation getTranslation(String code, List<Locale> fallbackChain) {
+		Map<Locale, Translation> translations = entries.get(code);
+		if (translations != null && !translations.isEmpty()) {
+			for (Locale locale : fallbackChain) {
+				Translation translation = translations.get(locale);
+				if (translation != null) {
+					return translation;
+				}
+			}
+		}
+		return null;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	static class Translation {
+
+		private String text;
+
+		private MessageFormat messageFormat;
+
+		Translation(String code, Locale locale, String text,
+				boolean escapeSingleQuotes) {
+
+			this.text = text;
+			if (text != null) {
+				try {
+					messageFormat = Message.createMessageFormat(text, locale,
+							escapeSingleQuotes);
+				}
+				catch (IllegalArgumentException e) {
+					log.warn("Invalid message format for code '{}' in {}: {}",
+							new Object[] { code, locale, e.getMessage() });
+				}
+			}
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public MessageFormat getMessageFormat() {
+			return messageFormat;
+		}
+	}
+}
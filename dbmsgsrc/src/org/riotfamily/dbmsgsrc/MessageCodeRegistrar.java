@@ -0,0 +1,262 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.dbmsgsrc;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.dbmsgsrc.model.MessageBundleEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * Write-behind registrar for message codes that are not yet contained in
+ * the database. Instead of inserting a {@link MessageBundleEntry} while a
+ * page is being rendered, {@link DbMessageSource} hands the code over to
+ * this class and returns the default message right away.
+ * <p>
+ * A background thread periodically collects the pending codes and saves
+ * them in batches, one transaction per batch. Codes that have been added
+ * in the meantime (for example by another cluster node) are skipped.
+ * Whether the inserts are sent as JDBC batches depends on the
+ * <code>hibernate.jdbc.batch_size</code> setting.
+ */
+public class MessageCodeRegistrar {
+
+	private Logger log = LoggerFactory.getLogger(MessageCodeRegistrar.class);
+
+	private ConcurrentMap<PendingCode, PendingCode> pendingCodes = Generics.newConcurrentHashMap();
+
+	private TransactionTemplate transaction;
+
+	private long interval = 1000;
+
+	private int batchSize = 50;
+
+	private int maxPendingCodes = 10000;
+
+	private RegistrarThread registrarThread;
+
+	public MessageCodeRegistrar(PlatformTransactionManager tx) {
+		this.transaction = new TransactionTemplate(tx);
+	}
+
+	/**
+	 * Sets the interval (in milliseconds) at which pending codes are
+	 * written. Default is <code>1000</code>.
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * Sets the maximal number of entries that are saved in one transaction.
+	 * Default is <code>50</code>.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Sets the maximal number of codes that may be waiting to be saved.
+	 * Further codes are ignored until the queue has been processed, they
+	 * will be registered again on their next lookup. Default is
+	 * <code>10000</code>.
+	 */
+	public void setMaxPendingCodes(int maxPendingCodes) {
+		this.maxPendingCodes = maxPendingCodes;
+	}
+
+	/**
+	 * Schedules the registration of the given code. Invocations for codes
+	 * that are already pending are ignored.
+	 */
+	public void register(String bundle, String code, String defaultMessage) {
+		if (pendingCodes.size() < maxPendingCodes) {
+			PendingCode pending = new PendingCode(bundle, code, defaultMessage);
+			pendingCodes.putIfAbsent(pending, pending);
+		}
+	}
+
+	public int getPendingCount() {
+		return pendingCodes.size();
+	}
+
+	public void init() {
+		registrarThread = new RegistrarThread();
+		registrarThread.start();
+	}
+
+	/**
+	 * Stops the background thread and saves all remaining codes.
+	 */
+	public void destroy() {
+		if (registrarThread != null) {
+			registrarThread.shutdown();
+			registrarThread = null;
+		}
+		registerPendingCodes();
+	}
+
+	/**
+	 * Saves all pending codes. Invoked by the background thread.
+	 */
+	void registerPendingCodes() {
+		Map<String, List<PendingCode>> bundles = Generics.newHashMap();
+		Iterator<PendingCode> it = pendingCodes.keySet().iterator();
+		while (it.hasNext()) {
+			PendingCode pending = it.next();
+			it.remove();
+			List<PendingCode> codes = bundles.get(pending.bundle);
+			if (codes == null) {
+				codes = Generics.newArrayList();
+				bundles.put(pending.bundle, codes);
+			}
+			codes.add(pending);
+		}
+		for (List<PendingCode> codes : bundles.values()) {
+			for (int i = 0; i < codes.size(); i += batchSize) {
+				List<PendingCode> batch = codes.subList(i,
+						Math.min(i + batchSize, codes.size()));
+				try {
+					saveEntries(batch);
+				}
+				catch (RuntimeException e) {
+					log.debug("Batch failed, saving entries one by one", e);
+					for (PendingCode pending : batch) {
+						try {
+							saveEntries(Collections.singletonList(pending));
+						}
+						catch (RuntimeException ex) {
+							log.warn("Failed to register message code '{}': {}",
+									pending.code, ex.getMessage());
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves the given codes (which must all belong to the same bundle)
+	 * within a single transaction.
+	 */
+	private void saveEntries(final List<PendingCode> codes) {
+		transaction.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				String bundle = codes.get(0).bundle;
+				Set<String> existing = Generics.newHashSet();
+				List<String> names = Generics.newArrayList();
+				for (PendingCode pending : codes) {
+					names.add(pending.code);
+				}
+				existing.addAll(MessageBundleEntry.findCodes(bundle, names));
+				for (PendingCode pending : codes) {
+					if (existing.add(pending.code)) {
+						new MessageBundleEntry(bundle, pending.code,
+								pending.defaultMessage).save();
+					}
+				}
+			}
+		});
+	}
+
+	private static class PendingCode {
+
+		private String bundle;
+
+		private String code;
+
+		private String defaultMessage;
+
+		PendingCode(String bundle, String code, String defaultMessage) {
+			this.bundle = bundle;
+			this.code = code;
+			this.defaultMessage = defaultMessage;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (obj instanceof PendingCode) {
+				PendingCode other = (PendingCode) obj;
+				return ObjectUtils.nullSafeEquals(bundle, other.bundle)
+						&& ObjectUtils.nullSafeEquals(code, other.code);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return ObjectUtils.nullSafeHashCode(bundle) * 31
+					+ ObjectUtils.nullSafeHashCode(code);
+		}
+	}
+
+	/**
+	 * Thread that periodically saves the pending codes.
+	 */
+	private class RegistrarThread extends Thread {
+
+		private boolean running = true;
+
+		public RegistrarThread() {
+			super("Riot-MessageCodeRegistrar");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				synchronized (this) {
+					try {
+						wait(interval);
+					}
+					catch (InterruptedException e) {
+						break;
+					}
+					if (!running) {
+						break;
+					}
+				}
+				if (!pendingCodes.isEmpty()) {
+					try {
+						registerPendingCodes();
+					}
+					catch (Exception e) {
+						log.error("Failed to register message codes", e);
+					}
+				}
+			}
+		}
+
+		public synchronized void shutdown() {
+			running = false;
+			notify();
+		}
+	}
+
+}
@@ -21,9 +21,8 @@ import org.riotfamily.core.security.AccessController;
 import org.riotfamily.core.security.auth.RiotUser;
 import org.riotfamily.dbmsgsrc.model.MessageBundleEntry;
 import org.springframework.context.MessageSource;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
 
-@Transactional
 public class RiotDbMessageSource extends DefaultCodeRevealingMessageSource {
 
 	private DbMessageSource dbMessageSource;
@@ -32,8 +31,12 @@ public class RiotDbMessageSource extends DefaultCodeRevealingMessageSource {
 
 	private HandlerUrlResolver handlerUrlResolver;
 	
-	public RiotDbMessageSource(HandlerUrlResolver handlerUrlResolver) {
-		dbMessageSource = new DbMessageSource();
+	public RiotDbMessageSource(HandlerUrlResolver handlerUrlResolver,
+			MessageBundleChangeTracker changeTracker,
+			MessageCodeRegistrar codeRegistrar,
+			PlatformTransactionManager tx) {
+		
+		dbMessageSource = new DbMessageSource(changeTracker, codeRegistrar, tx);
 		dbMessageSource.setBundle("riot");
 		super.setParentMessageSource(dbMessageSource);
 		this.handlerUrlResolver = handlerUrlResolver;
@@ -97,15 +97,26 @@ public class Message {
 	@Transient
 	public MessageFormat getMessageFormat(boolean escapeSingleQuotes) {
 		if (messageFormat == null && text != null) {
-			String pattern = text;
-			if (escapeSingleQuotes) {
-				pattern = FormatUtils.escapeChars(pattern, "'", '\'');
-			}
-			messageFormat = new MessageFormat(pattern, locale);
+			messageFormat = createMessageFormat(text, locale, escapeSingleQuotes);
 		}
 		return messageFormat;
 	}
 	
+	/**
+	 * Creates a MessageFormat for the given text. If 
+	 * <code>escapeSingleQuotes</code> is set, single quotes are escaped 
+	 * so that they don't need to be doubled by the editors.
+	 */
+	public static MessageFormat createMessageFormat(String text, Locale locale,
+			boolean escapeSingleQuotes) {
+		
+		String pattern = text;
+		if (escapeSingleQuotes) {
+			pattern = FormatUtils.escapeChars(pattern, "'", '\'');
+		}
+		return new MessageFormat(pattern, locale);
+	}
+	
 	public String format(Object[] args, boolean escapeSingleQuotes) {
 		if (args != null) {
 			MessageFormat messageFormat = getMessageFormat(escapeSingleQuotes);
@@ -12,6 +12,8 @@
  */
 package org.riotfamily.dbmsgsrc.model;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -166,5 +168,29 @@ public class MessageBundleEntry extends ActiveRecordBeanSupport {
 				.set("code", code))
 				.uniqueResult();
 	}
+	
+	/**
+	 * Returns the code, locale and text of all messages in the given bundle.
+	 * Entries without any message are returned as a single row with 
+	 * <code>null</code> values for locale and text.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Object[]> findMessagesByBundle(String bundle) {
+		return (List<Object[]>) query(MessageBundleEntry.class, 
+				"select e.code, m.locale, m.text from {} e " +
+				"left join e.messages m where e.bundle = ?", bundle).list();
+	}
+	
+	/**
+	 * Returns those of the given codes that exist in the given bundle.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<String> findCodes(String bundle, Collection<String> codes) {
+		return (List<String>) query(MessageBundleEntry.class, 
+				"select code from {} where bundle = :bundle and code in (:codes)")
+				.setParameter("bundle", bundle)
+				.setParameterList("codes", codes)
+				.list();
+	}
 
 }
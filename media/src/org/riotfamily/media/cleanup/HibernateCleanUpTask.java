@@ -12,12 +12,14 @@
  */
 package org.riotfamily.media.cleanup;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
-import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.engine.SessionFactoryImplementor;
@@ -29,14 +31,26 @@ import org.hibernate.type.Type;
 import org.riotfamily.common.scheduling.HibernateTask;
 import org.riotfamily.common.util.Generics;
 import org.riotfamily.media.model.RiotFile;
+import org.riotfamily.media.store.DeduplicatingFileStore;
 import org.riotfamily.media.store.FileStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
-import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionTemplate;
 
+/**
+ * Task that deletes orphaned {@link RiotFile RiotFiles} and files in the
+ * {@link FileStore} that don't belong to a RiotFile.
+ * <p>
+ * The work is done in chunks, so that the memory usage does not depend on
+ * the number of files. RiotFile ids are read in ascending order, and for
+ * each chunk only the references within the chunk's id range are queried.
+ * The orphans of a chunk are deleted in a single transaction. The files in
+ * the store are looked up in batches, too, using one query per chunk
+ * instead of one query per file.
+ */
 public class HibernateCleanUpTask extends HibernateTask {
 
 	private Logger log = LoggerFactory.getLogger(HibernateCleanUpTask.class);
@@ -47,6 +61,7 @@ public class HibernateCleanUpTask extends HibernateTask {
 	
 	private List<String> fileQueries = Generics.newArrayList();
 
+	private int chunkSize = 1000;
 	
 	public HibernateCleanUpTask(SessionFactory sessionFactory, FileStore fileStore, 
 			PlatformTransactionManager tx) {
@@ -57,67 +72,164 @@ public class HibernateCleanUpTask extends HibernateTask {
 		init();
 	}
 
+	/**
+	 * Sets the number of ids (or URIs) that are processed at once. 
+	 * Default is <code>1000</code>.
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
 	@Override
-	@SuppressWarnings("unchecked")
 	protected void doWithoutResult(final Session session) throws Exception {
 		
 		log.info("Looking for orphaned files ...");
-
-		List<Long> fileIds = session.createQuery(
-				"select id from " + RiotFile.class.getName()).list();
-		
-		Set<Long> referencedIds = Generics.newHashSet();
-		for (String hql : fileQueries) {
-			log.info(hql);
-			referencedIds.addAll(session.createQuery(hql).list());
-		}
-
-		log.info("Deleting [{}] orphaned files ...", fileIds.size() - referencedIds.size());
-		
-		for (Long id : fileIds) {
-			if (!referencedIds.contains(id)) {
-				delete(session, id);
+		int orphans = 0;
+		long lastId = Long.MIN_VALUE;
+		while (true) {
+			long[] ids = findIds(session, lastId);
+			if (ids.length == 0) {
+				break;
 			}
+			lastId = ids[ids.length - 1];
+			List<Long> orphanIds = findOrphans(session, ids);
+			if (!orphanIds.isEmpty()) {
+				delete(session, orphanIds);
+				orphans += orphanIds.size();
+			}
+			session.clear();
 		}
+		log.info("Deleted [{}] orphaned files", orphans);
 		
 		log.info("Deleting unmanaged files ...");
+		int unmanaged = 0;
+		List<String> uris = Generics.newArrayList(chunkSize);
 		Iterator<String> files = fileStore.iterator();
 		while (files.hasNext()) {
-			String uri = files.next();
-			if (!fileExists(session, uri)) {
-				log.debug("Deleting unmanaged file: " + uri);
-				files.remove();
+			uris.add(files.next());
+			if (uris.size() == chunkSize || !files.hasNext()) {
+				unmanaged += deleteUnmanaged(session, uris);
+				uris.clear();
 			}
 		}
+		log.info("Deleted [{}] unmanaged files", unmanaged);
+		
+		if (fileStore instanceof DeduplicatingFileStore) {
+			log.info("Deleting unreferenced blobs ...");
+			((DeduplicatingFileStore) fileStore).removeUnreferencedBlobs();
+		}
 		
 		log.info("Media clean-up finished.");
 	}
 	
-	private void delete(final Session session, final Long id) {
+	/**
+	 * Returns the next chunk of RiotFile ids greater than the given one,
+	 * in ascending order.
+	 */
+	@SuppressWarnings("unchecked")
+	private long[] findIds(Session session, long lastId) {
+		List<Long> list = session.createQuery("select id from " 
+				+ RiotFile.class.getName() + " where id > :lastId order by id")
+				.setLong("lastId", lastId)
+				.setMaxResults(chunkSize)
+				.list();
+		
+		long[] ids = new long[list.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = list.get(i);
+		}
+		return ids;
+	}
+	
+	/**
+	 * Returns the ids of the given (sorted) chunk that are not referenced. 
+	 * The referenced ids are looked up via binary search and marked in a 
+	 * BitSet, so no set of boxed ids has to be built.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Long> findOrphans(Session session, long[] ids) {
+		BitSet referenced = new BitSet(ids.length);
+		for (String hql : fileQueries) {
+			List<Long> refs = session.createQuery(hql)
+					.setLong("from", ids[0])
+					.setLong("to", ids[ids.length - 1])
+					.list();
+			
+			for (Long ref : refs) {
+				int i = Arrays.binarySearch(ids, ref);
+				if (i >= 0) {
+					referenced.set(i);
+				}
+			}
+		}
+		List<Long> orphans = Generics.newArrayList();
+		for (int i = referenced.nextClearBit(0); i < ids.length; 
+				i = referenced.nextClearBit(i + 1)) {
+			
+			orphans.add(ids[i]);
+		}
+		return orphans;
+	}
+	
+	/**
+	 * Deletes the given RiotFiles in one transaction. If the transaction 
+	 * fails, the files are deleted one by one, so that a single file can't
+	 * prevent the others from being deleted.
+	 */
+	void delete(final Session session, final List<Long> ids) {
 		try {
-			RiotFile file = transactionTemplate.execute(new TransactionCallback<RiotFile>() {
-				public RiotFile doInTransaction(TransactionStatus status) {
-					log.debug("Deleting orphaned file: " + id);
-					RiotFile file = (RiotFile) session.load(RiotFile.class, id);
-					session.delete(file);
-					return file;
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					for (Long id : ids) {
+						log.debug("Deleting orphaned file: " + id);
+						session.delete(session.load(RiotFile.class, id));
+					}
 				}
 			});
-			session.evict(file);
 		}
-		catch (HibernateException e) {
-			log.error("Failed to delete RiotFile " + id, e);
+		catch (RuntimeException e) {
+			// Failed flushes are reported as HibernateException, failed 
+			// commits as DataAccessException
+			session.clear();
+			if (ids.size() == 1) {
+				log.error("Failed to delete RiotFile " + ids.get(0), e);
+			}
+			else {
+				for (Long id : ids) {
+					delete(session, Collections.singletonList(id));
+				}
+			}
 		}
 	}
 	
-	public boolean fileExists(Session session, String uri) {
-		return session.createQuery("select id from " 
-				+ RiotFile.class.getName() 
-				+ " where uri = :uri")
-				.setParameter("uri", uri)
-				.uniqueResult() != null;
+	/**
+	 * Deletes all files in the given list that don't belong to a RiotFile.
+	 * Returns the number of deleted files.
+	 */
+	@SuppressWarnings("unchecked")
+	private int deleteUnmanaged(Session session, List<String> uris) {
+		Set<String> managed = Generics.newHashSet(session.createQuery("select uri from " 
+				+ RiotFile.class.getName() + " where uri in (:uris)")
+				.setParameterList("uris", uris)
+				.list());
+		
+		int count = 0;
+		for (String uri : uris) {
+			if (!managed.contains(uri)) {
+				log.debug("Deleting unmanaged file: " + uri);
+				fileStore.delete(uri);
+				count++;
+			}
+		}
+		return count;
 	}
 	
+	/**
+	 * Builds a query for each property that references a RiotFile. The 
+	 * queries return the ids of the referenced files within the range 
+	 * given by the parameters <code>from</code> and <code>to</code>.
+	 */
 	@SuppressWarnings("unchecked")
 	private void init() {
 		Collection<ClassMetadata> allMeta = getSessionFactory().getAllClassMetadata().values();
@@ -126,7 +238,7 @@ public class HibernateCleanUpTask extends HibernateTask {
 				Type type = meta.getPropertyType(name);
 				if (RiotFile.class.isAssignableFrom(type.getReturnedClass())) {
 					fileQueries.add(String.format(
-							"select %1$s.id from %2$s where %1$s is not null",
+							"select %1$s.id from %2$s where %1$s.id between :from and :to",
 							name, meta.getEntityName()));
 				}
 				else if (type instanceof ComponentType) {
@@ -139,7 +251,7 @@ public class HibernateCleanUpTask extends HibernateTask {
 					
 					if (RiotFile.class.isAssignableFrom(elementType.getReturnedClass())) {
 						fileQueries.add(String.format("select file.id from %1$s ref " +
-								"join ref.%2$s as file where file is not null",
+								"join ref.%2$s as file where file.id between :from and :to",
 								meta.getEntityName(), name));	
 					}
 					else if (elementType instanceof ComponentType) {
@@ -160,7 +272,8 @@ public class HibernateCleanUpTask extends HibernateTask {
 			if (subtype instanceof EntityType 
 						&& RiotFile.class.isAssignableFrom(subtype.getReturnedClass())) {
 				
-				fileQueries.add(String.format("select %1$s.id from %2$s where %1$s is not null",
+				fileQueries.add(String.format("select %1$s.id from %2$s " +
+						"where %1$s.id between :from and :to",
 						subProperty, entityName));
 			}
 			else if (subtype.isComponentType()) {
@@ -181,7 +294,7 @@ public class HibernateCleanUpTask extends HibernateTask {
 					&& RiotFile.class.isAssignableFrom(subtype.getReturnedClass())) {
 				
 				fileQueries.add(String.format("select file.id from %2$s ref " +
-						"join ref.%3$s as col join col.%1$s file where file is not null",
+						"join ref.%3$s as col join col.%1$s file where file.id between :from and :to",
 						subProperty, entityName, collectionProperty));
 			}
 			else if (subtype.isComponentType()) {
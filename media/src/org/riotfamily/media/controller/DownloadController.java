@@ -13,47 +13,331 @@
 package org.riotfamily.media.controller;
 
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.OutputStream;
+import java.util.List;
 
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.riotfamily.common.io.IOUtils;
+import org.riotfamily.cachius.http.support.FileServer;
+import org.riotfamily.cachius.http.support.IOUtils;
+import org.riotfamily.common.util.Generics;
 import org.riotfamily.common.web.mvc.mapping.HandlerUrlUtils;
+import org.riotfamily.media.store.DeduplicatingFileStore;
 import org.riotfamily.media.store.FileStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.web.context.ServletContextAware;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.Controller;
 
-public class DownloadController implements Controller {
+/**
+ * Controller that serves files from a {@link FileStore} as attachments.
+ * <p>
+ * Supports conditional requests (<code>If-None-Match</code>,
+ * <code>If-Modified-Since</code>) and byte ranges, both single and
+ * multiple (<code>multipart/byteranges</code>), so that clients can seek
+ * in videos and resume downloads. Files larger than 2 GB are supported.
+ * Complete files and single ranges are served by a {@link FileServer},
+ * which can hand large files over to the container's sendfile support.
+ * <p>
+ * If the store is a {@link DeduplicatingFileStore}, the ETag is the MD5
+ * hash of the file (the same value as {@link
+ * org.riotfamily.media.model.RiotFile#getMd5() RiotFile.getMd5()}),
+ * otherwise a weak ETag is derived from the size and modification date.
+ */
+public class DownloadController implements Controller, ServletContextAware {
+
+	private static final String MULTIPART_BOUNDARY = "RIOT_BYTERANGES";
+
+	private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+	private static final String CRLF = "\r\n";
 
 	private Logger log = LoggerFactory.getLogger(DownloadController.class);
-	
+
 	private	FileStore fileStore;
-	
+
+	private ServletContext servletContext;
+
+	private int maxRanges = 16;
+
+	private FileServer fileServer = FileServer.DEFAULT;
+
 	public DownloadController(FileStore fileStore) {
 		this.fileStore = fileStore;
 	}
-	
+
+	public void setServletContext(ServletContext servletContext) {
+		this.servletContext = servletContext;
+	}
+
+	/**
+	 * Sets the FileServer used to send complete files and single ranges.
+	 * Defaults to {@link FileServer#DEFAULT}, which doesn't use sendfile.
+	 */
+	public void setFileServer(FileServer fileServer) {
+		this.fileServer = fileServer;
+	}
+
+	/**
+	 * Sets the maximal number of ranges per request. Requests with more
+	 * ranges are answered with the complete file. Default is <code>16</code>.
+	 */
+	public void setMaxRanges(int maxRanges) {
+		this.maxRanges = maxRanges;
+	}
+
 	public ModelAndView handleRequest(HttpServletRequest request,
 			HttpServletResponse response) throws Exception {
 
 		String uri = "/" + HandlerUrlUtils.getPathWithinMapping(request);
-		if (uri != null) {
-			File file = fileStore.retrieve(uri);
-			log.debug("Serving file "+uri+" with content-disposition: attachment");
-			if (file != null && file.canRead()) {
-				response.setHeader("Content-Disposition", "attachment");
-				response.setContentLength((int) file.length());
-				IOUtils.serve(new FileInputStream(file), 
-						response.getOutputStream());
+		File file = fileStore.retrieve(uri);
+		if (file == null || !file.canRead()) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return null;
+		}
+		long length = file.length();
+		long lastModified = file.lastModified() / 1000 * 1000;
+		String etag = getETag(uri, length, lastModified);
+
+		response.setHeader("ETag", etag);
+		response.setDateHeader("Last-Modified", lastModified);
+		response.setHeader("Accept-Ranges", "bytes");
+		if (isNotModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return null;
+		}
 
+		log.debug("Serving file {} with content-disposition: attachment", uri);
+		response.setHeader("Content-Disposition", "attachment");
+		String contentType = getContentType(file);
+		boolean head = "HEAD".equals(request.getMethod());
+
+		List<Range> ranges = null;
+		String rangeHeader = request.getHeader("Range");
+		if (rangeHeader != null && isRangeApplicable(request, etag, lastModified)) {
+			ranges = parseRanges(rangeHeader, length);
+			if (ranges != null && ranges.isEmpty()) {
+				response.setHeader("Content-Range", "bytes */" + length);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
 				return null;
 			}
 		}
-		response.sendError(HttpServletResponse.SC_NOT_FOUND);
+
+		if (ranges == null) {
+			response.setContentType(contentType);
+			setContentLength(response, length);
+			if (!head) {
+				fileServer.serve(file, 0, length, request, response);
+			}
+		}
+		else if (ranges.size() == 1) {
+			Range range = ranges.get(0);
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setContentType(contentType);
+			response.setHeader("Content-Range", range.getContentRange(length));
+			setContentLength(response, range.getLength());
+			if (!head) {
+				fileServer.serve(file, range.start, range.getLength(),
+						request, response);
+			}
+		}
+		else {
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setContentType("multipart/byteranges; boundary="
+					+ MULTIPART_BOUNDARY);
+
+			long contentLength = 0;
+			for (Range range : ranges) {
+				contentLength += getPartHeader(range, contentType, length).length()
+						+ range.getLength();
+			}
+			String trailer = CRLF + "--" + MULTIPART_BOUNDARY + "--" + CRLF;
+			setContentLength(response, contentLength + trailer.length());
+			if (!head) {
+				OutputStream out = response.getOutputStream();
+				for (Range range : ranges) {
+					out.write(getPartHeader(range, contentType, length).getBytes("ISO-8859-1"));
+					if (IOUtils.transfer(file, range.start, range.getLength(), out) == -1) {
+						return null;
+					}
+				}
+				out.write(trailer.getBytes("ISO-8859-1"));
+				out.flush();
+			}
+		}
 		return null;
 	}
 
+	private String getETag(String uri, long length, long lastModified) {
+		if (fileStore instanceof DeduplicatingFileStore) {
+			String md5 = ((DeduplicatingFileStore) fileStore).getMd5(uri);
+			if (md5 != null) {
+				return "\"" + md5 + "\"";
+			}
+		}
+		return "W/\"" + length + "-" + lastModified + "\"";
+	}
+
+	private String getContentType(File file) {
+		String contentType = null;
+		if (servletContext != null) {
+			contentType = servletContext.getMimeType(file.getName());
+		}
+		return contentType != null ? contentType : DEFAULT_CONTENT_TYPE;
+	}
+
+	private void setContentLength(HttpServletResponse response, long length) {
+		if (length <= Integer.MAX_VALUE) {
+			response.setContentLength((int) length);
+		}
+		else {
+			response.setHeader("Content-Length", String.valueOf(length));
+		}
+	}
+
+	/**
+	 * Returns whether the client's copy is up-to-date. If the request
+	 * contains an <code>If-None-Match</code> header, the
+	 * <code>If-Modified-Since</code> header is ignored.
+	 */
+	private boolean isNotModified(HttpServletRequest request, String etag,
+			long lastModified) {
+
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return matches(ifNoneMatch, etag);
+		}
+		try {
+			long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			return ifModifiedSince != -1 && lastModified <= ifModifiedSince;
+		}
+		catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns whether the Range header should be evaluated, which is the
+	 * case if there's no <code>If-Range</code> header or if it matches the
+	 * current version of the file.
+	 */
+	private boolean isRangeApplicable(HttpServletRequest request, String etag,
+			long lastModified) {
+
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange == null) {
+			return true;
+		}
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			// Weak ETags must not be used for sub-range requests
+			return !etag.startsWith("W/") && ifRange.equals(etag);
+		}
+		try {
+			return lastModified == request.getDateHeader("If-Range");
+		}
+		catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private static boolean matches(String header, String etag) {
+		String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+		for (String tag : header.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals(opaqueTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parses the given Range header. Returns <code>null</code> if the header
+	 * is malformed or contains too many ranges, in which case the whole file
+	 * is sent. Returns an empty list if none of the ranges is satisfiable.
+	 */
+	List<Range> parseRanges(String header, long length) {
+		if (!header.startsWith("bytes=")) {
+			return null;
+		}
+		String[] specs = header.substring(6).split(",");
+		if (specs.length > maxRanges) {
+			return null;
+		}
+		List<Range> ranges = Generics.newArrayList();
+		for (String spec : specs) {
+			spec = spec.trim();
+			int i = spec.indexOf('-');
+			if (i == -1) {
+				return null;
+			}
+			try {
+				long start;
+				long end;
+				if (i == 0) {
+					// Suffix range: the last n bytes
+					long n = Long.parseLong(spec.substring(1));
+					if (n == 0) {
+						continue;
+					}
+					start = Math.max(0, length - n);
+					end = length - 1;
+				}
+				else {
+					start = Long.parseLong(spec.substring(0, i));
+					end = length - 1;
+					if (i < spec.length() - 1) {
+						long last = Long.parseLong(spec.substring(i + 1));
+						if (last < start) {
+							return null;
+						}
+						end = Math.min(last, end);
+					}
+				}
+				if (start < length) {
+					ranges.add(new Range(start, end));
+				}
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		return ranges;
+	}
+
+	private static String getPartHeader(Range range, String contentType,
+			long length) {
+
+		return CRLF + "--" + MULTIPART_BOUNDARY + CRLF
+				+ "Content-Type: " + contentType + CRLF
+				+ "Content-Range: " + range.getContentRange(length) + CRLF
+				+ CRLF;
+	}
+
+	static class Range {
+
+		private long start;
+
+		private long end;
+
+		Range(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		long getLength() {
+			return end - start + 1;
+		}
+
+		String getContentRange(long length) {
+			return "bytes " + start + "-" + end + "/" + length;
+		}
+	}
+
 }
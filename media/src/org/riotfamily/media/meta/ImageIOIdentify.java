@@ -0,0 +1,121 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.media.meta;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+import org.riotfamily.media.processing.ImageIOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ImageIdentifier that reads the image header in-process, without decoding
+ * the image data. Formats that are not configured or can't be read are
+ * passed to the fallback identifier, if one is set. The returned format
+ * names and types match the ones reported by {@link ImageMagickIdentify}.
+ */
+public class ImageIOIdentify implements ImageIdentifier {
+
+	private Logger log = LoggerFactory.getLogger(ImageIOIdentify.class);
+
+	private ImageIdentifier fallback;
+
+	private Set<String> formats = ImageIOUtils.toFormatSet(ImageIOUtils.DEFAULT_FORMATS);
+
+	public ImageIOIdentify() {
+	}
+
+	public ImageIOIdentify(ImageIdentifier fallback) {
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Sets the formats (like <code>jpeg</code> or <code>png</code>) that
+	 * are identified in-process. Defaults to
+	 * {@link ImageIOUtils#DEFAULT_FORMATS}.
+	 */
+	public void setFormats(String[] formats) {
+		this.formats = ImageIOUtils.toFormatSet(formats);
+	}
+
+	public ImageMetaData identify(File file) throws UnknownFormatException {
+		ImageMetaData meta = null;
+		try {
+			meta = read(file);
+		}
+		catch (IOException e) {
+			log.debug("Failed to identify {}: {}", file, e.getMessage());
+		}
+		if (meta == null) {
+			if (fallback == null) {
+				throw new UnknownFormatException();
+			}
+			meta = fallback.identify(file);
+		}
+		return meta;
+	}
+
+	private ImageMetaData read(File file) throws IOException {
+		ImageInputStream in = ImageIO.createImageInputStream(file);
+		if (in == null) {
+			return null;
+		}
+		try {
+			ImageReader reader = ImageIOUtils.getReader(in, formats);
+			if (reader == null) {
+				return null;
+			}
+			try {
+				ImageMetaData meta = new ImageMetaData();
+				meta.setFormat(reader.getFormatName().toUpperCase());
+				meta.setWidth(reader.getWidth(0));
+				meta.setHeight(reader.getHeight(0));
+				meta.setType(getType(reader));
+				return meta;
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns a type description in the style of ImageMagick's
+	 * <code>%r</code> escape, which contains "Matte" if the image has an
+	 * alpha channel.
+	 */
+	private String getType(ImageReader reader) throws IOException {
+		Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+		if (types.hasNext()) {
+			ImageTypeSpecifier type = types.next();
+			boolean indexed = type.getNumBands() == 1
+					&& type.getColorModel().getNumComponents() > 1;
+
+			String s = indexed ? "PseudoClass sRGB" : "DirectClass sRGB";
+			return type.getColorModel().hasAlpha() ? s + " Matte" : s;
+		}
+		return "DirectClass sRGB";
+	}
+
+}
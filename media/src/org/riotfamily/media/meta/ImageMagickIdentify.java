@@ -18,7 +18,7 @@ import java.io.IOException;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.riotfamily.media.processing.ImageMagick;
 
-public class ImageMagickIdentify extends ImageMagick {
+public class ImageMagickIdentify extends ImageMagick implements ImageIdentifier {
 
 	private static ObjectMapper objectMapper = new ObjectMapper();
 	
@@ -13,12 +13,15 @@
 package org.riotfamily.media.meta;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
 import javax.activation.FileTypeMap;
 
+import org.riotfamily.common.util.HashUtils;
 import org.riotfamily.media.processing.FFmpeg;
+import org.riotfamily.media.store.DeduplicatingFileStore;
 import org.riotfamily.media.store.FileStore;
 
 /**
@@ -33,14 +36,14 @@ public class MediaService {
 	
 	private FFmpeg ffmpeg;
 	
-	private ImageMagickIdentify imageMagick;
+	private ImageIdentifier imageIdentifier;
 
 	public MediaService(FileStore fileStore, FileTypeMap fileTypeMap, 
-			ImageMagickIdentify imageMagick, FFmpeg ffmpeg) {
+			ImageIdentifier imageIdentifier, FFmpeg ffmpeg) {
 		
 		this.fileStore = fileStore;
 		this.fileTypeMap = fileTypeMap;
-		this.imageMagick = imageMagick;
+		this.imageIdentifier = imageIdentifier;
 		this.ffmpeg = ffmpeg;
 	}
 
@@ -56,12 +59,27 @@ public class MediaService {
 		return this.fileStore.store(in, fileName);
 	}
 	
+	/**
+	 * Returns the MD5 hash of the file with the given URI. If the file was
+	 * stored by a {@link DeduplicatingFileStore}, the hash computed during
+	 * the upload is returned, otherwise the file is read.
+	 */
+	public String getMd5(String uri) throws IOException {
+		if (fileStore instanceof DeduplicatingFileStore) {
+			String md5 = ((DeduplicatingFileStore) fileStore).getMd5(uri);
+			if (md5 != null) {
+				return md5;
+			}
+		}
+		return HashUtils.md5(new FileInputStream(retrieve(uri)));
+	}
+	
 	public String getContentType(File file) {
 		return fileTypeMap.getContentType(file);
 	}
 	
 	public ImageMetaData identifyImage(File file) throws UnknownFormatException {
-		return imageMagick.identify(file);
+		return imageIdentifier.identify(file);
 	}
 	
 	public VideoMetaData identifyVideo(File file) throws IOException {
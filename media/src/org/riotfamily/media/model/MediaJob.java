@@ -0,0 +1,160 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.media.model;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import org.riotfamily.common.hibernate.ActiveRecordBeanSupport;
+
+/**
+ * Persistent record of a variant that still has to be created. Jobs are
+ * processed by the {@link org.riotfamily.media.processing.MediaJobQueue
+ * MediaJobQueue} and deleted once the variant has been added to the file.
+ * Failed jobs are retried until the maximal number of attempts has been
+ * reached.
+ */
+@Entity
+@Table(name="riot_media_jobs", uniqueConstraints={
+	@UniqueConstraint(columnNames={"file_id", "variant"})
+})
+public class MediaJob extends ActiveRecordBeanSupport {
+
+	private RiotFile file;
+
+	private String variant;
+
+	private String processor;
+
+	private int attempts;
+
+	private boolean failed;
+
+	private String error;
+
+	private Date creationDate;
+
+	public MediaJob() {
+	}
+
+	public MediaJob(RiotFile file, String variant, String processor) {
+		this.file = file;
+		this.variant = variant;
+		this.processor = processor;
+		this.creationDate = new Date();
+	}
+
+	@ManyToOne
+	public RiotFile getFile() {
+		return file;
+	}
+
+	public void setFile(RiotFile file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the name under which the variant is added to the file.
+	 */
+	public String getVariant() {
+		return variant;
+	}
+
+	public void setVariant(String variant) {
+		this.variant = variant;
+	}
+
+	/**
+	 * Returns the bean name of the
+	 * {@link org.riotfamily.media.processing.VariantCreator VariantCreator}
+	 * that creates the variant.
+	 */
+	public String getProcessor() {
+		return processor;
+	}
+
+	public void setProcessor(String processor) {
+		this.processor = processor;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
+	/**
+	 * Returns whether the job has failed permanently.
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public void setFailed(boolean failed) {
+		this.failed = failed;
+	}
+
+	@Column(length=1000)
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		if (error != null && error.length() > 1000) {
+			error = error.substring(0, 1000);
+		}
+		this.error = error;
+	}
+
+	public Date getCreationDate() {
+		return creationDate;
+	}
+
+	public void setCreationDate(Date creationDate) {
+		this.creationDate = creationDate;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("MediaJob[id=%s,variant=%s,file=%s]",
+				getId(), variant, file != null ? file.getUri() : null);
+	}
+
+	// ----------------------------------------------------------------------
+	// Active record methods
+	// ----------------------------------------------------------------------
+
+	public static MediaJob load(Long id) {
+		return load(MediaJob.class, id);
+	}
+
+	public static MediaJob loadByFileAndVariant(RiotFile file, String variant) {
+		return query(MediaJob.class, "from {} where file = ? and variant = ?",
+				file, variant).load();
+	}
+
+	@SuppressWarnings("unchecked")
+	public static List<Long> findPendingIds() {
+		return (List<Long>) query(MediaJob.class,
+				"select id from {} where failed = false order by id").list();
+	}
+
+}
@@ -142,7 +142,7 @@ public class RiotFile extends ActiveRecordBeanSupport {
 		contentType = multipartFile.getContentType();
 		initCreationInfo();
 		uri = mediaService.store(multipartFile.getInputStream(), fileName);
-		md5 = HashUtils.md5(multipartFile.getInputStream());
+		md5 = mediaService.getMd5(uri);
 		inspect(getFile());
 	}
 	
@@ -153,7 +153,7 @@ public class RiotFile extends ActiveRecordBeanSupport {
 		contentType = mediaService.getContentType(file);
 		initCreationInfo();
 		uri = mediaService.store(new FileInputStream(file), fileName);
-		md5 = HashUtils.md5(new FileInputStream(file));
+		md5 = mediaService.getMd5(uri);
 		inspect(file);
 	}
 	
@@ -301,6 +301,29 @@ public class RiotFile extends ActiveRecordBeanSupport {
 		return variants.get(name);
 	}
 	
+	/**
+	 * Returns the variant with the given name. If the variant does not 
+	 * exist (yet), the file itself is returned as placeholder. This is 
+	 * useful for variants that are created in the background by the 
+	 * {@link org.riotfamily.media.processing.MediaJobQueue MediaJobQueue}.
+	 */
+	public RiotFile getVariantOrOriginal(String name) {
+		RiotFile variant = get(name);
+		return variant != null ? variant : this;
+	}
+	
+	/**
+	 * Returns whether the variant with the given name is scheduled for 
+	 * creation but not yet available.
+	 */
+	public boolean isVariantPending(String name) {
+		if (get(name) != null) {
+			return false;
+		}
+		MediaJob job = MediaJob.loadByFileAndVariant(this, name);
+		return job != null && !job.isFailed();
+	}
+	
 	@Override
 	public int hashCode() {
 		if (uri != null) {
@@ -330,4 +353,14 @@ public class RiotFile extends ActiveRecordBeanSupport {
 		return query(RiotFile.class, "from {} where md5 = ?", md5).load();
 	}
 	
+	/**
+	 * Returns a variant with the given name of any file with the given 
+	 * MD5 hash.
+	 */
+	public static RiotFile loadVariantByMd5(String md5, String name) {
+		return query(RiotFile.class, "select v from {} f join f.variants v " 
+				+ "where f.md5 = ? and index(v) = ?", md5, name)
+				.setMaxResults(1).load();
+	}
+	
 }
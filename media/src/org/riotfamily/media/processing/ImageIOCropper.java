@@ -0,0 +1,119 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.media.processing;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ImageCropper that scales and crops images in-process. Formats that are
+ * not configured, or images that can't be decoded by
+ * <code>javax.imageio</code> or don't fit into the heap, are passed to the
+ * fallback cropper, if one is set.
+ */
+public class ImageIOCropper implements ImageCropper {
+
+	private Logger log = LoggerFactory.getLogger(ImageIOCropper.class);
+
+	private ImageCropper fallback;
+
+	private Set<String> formats = ImageIOUtils.toFormatSet(ImageIOUtils.DEFAULT_FORMATS);
+
+	private float quality = 1f;
+
+	public ImageIOCropper() {
+	}
+
+	public ImageIOCropper(ImageCropper fallback) {
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Sets the formats (like <code>jpeg</code> or <code>png</code>) that
+	 * are processed in-process. Defaults to
+	 * {@link ImageIOUtils#DEFAULT_FORMATS}.
+	 */
+	public void setFormats(String[] formats) {
+		this.formats = ImageIOUtils.toFormatSet(formats);
+	}
+
+	/**
+	 * Sets the JPEG quality (0..1). Default is <code>1</code>, like the
+	 * <code>-quality 100</code> used by the {@link ImageMagickCropper}.
+	 */
+	public void setQuality(float quality) {
+		this.quality = quality;
+	}
+
+	public void cropImage(File source, File dest, int width, int height,
+			int x, int y, int scaledWidth) throws IOException {
+
+		try {
+			if (crop(source, dest, width, height, x, y, scaledWidth)) {
+				return;
+			}
+		}
+		catch (IOException e) {
+			if (fallback == null) {
+				throw e;
+			}
+			log.debug("Failed to crop {}: {}", source, e.getMessage());
+		}
+		catch (OutOfMemoryError e) {
+			if (fallback == null) {
+				throw e;
+			}
+			log.warn("Not enough memory to crop {} in-process", source);
+		}
+		if (fallback == null) {
+			throw new IOException("Unsupported image format: " + source.getName());
+		}
+		fallback.cropImage(source, dest, width, height, x, y, scaledWidth);
+	}
+
+	private boolean crop(File source, File dest, int width, int height,
+			int x, int y, int scaledWidth) throws IOException {
+
+		if (!ImageIOUtils.canWrite(dest, formats)) {
+			return false;
+		}
+		BufferedImage image = ImageIOUtils.read(source, formats, scaledWidth, 0);
+		if (image == null) {
+			return false;
+		}
+		int w = image.getWidth();
+		int h = image.getHeight();
+		if (w > scaledWidth) {
+			// Only shrink, like ImageMagick's "x>" geometry
+			int scaledHeight = Math.max(1, (int) Math.round((double) h * scaledWidth / w));
+			image = ImageIOUtils.scale(image, scaledWidth, scaledHeight);
+		}
+		Rectangle area = new Rectangle(x, y, width, height).intersection(
+				new Rectangle(image.getWidth(), image.getHeight()));
+
+		if (area.isEmpty()) {
+			throw new IOException("Crop area lies outside of the image");
+		}
+		ImageIOUtils.write(image.getSubimage(area.x, area.y, area.width, area.height),
+				dest, formats, quality);
+
+		return true;
+	}
+
+}
@@ -0,0 +1,190 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.media.processing;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thumbnailer that scales images in-process, without forking an external
+ * process. Only the configured formats are handled. Other formats, as well
+ * as images that can't be decoded by <code>javax.imageio</code> (like CMYK
+ * JPEGs) or don't fit into the heap, are passed to the fallback thumbnailer,
+ * if one is set.
+ * <p>
+ * The results match the ones of the {@link ImageMagickThumbnailer}: images
+ * are never enlarged unless a fixed size without background color is
+ * requested, in which case the image is scaled to cover the area and
+ * cropped from the center.
+ */
+public class ImageIOThumbnailer implements Thumbnailer {
+
+	private Logger log = LoggerFactory.getLogger(ImageIOThumbnailer.class);
+
+	private Thumbnailer fallback;
+
+	private Set<String> formats = ImageIOUtils.toFormatSet(ImageIOUtils.DEFAULT_FORMATS);
+
+	private float quality = 0.85f;
+
+	public ImageIOThumbnailer() {
+	}
+
+	public ImageIOThumbnailer(Thumbnailer fallback) {
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Sets the formats (like <code>jpeg</code> or <code>png</code>) that
+	 * are processed in-process. Defaults to
+	 * {@link ImageIOUtils#DEFAULT_FORMATS}.
+	 */
+	public void setFormats(String[] formats) {
+		this.formats = ImageIOUtils.toFormatSet(formats);
+	}
+
+	/**
+	 * Sets the JPEG quality (0..1). Default is <code>0.85</code>.
+	 */
+	public void setQuality(float quality) {
+		this.quality = quality;
+	}
+
+	public void renderThumbnail(File source, File dest, int width, int height,
+			boolean fixedSize, String backgroundColor) throws IOException {
+
+		try {
+			if (render(source, dest, width, height, fixedSize, backgroundColor)) {
+				return;
+			}
+		}
+		catch (IOException e) {
+			if (fallback == null) {
+				throw e;
+			}
+			log.debug("Failed to render thumbnail of {}: {}", source, e.getMessage());
+		}
+		catch (OutOfMemoryError e) {
+			if (fallback == null) {
+				throw e;
+			}
+			log.warn("Not enough memory to render thumbnail of {} in-process", source);
+		}
+		if (fallback == null) {
+			throw new IOException("Unsupported image format: " + source.getName());
+		}
+		fallback.renderThumbnail(source, dest, width, height, fixedSize, backgroundColor);
+	}
+
+	private boolean render(File source, File dest, int width, int height,
+			boolean fixedSize, String backgroundColor) throws IOException {
+
+		if (!ImageIOUtils.canWrite(dest, formats)) {
+			return false;
+		}
+		Color background = null;
+		if (fixedSize && backgroundColor != null) {
+			background = parseColor(backgroundColor);
+		}
+		BufferedImage image = ImageIOUtils.read(source, formats, width, height);
+		if (image == null) {
+			return false;
+		}
+		int w = image.getWidth();
+		int h = image.getHeight();
+		BufferedImage result;
+		if (fixedSize && backgroundColor == null) {
+			// Cover the area and crop from center ...
+			double scale = Math.max((double) width / w, (double) height / h);
+			int scaledWidth = Math.max(width, (int) Math.round(w * scale));
+			int scaledHeight = Math.max(height, (int) Math.round(h * scale));
+			result = ImageIOUtils.scale(image, scaledWidth, scaledHeight).getSubimage(
+					(scaledWidth - width) / 2, (scaledHeight - height) / 2,
+					width, height);
+		}
+		else {
+			// Shrink to fit, but never enlarge ...
+			double scale = Math.min(1, Math.min((double) width / w, (double) height / h));
+			int scaledWidth = Math.max(1, (int) Math.round(w * scale));
+			int scaledHeight = Math.max(1, (int) Math.round(h * scale));
+			result = ImageIOUtils.scale(image, scaledWidth, scaledHeight);
+			if (background != null) {
+				result = pad(result, width, height, background);
+			}
+		}
+		ImageIOUtils.write(result, dest, formats, quality);
+		return true;
+	}
+
+	private BufferedImage pad(BufferedImage image, int width, int height,
+			Color background) {
+
+		BufferedImage result = new BufferedImage(width, height,
+				background.getAlpha() < 255 || image.getColorModel().hasAlpha()
+				? BufferedImage.TYPE_INT_ARGB
+				: BufferedImage.TYPE_INT_RGB);
+
+		Graphics2D g = result.createGraphics();
+		g.setColor(background);
+		g.fillRect(0, 0, width, height);
+		g.drawImage(image, (width - image.getWidth()) / 2,
+				(height - image.getHeight()) / 2, null);
+
+		g.dispose();
+		return result;
+	}
+
+	/**
+	 * Parses an ImageMagick color. Supports hex values, <code>none</code>
+	 * and the names of the constants defined in {@link Color}. Throws an
+	 * IOException for all other values, so that the fallback is used.
+	 */
+	private Color parseColor(String s) throws IOException {
+		if (s.startsWith("#")) {
+			if (s.length() == 4) {
+				s = new String(new char[] { '#', s.charAt(1), s.charAt(1),
+						s.charAt(2), s.charAt(2), s.charAt(3), s.charAt(3) });
+			}
+			try {
+				return Color.decode(s);
+			}
+			catch (NumberFormatException e) {
+				log.debug("Invalid color {}: {}", s, e.getMessage());
+			}
+		}
+		else if (s.equals("none") || s.equals("transparent")) {
+			return new Color(0, 0, 0, 0);
+		}
+		else {
+			try {
+				Field field = Color.class.getField(s.toLowerCase());
+				if (field.getType() == Color.class) {
+					return (Color) field.get(null);
+				}
+			}
+			catch (Exception e) {
+				log.debug("Unknown color {}: {}", s, e.getMessage());
+			}
+		}
+		throw new IOException("Unsupported color: " + s);
+	}
+
+}
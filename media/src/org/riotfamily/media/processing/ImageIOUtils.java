@@ -0,0 +1,244 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.media.processing;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Set;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.riotfamily.common.util.FormatUtils;
+import org.riotfamily.common.util.Generics;
+
+/**
+ * Utility methods to read, scale and write images in-process using
+ * <code>javax.imageio</code> and Java2D.
+ */
+public final class ImageIOUtils {
+
+	/**
+	 * Formats that can be read by all JREs. All of them can be written as
+	 * well, except GIF on Java 5, which has no GIF writer. In that case
+	 * {@link #canWrite(File, Set)} returns <code>false</code>.
+	 */
+	public static final String[] DEFAULT_FORMATS = { "jpeg", "png", "gif", "bmp" };
+
+	private ImageIOUtils() {
+	}
+
+	/**
+	 * Returns a set containing the given format names in lower case.
+	 */
+	public static Set<String> toFormatSet(String... formats) {
+		Set<String> result = Generics.newHashSet();
+		for (String format : formats) {
+			result.add(format.trim().toLowerCase());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a reader for the given stream, or <code>null</code> if no
+	 * reader is available or the format is not contained in the given set.
+	 * The caller must dispose the reader.
+	 */
+	public static ImageReader getReader(ImageInputStream in, Set<String> formats) {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+		while (readers.hasNext()) {
+			ImageReader reader = readers.next();
+			if (isFormat(reader.getOriginatingProvider().getFormatNames(), formats)) {
+				reader.setInput(in, true, true);
+				return reader;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isFormat(String[] names, Set<String> formats) {
+		for (String name : names) {
+			if (formats.contains(name.toLowerCase())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the given file. If the image is more than four times larger than
+	 * the given size, large images (like photos) are decoded with subsampling,
+	 * so that the decoded raster is still at least twice as large as the
+	 * requested size. Returns <code>null</code> if the format is not
+	 * supported.
+	 *
+	 * @param minWidth Minimal width of the decoded image, or 0
+	 * @param minHeight Minimal height of the decoded image, or 0
+	 */
+	public static BufferedImage read(File file, Set<String> formats,
+			int minWidth, int minHeight) throws IOException {
+
+		ImageInputStream in = ImageIO.createImageInputStream(file);
+		if (in == null) {
+			throw new IOException("Can't read " + file);
+		}
+		try {
+			ImageReader reader = getReader(in, formats);
+			if (reader == null) {
+				return null;
+			}
+			try {
+				ImageReadParam param = reader.getDefaultReadParam();
+				int factor = getSubsampling(reader.getWidth(0), reader.getHeight(0),
+						minWidth, minHeight);
+
+				if (factor > 1) {
+					param.setSourceSubsampling(factor, factor, 0, 0);
+				}
+				return reader.read(0, param);
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static int getSubsampling(int width, int height,
+			int minWidth, int minHeight) {
+
+		int factor = Integer.MAX_VALUE;
+		if (minWidth > 0) {
+			factor = width / minWidth;
+		}
+		if (minHeight > 0) {
+			factor = Math.min(factor, height / minHeight);
+		}
+		return factor == Integer.MAX_VALUE ? 1 : factor / 2;
+	}
+
+	/**
+	 * Scales the image to the given size. When an image is reduced, its size
+	 * is halved in several bilinear steps, which gives a quality comparable
+	 * to bicubic filtering at a fraction of the cost.
+	 */
+	public static BufferedImage scale(BufferedImage image, int width, int height) {
+		int type = image.getColorModel().hasAlpha()
+				? BufferedImage.TYPE_INT_ARGB
+				: BufferedImage.TYPE_INT_RGB;
+
+		BufferedImage result = image;
+		int w = image.getWidth();
+		int h = image.getHeight();
+		do {
+			w = w > width ? Math.max(w / 2, width) : width;
+			h = h > height ? Math.max(h / 2, height) : height;
+			BufferedImage tmp = new BufferedImage(w, h, type);
+			Graphics2D g = tmp.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+			g.drawImage(result, 0, 0, w, h, null);
+			g.dispose();
+			result = tmp;
+		}
+		while (w != width || h != height);
+		return result;
+	}
+
+	/**
+	 * Returns whether the format of the given file can be written. The
+	 * format is determined by the file extension.
+	 */
+	public static boolean canWrite(File dest, Set<String> formats) {
+		return getWriter(dest, formats) != null;
+	}
+
+	private static ImageWriter getWriter(File dest, Set<String> formats) {
+		String suffix = FormatUtils.getExtension(dest.getName());
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix(suffix);
+		while (writers.hasNext()) {
+			ImageWriter writer = writers.next();
+			if (isFormat(writer.getOriginatingProvider().getFormatNames(), formats)) {
+				return writer;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Writes the image to the given file. The format is determined by the
+	 * file extension. The quality (0..1) is only used for JPEG images.
+	 * As JPEGs can't contain an alpha channel, transparent areas are
+	 * filled with white.
+	 */
+	public static void write(BufferedImage image, File dest, Set<String> formats,
+			float quality) throws IOException {
+
+		ImageWriter writer = getWriter(dest, formats);
+		if (writer == null) {
+			throw new IOException("Can't write " + dest.getName());
+		}
+		try {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			String[] names = writer.getOriginatingProvider().getFormatNames();
+			if (isFormat(names, toFormatSet("jpeg"))) {
+				image = removeAlpha(image, Color.WHITE);
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(quality);
+			}
+			dest.delete();
+			ImageOutputStream out = ImageIO.createImageOutputStream(dest);
+			if (out == null) {
+				throw new IOException("Can't write " + dest);
+			}
+			try {
+				writer.setOutput(out);
+				writer.write(null, new IIOImage(image, null, null), param);
+			}
+			finally {
+				out.close();
+			}
+		}
+		finally {
+			writer.dispose();
+		}
+	}
+
+	private static BufferedImage removeAlpha(BufferedImage image, Color background) {
+		if (!image.getColorModel().hasAlpha()) {
+			return image;
+		}
+		BufferedImage result = new BufferedImage(image.getWidth(),
+				image.getHeight(), BufferedImage.TYPE_INT_RGB);
+
+		Graphics2D g = result.createGraphics();
+		g.drawImage(image, 0, 0, background, null);
+		g.dispose();
+		return result;
+	}
+
+}
@@ -0,0 +1,308 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.media.processing;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.riotfamily.common.scheduling.ScheduledTaskSupport;
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.media.model.MediaJob;
+import org.riotfamily.media.model.RiotFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Queue that creates file variants (like thumbnails or video frames) in the
+ * background, so that uploads don't have to wait for external processes.
+ * <p>
+ * Jobs are persisted as {@link MediaJob} entities and handed over to a
+ * bounded pool of worker threads once the scheduling transaction has been
+ * committed. Scheduling the same variant of the same file twice has no
+ * effect. If another file with the same MD5 hash already has the requested
+ * variant, the variant is copied instead of being created again.
+ * <p>
+ * As a scheduled task, the queue picks up all pending jobs, which includes
+ * jobs that were interrupted by a restart and jobs that were rejected
+ * because the work queue was full. Until a variant is available,
+ * {@link RiotFile#getVariantOrOriginal(String)} returns the original file.
+ */
+public class MediaJobQueue extends ScheduledTaskSupport implements
+		ApplicationContextAware, InitializingBean, DisposableBean {
+
+	private Logger log = LoggerFactory.getLogger(MediaJobQueue.class);
+
+	private TransactionTemplate transactionTemplate;
+
+	private ApplicationContext applicationContext;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	private int maxQueueSize = 1000;
+
+	private int maxAttempts = 3;
+
+	private ThreadPoolExecutor executor;
+
+	/** Ids of the jobs that have been submitted to the executor */
+	private ConcurrentMap<Long, Boolean> submittedJobs = Generics.newConcurrentHashMap();
+
+	public MediaJobQueue(PlatformTransactionManager tx) {
+		this.transactionTemplate = new TransactionTemplate(tx);
+	}
+
+	public void setApplicationContext(ApplicationContext applicationContext) {
+		this.applicationContext = applicationContext;
+	}
+
+	/**
+	 * Sets the number of worker threads. Defaults to the number of
+	 * available processors.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the maximal number of jobs waiting for a worker. Further jobs
+	 * remain in the database until the queue is run the next time.
+	 * Default is <code>1000</code>.
+	 */
+	public void setMaxQueueSize(int maxQueueSize) {
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	/**
+	 * Sets how often a job is attempted before it is marked as failed.
+	 * Default is <code>3</code>.
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	public void afterPropertiesSet() {
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(maxQueueSize),
+				new WorkerThreadFactory());
+	}
+
+	public void destroy() {
+		executor.shutdownNow();
+	}
+
+	public int getPendingCount() {
+		return submittedJobs.size();
+	}
+
+	/**
+	 * Schedules the creation of a variant. Must be invoked within a
+	 * transaction. The job is processed after the transaction has been
+	 * committed.
+	 *
+	 * @param file The original file
+	 * @param variant Name under which the variant is added to the file
+	 * @param processor Bean name of a {@link VariantCreator}
+	 */
+	public void schedule(RiotFile file, String variant, String processor) {
+		if (file.get(variant) != null
+				|| MediaJob.loadByFileAndVariant(file, variant) != null) {
+
+			return;
+		}
+		final MediaJob job = new MediaJob(file, variant, processor);
+		job.save();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(
+					new TransactionSynchronizationAdapter() {
+
+				@Override
+				public void afterCommit() {
+					submit(job.getId());
+				}
+			});
+		}
+		else {
+			submit(job.getId());
+		}
+	}
+
+	/**
+	 * Submits all pending jobs.
+	 */
+	public void execute() {
+		List<Long> ids = transactionTemplate.execute(new TransactionCallback<List<Long>>() {
+			public List<Long> doInTransaction(TransactionStatus status) {
+				return MediaJob.findPendingIds();
+			}
+		});
+		int count = 0;
+		for (Long id : ids) {
+			if (submit(id)) {
+				count++;
+			}
+		}
+		if (count > 0) {
+			log.info("Submitted {} pending media jobs", count);
+		}
+	}
+
+	/**
+	 * Submits the job with the given id, unless it has already been
+	 * submitted. Returns whether the job was accepted.
+	 */
+	private boolean submit(Long jobId) {
+		if (submittedJobs.putIfAbsent(jobId, Boolean.TRUE) != null) {
+			return false;
+		}
+		try {
+			executor.execute(new Job(jobId));
+			return true;
+		}
+		catch (RejectedExecutionException e) {
+			submittedJobs.remove(jobId);
+			log.debug("Media job queue is full, job {} will be retried later", jobId);
+			return false;
+		}
+	}
+
+	private void process(final Long jobId) {
+		// Load the original and check whether the variant can be copied
+		final Object[] state = transactionTemplate.execute(new TransactionCallback<Object[]>() {
+			public Object[] doInTransaction(TransactionStatus status) {
+				MediaJob job = MediaJob.load(jobId);
+				if (job == null || job.isFailed()) {
+					return null;
+				}
+				RiotFile file = job.getFile();
+				RiotFile variant = file.get(job.getVariant());
+				if (variant == null && file.getMd5() != null) {
+					RiotFile existing = RiotFile.loadVariantByMd5(
+							file.getMd5(), job.getVariant());
+
+					if (existing != null) {
+						try {
+							variant = existing.copy(false);
+						}
+						catch (Exception e) {
+							log.warn("Failed to copy variant of identical file", e);
+						}
+					}
+				}
+				if (variant != null) {
+					addVariant(job, variant);
+					return null;
+				}
+				return new Object[] { file, job.getVariant(), job.getProcessor() };
+			}
+		});
+		if (state == null) {
+			return;
+		}
+		// Create the variant outside of a transaction
+		RiotFile file = (RiotFile) state[0];
+		String processor = (String) state[2];
+		final RiotFile variant;
+		try {
+			VariantCreator creator = applicationContext.getBean(
+					processor, VariantCreator.class);
+
+			variant = creator.createVariant(file);
+		}
+		catch (Exception e) {
+			log.warn("Failed to create variant " + state[1] + " of " + file.getUri(), e);
+			final String error = e.getMessage();
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					MediaJob job = MediaJob.load(jobId);
+					if (job != null) {
+						job.setAttempts(job.getAttempts() + 1);
+						job.setFailed(job.getAttempts() >= maxAttempts);
+						job.setError(error);
+					}
+				}
+			});
+			return;
+		}
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				MediaJob job = MediaJob.load(jobId);
+				if (job != null) {
+					addVariant(job, variant);
+				}
+			}
+		});
+	}
+
+	private void addVariant(MediaJob job, RiotFile variant) {
+		job.getFile().addVariant(job.getVariant(), variant);
+		job.delete();
+		log.debug("Created variant {} of {}", job.getVariant(),
+				job.getFile().getUri());
+	}
+
+	/**
+	 * Runnable that processes a job.
+	 */
+	private class Job implements Runnable {
+
+		private Long jobId;
+
+		public Job(Long jobId) {
+			this.jobId = jobId;
+		}
+
+		public void run() {
+			try {
+				process(jobId);
+			}
+			catch (Exception e) {
+				log.error("Media job " + jobId + " failed", e);
+			}
+			finally {
+				submittedJobs.remove(jobId);
+			}
+		}
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Riot-MediaJob-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		}
+	}
+
+}
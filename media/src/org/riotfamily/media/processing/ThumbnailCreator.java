@@ -22,7 +22,7 @@ import org.riotfamily.media.model.RiotImage;
 /**
  * @author Felix Gnass [fgnass at neteye dot de]
  */
-public class ThumbnailCreator {
+public class ThumbnailCreator implements VariantCreator {
 
 	private Thumbnailer thumbnailer;
 	
@@ -65,7 +65,7 @@ public class ThumbnailCreator {
 		this.height = height;
 	}
 		
-	protected RiotFile createVariant(RiotFile original) throws IOException {
+	public RiotFile createVariant(RiotFile original) throws IOException {
 		RiotImage thumbnail = new RiotImage();
 		String thumbName = original.getFileName();
 		if (format != null) {
@@ -0,0 +1,32 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.media.processing;
+
+import java.io.IOException;
+
+import org.riotfamily.media.model.RiotFile;
+
+/**
+ * Interface for classes that derive a variant (like a thumbnail) from a 
+ * RiotFile. Variants are usually created in the background by the
+ * {@link MediaJobQueue}.
+ */
+public interface VariantCreator {
+
+	/**
+	 * Creates a new variant of the given file. The original must not be 
+	 * modified, as the method is not invoked within a transaction.
+	 */
+	public RiotFile createVariant(RiotFile original) throws IOException;
+	
+}
@@ -0,0 +1,437 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.media.store;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.riotfamily.common.io.IOUtils;
+import org.riotfamily.common.util.FormatUtils;
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.common.util.HashUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.FileCopyUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * FileStore that stores each distinct content only once. While a file is
+ * being stored, its MD5 hash is computed. The data is kept in a blob named
+ * after the hash, and the file returned for the URI is a hard link to that
+ * blob. Hard links are created with <code>java.nio.file.Files</code>. On
+ * JREs prior to Java 7, or if a link can't be created, the blob is copied,
+ * so that the store still works (without saving any space).
+ * <p>
+ * Each blob has a <code>.refs</code> file that lists the URIs pointing to
+ * it. When the last URI is deleted, the blob is deleted as well. Files
+ * created empty (<code>in == null</code>) are written later by the caller
+ * and are therefore stored like in the {@link DefaultFileStore}.
+ * <p>
+ * <b>Note:</b> Files stored with content must not be modified in place, as
+ * the change would affect all URIs that share the blob.
+ */
+public class DeduplicatingFileStore extends DefaultFileStore {
+
+	private static final String BLOB_DIR = ".blobs";
+
+	private static final String REFS_SUFFIX = ".refs";
+	
+	private static final String TMP_SUFFIX = ".tmp";
+	
+	/** Age after which temporary files are considered to be left over */
+	private static final long TMP_FILE_MAX_AGE = 60 * 60 * 1000;
+
+	/** Files.createLink(Path, Path), or <code>null</code> prior to Java 7 */
+	private static final Method CREATE_LINK;
+	
+	/** File.toPath(), or <code>null</code> prior to Java 7 */
+	private static final Method TO_PATH;
+	
+	static {
+		ClassLoader classLoader = DeduplicatingFileStore.class.getClassLoader();
+		if (ClassUtils.isPresent("java.nio.file.Files", classLoader)) {
+			Class<?> path = ClassUtils.resolveClassName("java.nio.file.Path", classLoader);
+			Class<?> files = ClassUtils.resolveClassName("java.nio.file.Files", classLoader);
+			CREATE_LINK = ReflectionUtils.findMethod(files, "createLink", path, path);
+			TO_PATH = ReflectionUtils.findMethod(File.class, "toPath");
+		}
+		else {
+			CREATE_LINK = null;
+			TO_PATH = null;
+		}
+	}
+	
+	private Logger log = LoggerFactory.getLogger(DeduplicatingFileStore.class);
+
+	private File blobDir;
+
+	private String blobUriPrefix;
+
+	private boolean hardLinks = true;
+
+	/** 
+	 * Maps URIs to the hash of the blob they point to. Modifications are 
+	 * synchronized on the store, lookups are not.
+	 */
+	private Map<String, String> hashes = Generics.newConcurrentHashMap();
+	
+	/** URIs that have been registered but are not linked yet */
+	private Set<String> pendingUris = Generics.newHashSet();
+
+	/**
+	 * Sets whether files should be hard linked to the blob. If set to 
+	 * <code>false</code>, or if the JRE doesn't support hard links, the
+	 * blob is always copied. Default is <code>true</code>.
+	 */
+	public void setHardLinks(boolean hardLinks) {
+		this.hardLinks = hardLinks;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws IOException {
+		super.afterPropertiesSet();
+		blobDir = createDir(new File(getBaseDir(), BLOB_DIR));
+		blobUriPrefix = getUri(blobDir) + "/";
+		loadReferences();
+	}
+
+	/**
+	 * Reads all <code>.refs</code> files.
+	 */
+	private void loadReferences() throws IOException {
+		File[] dirs = blobDir.listFiles();
+		if (dirs == null) {
+			return;
+		}
+		for (File dir : dirs) {
+			File[] files = dir.listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(REFS_SUFFIX)) {
+					String hash = name.substring(0, name.length() - REFS_SUFFIX.length());
+					for (String uri : readRefs(file)) {
+						hashes.put(uri, hash);
+					}
+				}
+			}
+		}
+		log.info("{} files share {} blobs", hashes.size(),
+				Generics.newHashSet(hashes.values()).size());
+	}
+
+	@Override
+	public String store(InputStream in, String fileName) throws IOException {
+		if (in == null) {
+			return super.store(in, fileName);
+		}
+		File tmp = File.createTempFile("upload", null, blobDir);
+		String hash;
+		try {
+			DigestInputStream din = new DigestInputStream(in, createDigest());
+			FileCopyUtils.copy(din, new FileOutputStream(tmp));
+			hash = HashUtils.toHex(din.getMessageDigest().digest());
+		}
+		catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+		File dest = new File(getUniqueDir(), FormatUtils.toFilename(fileName));
+		String uri = getUri(dest);
+		File blob = getBlob(hash);
+		synchronized (this) {
+			if (blob.exists()) {
+				tmp.delete();
+				log.debug("Found existing blob for {}", fileName);
+			}
+			else {
+				createDir(blob.getParentFile());
+				IOUtils.move(tmp, blob);
+			}
+			// Register the URI before linking, so that the blob can't be 
+			// deleted in the meantime
+			addRef(hash, uri);
+			pendingUris.add(uri);
+		}
+		try {
+			link(blob, dest);
+		}
+		catch (IOException e) {
+			delete(uri);
+			throw e;
+		}
+		finally {
+			synchronized (this) {
+				pendingUris.remove(uri);
+			}
+		}
+		return uri;
+	}
+
+	/**
+	 * Returns the MD5 hash of the file with the given URI, or
+	 * <code>null</code> if the file is not backed by a blob.
+	 */
+	public String getMd5(String uri) {
+		return hashes.get(uri);
+	}
+
+	@Override
+	public synchronized void delete(String uri) {
+		super.delete(uri);
+		String hash = hashes.remove(uri);
+		if (hash != null) {
+			removeRef(hash, uri);
+		}
+	}
+
+	/**
+	 * Removes all references to files that no longer exist and deletes
+	 * blobs that are not referenced anymore. Also deletes temporary files
+	 * left over from interrupted uploads.
+	 */
+	public synchronized void removeUnreferencedBlobs() {
+		long tmpFileExpiry = System.currentTimeMillis() - TMP_FILE_MAX_AGE;
+		Set<String> uris = Generics.newHashSet(hashes.keySet());
+		uris.removeAll(pendingUris);
+		for (String uri : uris) {
+			File file = retrieve(uri);
+			if (file == null || !file.exists()) {
+				removeRef(hashes.remove(uri), uri);
+			}
+		}
+		File[] files = blobDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile()) {
+					if (file.lastModified() < tmpFileExpiry) {
+						log.debug("Deleting temporary file {}", file);
+						file.delete();
+					}
+				}
+				else {
+					removeUnreferencedBlobs(file);
+				}
+			}
+		}
+	}
+
+	private void removeUnreferencedBlobs(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.endsWith(TMP_SUFFIX)) {
+					log.debug("Deleting temporary file {}", file);
+					file.delete();
+				}
+				else if (!name.endsWith(REFS_SUFFIX)
+						&& !new File(dir, name + REFS_SUFFIX).exists()) {
+
+					log.debug("Deleting unreferenced blob {}", name);
+					file.delete();
+				}
+			}
+		}
+		if (dir.list().length == 0) {
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Returns an iterator over all URIs, excluding the blobs. Removing an
+	 * URI via the iterator is the same as calling {@link #delete(String)}.
+	 */
+	@Override
+	public Iterator<String> iterator() {
+		return new LinkIterator(super.iterator());
+	}
+
+	private File getBlob(String hash) {
+		return new File(new File(blobDir, hash.substring(0, 2)), hash);
+	}
+
+	private File getRefsFile(String hash) {
+		return new File(new File(blobDir, hash.substring(0, 2)), hash + REFS_SUFFIX);
+	}
+
+	private void addRef(String hash, String uri) throws IOException {
+		File refsFile = getRefsFile(hash);
+		Set<String> uris = readRefs(refsFile);
+		uris.add(uri);
+		writeRefs(refsFile, uris);
+		hashes.put(uri, hash);
+	}
+
+	private void removeRef(String hash, String uri) {
+		File refsFile = getRefsFile(hash);
+		try {
+			Set<String> uris = readRefs(refsFile);
+			uris.remove(uri);
+			if (uris.isEmpty()) {
+				log.debug("Deleting blob {}", hash);
+				refsFile.delete();
+				getBlob(hash).delete();
+				File dir = refsFile.getParentFile();
+				if (dir.list().length == 0) {
+					dir.delete();
+				}
+			}
+			else {
+				writeRefs(refsFile, uris);
+			}
+		}
+		catch (IOException e) {
+			log.error("Failed to update " + refsFile, e);
+		}
+	}
+	
+	/**
+	 * Replaces the content of the given <code>.refs</code> file. The URIs
+	 * are written to a temporary file first, which is then renamed, so that
+	 * the file is never left half-written.
+	 */
+	private void writeRefs(File refsFile, Set<String> uris) throws IOException {
+		File tmp = new File(refsFile.getPath() + TMP_SUFFIX);
+		PrintWriter out = new PrintWriter(new FileWriter(tmp));
+		try {
+			for (String uri : uris) {
+				out.println(uri);
+			}
+		}
+		finally {
+			out.close();
+		}
+		if (out.checkError()) {
+			tmp.delete();
+			throw new IOException("Failed to write " + tmp);
+		}
+		if (!tmp.renameTo(refsFile)) {
+			// Some platforms can't rename a file onto an existing one
+			refsFile.delete();
+			if (!tmp.renameTo(refsFile)) {
+				tmp.delete();
+				throw new IOException("Failed to rename " + tmp);
+			}
+		}
+	}
+
+	private Set<String> readRefs(File refsFile) throws IOException {
+		Set<String> uris = Generics.newLinkedHashSet();
+		if (refsFile.exists()) {
+			BufferedReader in = new BufferedReader(new FileReader(refsFile));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (line.length() > 0) {
+						uris.add(line);
+					}
+				}
+			}
+			finally {
+				in.close();
+			}
+		}
+		return uris;
+	}
+
+	/**
+	 * Creates a hard link to the blob. Falls back to copying the blob if
+	 * the link can't be created.
+	 */
+	private void link(File blob, File dest) throws IOException {
+		if (hardLinks && CREATE_LINK != null) {
+			try {
+				CREATE_LINK.invoke(null, TO_PATH.invoke(dest), TO_PATH.invoke(blob));
+				return;
+			}
+			catch (InvocationTargetException e) {
+				log.warn("Failed to create hard link, copying {} instead: {}",
+						blob, e.getTargetException().toString());
+			}
+			catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		FileCopyUtils.copy(blob, dest);
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(HashUtils.MD5);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Iterator that skips the blobs and removes files via
+	 * {@link DeduplicatingFileStore#delete(String)}.
+	 */
+	private class LinkIterator implements Iterator<String> {
+
+		private Iterator<String> it;
+
+		private String next;
+
+		private String current;
+
+		public LinkIterator(Iterator<String> it) {
+			this.it = it;
+			next = getNext();
+		}
+
+		private String getNext() {
+			while (it.hasNext()) {
+				String uri = it.next();
+				if (uri != null && !uri.startsWith(blobUriPrefix)) {
+					return uri;
+				}
+			}
+			return null;
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public String next() {
+			current = next;
+			next = getNext();
+			return current;
+		}
+
+		public void remove() {
+			delete(current);
+		}
+	}
+
+}
@@ -115,6 +115,13 @@ public class DefaultFileStore implements FileStore, ServletContextAware,
 		getStorageDir();
 	}
 	
+	/**
+	 * Returns the directory that contains all stored files.
+	 */
+	protected File getBaseDir() {
+		return baseDir;
+	}
+	
 	/**
 	 * Creates the given directory and all parent directories (unless they 
 	 * already exist). If the directory can't be created or is not writable
@@ -227,16 +234,18 @@ public class DefaultFileStore implements FileStore, ServletContextAware,
 	}
 
 	/**
-	 * Deletes the file denoted by the given URI from the store.
+	 * Deletes the file denoted by the given URI from the store, along with
+	 * all parent directories up to the baseDir that have become empty.
 	 */
 	public void delete(String uri) {
 		File file = retrieve(uri);
 		file.delete();
 		File dir = file.getParentFile();
-		if (dir.isDirectory() && dir.list().length == 0 &&
-			!dir.equals(baseDir)) {
+		while (dir != null && !dir.equals(baseDir) && dir.isDirectory() 
+				&& dir.list().length == 0) {
 			
 			dir.delete();
+			dir = dir.getParentFile();
 		}
 	}
 	
@@ -0,0 +1,115 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.media.cleanup;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.Test;
+import org.riotfamily.common.util.Generics;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+public class HibernateCleanUpTaskTest {
+
+	private static final Long UNDELETABLE_ID = 2L;
+	
+	/** Ids deleted within the current transaction */
+	private List<Object> pending = Generics.newArrayList();
+	
+	/** Ids whose deletion has been committed */
+	private List<Object> committed = Generics.newArrayList();
+	
+	@Test
+	public void testFailedCommitFallsBackToSingleDeletes() {
+		HibernateCleanUpTask task = new HibernateCleanUpTask(
+				createSessionFactory(), null, new TestTransactionManager());
+		
+		task.delete(createSession(), Arrays.asList(1L, UNDELETABLE_ID, 3L));
+		assertEquals(Arrays.<Object>asList(1L, 3L), committed);
+	}
+	
+	private SessionFactory createSessionFactory() {
+		return (SessionFactory) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { SessionFactory.class }, new InvocationHandler() {
+			
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("getAllClassMetadata")) {
+					return Collections.emptyMap();
+				}
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Returns a Session whose load() method returns the given id and whose
+	 * delete() method records the deleted object.
+	 */
+	private Session createSession() {
+		return (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { Session.class }, new InvocationHandler() {
+			
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("load")) {
+					return args[1];
+				}
+				if (method.getName().equals("delete")) {
+					pending.add(args[0]);
+				}
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Transaction manager that fails to commit transactions which contain 
+	 * the {@link #UNDELETABLE_ID}, like a foreign key violation would.
+	 */
+	private class TestTransactionManager implements PlatformTransactionManager {
+
+		public TransactionStatus getTransaction(TransactionDefinition definition) {
+			pending.clear();
+			return new SimpleTransactionStatus();
+		}
+		
+		public void commit(TransactionStatus status) {
+			try {
+				if (pending.contains(UNDELETABLE_ID)) {
+					throw new DataIntegrityViolationException(
+							"Could not delete " + UNDELETABLE_ID);
+				}
+				committed.addAll(pending);
+			}
+			finally {
+				pending.clear();
+			}
+		}
+
+		public void rollback(TransactionStatus status) {
+			pending.clear();
+		}
+	}
+	
+}
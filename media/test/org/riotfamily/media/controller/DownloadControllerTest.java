@@ -0,0 +1,94 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.media.controller;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.riotfamily.media.controller.DownloadController.Range;
+
+public class DownloadControllerTest {
+
+	private static final long LENGTH = 1000;
+	
+	private DownloadController controller = new DownloadController(null);
+	
+	private void assertRanges(String header, String... expected) {
+		List<Range> ranges = controller.parseRanges(header, LENGTH);
+		assertNotNull(ranges);
+		assertEquals(expected.length, ranges.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("bytes " + expected[i] + "/" + LENGTH, 
+					ranges.get(i).getContentRange(LENGTH));
+		}
+	}
+	
+	@Test
+	public void testSingleRange() {
+		assertRanges("bytes=0-99", "0-99");
+		assertRanges("bytes=900-2000", "900-999");
+		assertEquals(100, controller.parseRanges("bytes=0-99", LENGTH).get(0).getLength());
+	}
+	
+	@Test
+	public void testSuffixRange() {
+		assertRanges("bytes=-100", "900-999");
+		assertRanges("bytes=-2000", "0-999");
+	}
+	
+	@Test
+	public void testOpenRange() {
+		assertRanges("bytes=500-", "500-999");
+		assertRanges("bytes=999-", "999-999");
+	}
+	
+	@Test
+	public void testMultipleRanges() {
+		assertRanges("bytes=0-1, 5-9,-10", "0-1", "5-9", "990-999");
+	}
+	
+	@Test
+	public void testUnsatisfiableRanges() {
+		assertRanges("bytes=1000-");
+		assertRanges("bytes=2000-3000");
+		assertRanges("bytes=-0");
+		assertRanges("bytes=1000-1100,-0");
+	}
+	
+	@Test
+	public void testUnsatisfiableRangesAreSkipped() {
+		assertRanges("bytes=1000-1100,0-9", "0-9");
+	}
+	
+	@Test
+	public void testLastBeforeStart() {
+		assertNull(controller.parseRanges("bytes=100-50", LENGTH));
+	}
+	
+	@Test
+	public void testMalformedHeader() {
+		assertNull(controller.parseRanges("items=0-99", LENGTH));
+		assertNull(controller.parseRanges("bytes=100", LENGTH));
+		assertNull(controller.parseRanges("bytes=a-b", LENGTH));
+	}
+	
+	@Test
+	public void testTooManyRanges() {
+		controller.setMaxRanges(2);
+		assertRanges("bytes=0-1,2-3", "0-1", "2-3");
+		assertNull(controller.parseRanges("bytes=0-1,2-3,4-5", LENGTH));
+	}
+	
+}
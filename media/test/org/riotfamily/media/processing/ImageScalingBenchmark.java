@@ -0,0 +1,124 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.media.processing;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Compares the {@link ImageIOThumbnailer} with the 
+ * {@link ImageMagickThumbnailer}. Measures the throughput and the quality 
+ * of the thumbnails, expressed as PSNR against a reference image scaled 
+ * with area averaging (higher is better). If no image is specified, a 
+ * synthetic photo-sized JPEG is generated. Run with 
+ * <code>java ImageScalingBenchmark [image] [iterations]</code>.
+ */
+public class ImageScalingBenchmark {
+
+	private static final int WIDTH = 200;
+	
+	private static final int HEIGHT = 150;
+	
+	public static void main(String[] args) throws IOException {
+		File source = args.length > 0 ? new File(args[0]) : createImage();
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		BufferedImage reference = createReference(source);
+		
+		ImageMagick imageMagick = new ImageMagick();
+		imageMagick.afterPropertiesSet();
+		
+		for (int run = 0; run < 3; run++) {
+			if (imageMagick.isAvailable()) {
+				run("ImageMagick", new ImageMagickThumbnailer(imageMagick), 
+						source, reference, iterations);
+			}
+			run("ImageIO    ", new ImageIOThumbnailer(), 
+					source, reference, iterations);
+		}
+	}
+	
+	private static void run(String name, Thumbnailer thumbnailer, File source,
+			BufferedImage reference, int iterations) throws IOException {
+		
+		File dest = File.createTempFile("thumb", ".jpg");
+		try {
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < iterations; i++) {
+				thumbnailer.renderThumbnail(source, dest, WIDTH, HEIGHT, false, null);
+			}
+			long time = System.currentTimeMillis() - start;
+			System.out.printf("%s: %6d ms, %6.1f thumbnails/s, PSNR %5.2f dB%n", 
+					name, time, iterations * 1000f / time, 
+					psnr(reference, ImageIO.read(dest)));
+		}
+		finally {
+			dest.delete();
+		}
+	}
+	
+	private static File createImage() throws IOException {
+		BufferedImage image = new BufferedImage(4000, 3000, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setPaint(new GradientPaint(0, 0, Color.ORANGE, 4000, 3000, Color.BLUE));
+		g.fillRect(0, 0, 4000, 3000);
+		g.setColor(Color.WHITE);
+		for (int x = 0; x < 4000; x += 40) {
+			g.drawLine(x, 0, 4000 - x, 3000);
+		}
+		g.dispose();
+		File file = File.createTempFile("source", ".jpg");
+		file.deleteOnExit();
+		ImageIO.write(image, "jpeg", file);
+		return file;
+	}
+	
+	private static BufferedImage createReference(File source) throws IOException {
+		BufferedImage image = ImageIO.read(source);
+		double scale = Math.min((double) WIDTH / image.getWidth(), 
+				(double) HEIGHT / image.getHeight());
+		
+		int w = (int) Math.round(image.getWidth() * scale);
+		int h = (int) Math.round(image.getHeight() * scale);
+		BufferedImage reference = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = reference.createGraphics();
+		g.drawImage(image.getScaledInstance(w, h, Image.SCALE_AREA_AVERAGING), 0, 0, null);
+		g.dispose();
+		return reference;
+	}
+	
+	private static double psnr(BufferedImage a, BufferedImage b) {
+		int w = Math.min(a.getWidth(), b.getWidth());
+		int h = Math.min(a.getHeight(), b.getHeight());
+		double sum = 0;
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				int p = a.getRGB(x, y);
+				int q = b.getRGB(x, y);
+				for (int shift = 0; shift < 24; shift += 8) {
+					int d = ((p >> shift) & 0xff) - ((q >> shift) & 0xff);
+					sum += d * d;
+				}
+			}
+		}
+		double mse = sum / (w * h * 3);
+		return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / mse);
+	}
+	
+}
@@ -0,0 +1,48 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.dao;
+
+import java.util.Map;
+
+import org.riotfamily.cachius.CacheService;
+import org.riotfamily.cachius.RevalidationExecutor;
+import org.riotfamily.statistics.domain.Statistics;
+
+public class CachiusStatisticsDao extends AbstractSimpleStatsDao {
+
+	private CacheService cacheService;
+	
+	public CachiusStatisticsDao(CacheService cacheService) {
+		this.cacheService = cacheService;
+	}
+
+	@Override
+	protected void populateStats(Statistics stats) throws Exception {
+		RevalidationExecutor executor = cacheService.getRevalidationExecutor();
+		if (executor != null) {
+			stats.add("Revalidation queue size", executor.getQueueSize());
+			stats.add("Pending revalidations", executor.getPendingCount());
+			stats.add("Completed revalidations", executor.getCompletedCount());
+			stats.add("Rejected revalidations", executor.getRejectedCount(), 
+					executor.getRejectedCount() > 0);
+			stats.add("Failed revalidations", executor.getFailedCount(), 
+					executor.getFailedCount() > 0);
+		}
+		Map<String, Long> invalidations = cacheService.getInvalidationStats().getInvalidations();
+		stats.add("Total invalidations", cacheService.getInvalidationStats().getTotalInvalidations());
+		for (Map.Entry<String, Long> entry : invalidations.entrySet()) {
+			stats.add("Invalidations: " + entry.getKey(), entry.getValue());
+		}
+	}
+	
+}
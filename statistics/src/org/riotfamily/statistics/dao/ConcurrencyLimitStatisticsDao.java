@@ -0,0 +1,58 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.statistics.domain.ConcurrencyLimitStatsItem;
+import org.riotfamily.statistics.domain.StatsItem;
+import org.riotfamily.statistics.web.AdaptiveConcurrencyLimit;
+import org.riotfamily.statistics.web.ConcurrencyLimiter;
+
+public class ConcurrencyLimitStatisticsDao extends AbstractStatsItemDao {
+
+	private ConcurrencyLimiter limiter;
+
+	public ConcurrencyLimitStatisticsDao(ConcurrencyLimiter limiter) {
+		this.limiter = limiter;
+	}
+
+	@Override
+	public boolean canSortBy(String property) {
+		return true;
+	}
+
+	@Override
+	public Class<?> getEntityClass() {
+		return ConcurrencyLimitStatsItem.class;
+	}
+
+	@Override
+	protected List<? extends StatsItem> getStats() {
+		ArrayList<ConcurrencyLimitStatsItem> stats = Generics.newArrayList();
+		for (AdaptiveConcurrencyLimit limit : limiter.getLimits()) {
+			ConcurrencyLimitStatsItem item = new ConcurrencyLimitStatsItem(limit.getName());
+			item.setLimit(limit.getLimit());
+			item.setInFlight(limit.getInFlight());
+			item.setWaiting(limit.getWaiting());
+			item.setBaseline(limit.getBaseline());
+			item.setQueuedCount(limit.getQueuedCount());
+			item.setRejectedCount(limit.getRejectedCount());
+			stats.add(item);
+		}
+		return stats;
+	}
+
+}
@@ -0,0 +1,76 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.riotfamily.common.util.Generics;
+import org.riotfamily.common.web.support.RequestTiming;
+import org.riotfamily.statistics.domain.RequestLatencyStatsItem;
+import org.riotfamily.statistics.domain.StatsItem;
+import org.riotfamily.statistics.web.LatencyHistogram;
+import org.riotfamily.statistics.web.RequestStats;
+import org.riotfamily.statistics.web.UrlStats;
+
+public class RequestLatencyStatisticsDao extends AbstractStatsItemDao {
+
+	private RequestStats requestStats;
+
+	public RequestLatencyStatisticsDao(RequestStats requestStats) {
+		this.requestStats = requestStats;
+	}
+
+	@Override
+	public boolean canSortBy(String property) {
+		return true;
+	}
+
+	@Override
+	public Class<?> getEntityClass() {
+		return RequestLatencyStatsItem.class;
+	}
+
+	@Override
+	protected List<? extends StatsItem> getStats() {
+		ArrayList<RequestLatencyStatsItem> stats = Generics.newArrayList();
+		for (Map.Entry<String, UrlStats> entry : 
+				requestStats.getUrlStats().entrySet()) {
+			
+			UrlStats urlStats = entry.getValue();
+			LatencyHistogram histogram = urlStats.getResponseTimes();
+			RequestLatencyStatsItem item = new RequestLatencyStatsItem(entry.getKey());
+			item.setCount(histogram.getCount());
+			item.setAverageTime(histogram.getAverage());
+			item.setTime50(histogram.getPercentile(0.5));
+			item.setTime95(histogram.getPercentile(0.95));
+			item.setTime99(histogram.getPercentile(0.99));
+			item.setMaxTime(histogram.getMax());
+			item.setSqlTime(urlStats.getAverageTime(RequestTiming.SQL));
+			item.setSqlCount(round(urlStats.getAverageCount(RequestTiming.SQL)));
+			item.setLoadCount(round(urlStats.getAverageCount(RequestTiming.LOAD)));
+			item.setCaptureTime(urlStats.getAverageTime(RequestTiming.CAPTURE));
+			item.setViewTime(urlStats.getAverageTime(RequestTiming.VIEW));
+			item.setServeTime(urlStats.getAverageTime(RequestTiming.SERVE));
+			item.setOtherTime(urlStats.getAverageOtherTime());
+			stats.add(item);
+		}
+		return stats;
+	}
+	
+	private static Double round(double value) {
+		return Math.round(value * 10) / 10.0;
+	}
+	
+}
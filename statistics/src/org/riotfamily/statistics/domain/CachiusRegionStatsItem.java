@@ -0,0 +1,154 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.domain;
+
+public class CachiusRegionStatsItem extends StatsItem {
+	
+	private Integer size;
+	
+	private Long kbWeight;
+	
+	private Long hitCount;
+	
+	private Long missCount;
+	
+	private Long hitRatio;
+	
+	private Long staleServeCount;
+	
+	private Long blockingCaptureCount;
+	
+	private Long nonBlockingCaptureCount;
+	
+	private Long backgroundCaptureCount;
+	
+	private Long captureErrorCount;
+	
+	private Long averageCaptureTime;
+	
+	private Long captureTime99;
+	
+	private Long evictionCount;
+
+	public CachiusRegionStatsItem(String name) {
+		super(name);
+	}
+
+	public Integer getSize() {
+		return size;
+	}
+
+	public void setSize(Integer size) {
+		this.size = size;
+	}
+
+	public Long getKbWeight() {
+		return kbWeight;
+	}
+
+	public void setKbWeight(Long kbWeight) {
+		this.kbWeight = kbWeight;
+	}
+
+	public Long getHitCount() {
+		return hitCount;
+	}
+
+	public void setHitCount(Long hitCount) {
+		this.hitCount = hitCount;
+	}
+
+	public Long getMissCount() {
+		return missCount;
+	}
+
+	public void setMissCount(Long missCount) {
+		this.missCount = missCount;
+	}
+
+	/**
+	 * Returns the hit ratio in percent.
+	 */
+	public Long getHitRatio() {
+		return hitRatio;
+	}
+
+	public void setHitRatio(Long hitRatio) {
+		this.hitRatio = hitRatio;
+	}
+
+	public Long getStaleServeCount() {
+		return staleServeCount;
+	}
+
+	public void setStaleServeCount(Long staleServeCount) {
+		this.staleServeCount = staleServeCount;
+	}
+
+	public Long getBlockingCaptureCount() {
+		return blockingCaptureCount;
+	}
+
+	public void setBlockingCaptureCount(Long blockingCaptureCount) {
+		this.blockingCaptureCount = blockingCaptureCount;
+	}
+
+	public Long getNonBlockingCaptureCount() {
+		return nonBlockingCaptureCount;
+	}
+
+	public void setNonBlockingCaptureCount(Long nonBlockingCaptureCount) {
+		this.nonBlockingCaptureCount = nonBlockingCaptureCount;
+	}
+
+	public Long getBackgroundCaptureCount() {
+		return backgroundCaptureCount;
+	}
+
+	public void setBackgroundCaptureCount(Long backgroundCaptureCount) {
+		this.backgroundCaptureCount = backgroundCaptureCount;
+	}
+
+	public Long getCaptureErrorCount() {
+		return captureErrorCount;
+	}
+
+	public void setCaptureErrorCount(Long captureErrorCount) {
+		this.captureErrorCount = captureErrorCount;
+	}
+
+	public Long getAverageCaptureTime() {
+		return averageCaptureTime;
+	}
+
+	public void setAverageCaptureTime(Long averageCaptureTime) {
+		this.averageCaptureTime = averageCaptureTime;
+	}
+
+	public Long getCaptureTime99() {
+		return captureTime99;
+	}
+
+	public void setCaptureTime99(Long captureTime99) {
+		this.captureTime99 = captureTime99;
+	}
+
+	public Long getEvictionCount() {
+		return evictionCount;
+	}
+
+	public void setEvictionCount(Long evictionCount) {
+		this.evictionCount = evictionCount;
+	}
+
+}
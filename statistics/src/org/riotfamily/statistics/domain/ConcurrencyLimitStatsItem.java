@@ -0,0 +1,81 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.domain;
+
+public class ConcurrencyLimitStatsItem extends StatsItem {
+
+	private Integer limit;
+
+	private Integer inFlight;
+
+	private Integer waiting;
+
+	private Long baseline;
+
+	private Long queuedCount;
+
+	private Long rejectedCount;
+
+	public ConcurrencyLimitStatsItem(String name) {
+		super(name);
+	}
+
+	public Integer getLimit() {
+		return limit;
+	}
+
+	public void setLimit(Integer limit) {
+		this.limit = limit;
+	}
+
+	public Integer getInFlight() {
+		return inFlight;
+	}
+
+	public void setInFlight(Integer inFlight) {
+		this.inFlight = inFlight;
+	}
+
+	public Integer getWaiting() {
+		return waiting;
+	}
+
+	public void setWaiting(Integer waiting) {
+		this.waiting = waiting;
+	}
+
+	public Long getBaseline() {
+		return baseline;
+	}
+
+	public void setBaseline(Long baseline) {
+		this.baseline = baseline;
+	}
+
+	public Long getQueuedCount() {
+		return queuedCount;
+	}
+
+	public void setQueuedCount(Long queuedCount) {
+		this.queuedCount = queuedCount;
+	}
+
+	public Long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	public void setRejectedCount(Long rejectedCount) {
+		this.rejectedCount = rejectedCount;
+	}
+
+}
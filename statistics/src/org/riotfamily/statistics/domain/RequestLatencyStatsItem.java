@@ -0,0 +1,151 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.domain;
+
+public class RequestLatencyStatsItem extends StatsItem {
+
+	private Long count;
+	
+	private Long averageTime;
+	
+	private Long time50;
+	
+	private Long time95;
+	
+	private Long time99;
+	
+	private Long maxTime;
+	
+	private Long sqlTime;
+	
+	private Double sqlCount;
+	
+	private Double loadCount;
+	
+	private Long captureTime;
+	
+	private Long viewTime;
+	
+	private Long serveTime;
+	
+	private Long otherTime;
+
+	public RequestLatencyStatsItem(String name) {
+		super(name);
+	}
+
+	public Long getCount() {
+		return count;
+	}
+
+	public void setCount(Long count) {
+		this.count = count;
+	}
+
+	public Long getAverageTime() {
+		return averageTime;
+	}
+
+	public void setAverageTime(Long averageTime) {
+		this.averageTime = averageTime;
+	}
+
+	public Long getTime50() {
+		return time50;
+	}
+
+	public void setTime50(Long time50) {
+		this.time50 = time50;
+	}
+
+	public Long getTime95() {
+		return time95;
+	}
+
+	public void setTime95(Long time95) {
+		this.time95 = time95;
+	}
+
+	public Long getTime99() {
+		return time99;
+	}
+
+	public void setTime99(Long time99) {
+		this.time99 = time99;
+	}
+
+	public Long getMaxTime() {
+		return maxTime;
+	}
+
+	public void setMaxTime(Long maxTime) {
+		this.maxTime = maxTime;
+	}
+
+	public Long getSqlTime() {
+		return sqlTime;
+	}
+
+	public void setSqlTime(Long sqlTime) {
+		this.sqlTime = sqlTime;
+	}
+
+	public Double getSqlCount() {
+		return sqlCount;
+	}
+
+	public void setSqlCount(Double sqlCount) {
+		this.sqlCount = sqlCount;
+	}
+
+	public Double getLoadCount() {
+		return loadCount;
+	}
+
+	public void setLoadCount(Double loadCount) {
+		this.loadCount = loadCount;
+	}
+
+	public Long getCaptureTime() {
+		return captureTime;
+	}
+
+	public void setCaptureTime(Long captureTime) {
+		this.captureTime = captureTime;
+	}
+
+	public Long getViewTime() {
+		return viewTime;
+	}
+
+	public void setViewTime(Long viewTime) {
+		this.viewTime = viewTime;
+	}
+
+	public Long getServeTime() {
+		return serveTime;
+	}
+
+	public void setServeTime(Long serveTime) {
+		this.serveTime = serveTime;
+	}
+
+	public Long getOtherTime() {
+		return otherTime;
+	}
+
+	public void setOtherTime(Long otherTime) {
+		this.otherTime = otherTime;
+	}
+
+}
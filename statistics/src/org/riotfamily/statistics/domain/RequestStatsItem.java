@@ -16,6 +16,7 @@ import java.util.Date;
 
 import javax.servlet.http.HttpServletRequest;
 
+import org.riotfamily.common.web.support.RequestTiming;
 import org.riotfamily.common.web.support.ServletUtils;
 
 public class RequestStatsItem extends StatsItem {
@@ -27,6 +28,8 @@ public class RequestStatsItem extends StatsItem {
 	private String clientIp;
 	
 	private boolean upload;
+	
+	private RequestTiming timing;
 
 	public RequestStatsItem(HttpServletRequest request) {
 		super(request.getRequestURI());
@@ -50,7 +53,12 @@ public class RequestStatsItem extends StatsItem {
 	}
 
 	public void responseDone() {
+		responseDone(null);
+	}
+	
+	public void responseDone(RequestTiming timing) {
 		responseTime = System.currentTimeMillis() - timestamp.getTime();
+		this.timing = timing;
 	}
 
 	public String getClientIp() {
@@ -64,4 +72,12 @@ public class RequestStatsItem extends StatsItem {
 	public boolean isUpload() {
 		return upload;
 	}
+
+	/**
+	 * Returns where the time of the request has been spent, or 
+	 * <code>null</code> if no timing has been recorded.
+	 */
+	public String getBreakdown() {
+		return timing != null ? timing.toString() : null;
+	}
 }
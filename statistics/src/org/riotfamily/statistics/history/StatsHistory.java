@@ -0,0 +1,368 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.history;
+
+import org.hibernate.SessionFactory;
+import org.riotfamily.statistics.web.LatencyHistogram;
+import org.riotfamily.statistics.web.RequestStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mchange.v2.c3p0.impl.AbstractPoolBackedDataSource;
+
+/**
+ * Keeps a rolling history of request, Hibernate and connection pool
+ * statistics. Unlike the cumulative counters shown in the statistics
+ * screens, the history reveals throughput and latency trends.
+ * <p>
+ * A background thread samples the counters once per second and stores
+ * the rates in a {@link TimeSeries} with per-second resolution (one hour
+ * by default). At the end of each minute the values of the past minute are
+ * aggregated into a second series (24 hours by default). The memory used
+ * by both series is allocated on {@link #init() initialization} and stays
+ * constant.
+ * <p>
+ * Rates are reported per second, response times in milliseconds. Values
+ * that are not available, like the 2nd level cache hit ratio when Hibernate
+ * statistics are disabled, are reported as <code>NaN</code>.
+ */
+public class StatsHistory {
+
+	public static final String[] COLUMNS = new String[] {
+		"requests", "errors", "averageTime", "time50", "time95", "time99",
+		"maxTime", "queries", "secondLevelCacheHitRatio",
+		"queryCacheHitRatio", "busyConnections", "connections"
+	};
+
+	private static final int REQUESTS = 0;
+
+	private static final int ERRORS = 1;
+
+	private static final int AVERAGE_TIME = 2;
+
+	private static final int TIME_50 = 3;
+
+	private static final int TIME_95 = 4;
+
+	private static final int TIME_99 = 5;
+
+	private static final int MAX_TIME = 6;
+
+	private static final int QUERIES = 7;
+
+	private static final int SECOND_LEVEL_CACHE_HIT_RATIO = 8;
+
+	private static final int QUERY_CACHE_HIT_RATIO = 9;
+
+	private static final int BUSY_CONNECTIONS = 10;
+
+	private static final int CONNECTIONS = 11;
+
+	private static final long SECOND = 1000;
+
+	private static final long MINUTE = 60 * SECOND;
+
+	private Logger log = LoggerFactory.getLogger(StatsHistory.class);
+
+	private RequestStats requestStats;
+
+	private SessionFactory sessionFactory;
+
+	private AbstractPoolBackedDataSource dataSource;
+
+	private int secondCapacity = 3600;
+
+	private int minuteCapacity = 1440;
+
+	private boolean enabled = false;
+
+	private TimeSeries seconds;
+
+	private TimeSeries minutes;
+
+	private SamplerThread samplerThread;
+
+	// State of the sampler thread
+
+	private Counters lastSecond;
+
+	private Counters lastMinute;
+
+	private LatencyHistogram minuteResponseTimes = new LatencyHistogram();
+
+	private double busyConnectionSum;
+
+	private double connectionSum;
+
+	private int poolSamples;
+
+	private double[] row = new double[COLUMNS.length];
+
+	public StatsHistory(RequestStats requestStats) {
+		this.requestStats = requestStats;
+	}
+
+	/**
+	 * Sets the SessionFactory whose statistics should be recorded.
+	 * Query rates and cache hit ratios are only available while
+	 * Hibernate statistics are enabled.
+	 */
+	public void setSessionFactory(SessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+
+	/**
+	 * Sets the connection pool whose usage should be recorded.
+	 */
+	public void setDataSource(AbstractPoolBackedDataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * Sets the number of per-second samples to keep. Default is
+	 * <code>3600</code> (one hour).
+	 */
+	public void setSecondCapacity(int secondCapacity) {
+		this.secondCapacity = secondCapacity;
+	}
+
+	/**
+	 * Sets the number of per-minute samples to keep. Default is
+	 * <code>1440</code> (24 hours).
+	 */
+	public void setMinuteCapacity(int minuteCapacity) {
+		this.minuteCapacity = minuteCapacity;
+	}
+
+	/**
+	 * Sets whether statistics should be sampled. Default is 
+	 * <code>false</code>.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public TimeSeries getSeconds() {
+		return seconds;
+	}
+
+	public TimeSeries getMinutes() {
+		return minutes;
+	}
+
+	public void init() {
+		seconds = new TimeSeries(SECOND, secondCapacity, COLUMNS.length);
+		minutes = new TimeSeries(MINUTE, minuteCapacity, COLUMNS.length);
+		if (enabled) {
+			samplerThread = new SamplerThread();
+			samplerThread.start();
+		}
+	}
+
+	public void destroy() {
+		if (samplerThread != null) {
+			samplerThread.shutdown();
+			samplerThread = null;
+		}
+	}
+
+	/**
+	 * Takes a sample. Invoked by the sampler thread once per second.
+	 */
+	void sample(long time) {
+		if (lastSecond != null && time <= lastSecond.time) {
+			return;
+		}
+		Counters counters = new Counters(time);
+		LatencyHistogram responseTimes = requestStats.nextResponseTimeInterval();
+		int busyConnections = -1;
+		int connections = -1;
+		if (dataSource != null) {
+			try {
+				busyConnections = dataSource.getNumBusyConnections();
+				connections = dataSource.getNumConnections();
+			}
+			catch (Exception e) {
+				log.debug("Failed to read pool statistics", e);
+			}
+		}
+		if (lastSecond != null) {
+			fillRow(lastSecond, counters, responseTimes);
+			row[BUSY_CONNECTIONS] = gauge(busyConnections);
+			row[CONNECTIONS] = gauge(connections);
+			seconds.add(time, row);
+		}
+		else {
+			lastMinute = counters;
+		}
+		lastSecond = counters;
+
+		minuteResponseTimes.add(responseTimes);
+		if (busyConnections >= 0) {
+			busyConnectionSum += busyConnections;
+			connectionSum += connections;
+			poolSamples++;
+		}
+		if (time / MINUTE != lastMinute.time / MINUTE) {
+			fillRow(lastMinute, counters, minuteResponseTimes);
+			row[BUSY_CONNECTIONS] = poolSamples > 0
+					? busyConnectionSum / poolSamples : Double.NaN;
+
+			row[CONNECTIONS] = poolSamples > 0
+					? connectionSum / poolSamples : Double.NaN;
+
+			minutes.add(time, row);
+			lastMinute = counters;
+			minuteResponseTimes = new LatencyHistogram();
+			busyConnectionSum = 0;
+			connectionSum = 0;
+			poolSamples = 0;
+		}
+	}
+
+	private void fillRow(Counters from, Counters to,
+			LatencyHistogram responseTimes) {
+
+		double secs = Math.max(1, to.time - from.time) / (double) SECOND;
+		row[REQUESTS] = delta(from.requests, to.requests) / secs;
+		row[ERRORS] = delta(from.errors, to.errors) / secs;
+		row[AVERAGE_TIME] = gauge(responseTimes.getAverage());
+		row[TIME_50] = gauge(responseTimes.getPercentile(0.5));
+		row[TIME_95] = gauge(responseTimes.getPercentile(0.95));
+		row[TIME_99] = gauge(responseTimes.getPercentile(0.99));
+		row[MAX_TIME] = responseTimes.getCount() > 0
+				? responseTimes.getMax() : Double.NaN;
+
+		if (to.hibernate && from.hibernate) {
+			row[QUERIES] = delta(from.queries, to.queries) / secs;
+			row[SECOND_LEVEL_CACHE_HIT_RATIO] = ratio(
+					delta(from.cacheHits, to.cacheHits),
+					delta(from.cacheMisses, to.cacheMisses));
+
+			row[QUERY_CACHE_HIT_RATIO] = ratio(
+					delta(from.queryCacheHits, to.queryCacheHits),
+					delta(from.queryCacheMisses, to.queryCacheMisses));
+		}
+		else {
+			row[QUERIES] = Double.NaN;
+			row[SECOND_LEVEL_CACHE_HIT_RATIO] = Double.NaN;
+			row[QUERY_CACHE_HIT_RATIO] = Double.NaN;
+		}
+	}
+
+	/**
+	 * Returns the difference between two readings of a cumulative counter.
+	 * If the counter has been reset in the meantime, the current value is
+	 * returned.
+	 */
+	private static long delta(long previous, long current) {
+		return current >= previous ? current - previous : current;
+	}
+
+	private static double ratio(long hits, long misses) {
+		long total = hits + misses;
+		return total > 0 ? (double) hits / total : Double.NaN;
+	}
+
+	private static double gauge(long value) {
+		return value >= 0 ? value : Double.NaN;
+	}
+
+	/**
+	 * Readings of the cumulative counters.
+	 */
+	private class Counters {
+
+		long time;
+
+		long requests;
+
+		long errors;
+
+		boolean hibernate;
+
+		long queries;
+
+		long cacheHits;
+
+		long cacheMisses;
+
+		long queryCacheHits;
+
+		long queryCacheMisses;
+
+		Counters(long time) {
+			this.time = time;
+			requests = requestStats.getTotalRequestCount();
+			errors = requestStats.getFaultyResponseCount();
+			if (sessionFactory != null) {
+				org.hibernate.stat.Statistics hs = sessionFactory.getStatistics();
+				hibernate = hs.isStatisticsEnabled();
+				if (hibernate) {
+					queries = hs.getQueryExecutionCount();
+					cacheHits = hs.getSecondLevelCacheHitCount();
+					cacheMisses = hs.getSecondLevelCacheMissCount();
+					queryCacheHits = hs.getQueryCacheHitCount();
+					queryCacheMisses = hs.getQueryCacheMissCount();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Thread that takes a sample at the beginning of each second.
+	 */
+	private class SamplerThread extends Thread {
+
+		private boolean running = true;
+
+		public SamplerThread() {
+			super("Riot-StatsHistory");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				synchronized (this) {
+					try {
+						long delay = SECOND - System.currentTimeMillis() % SECOND;
+						wait(delay);
+					}
+					catch (InterruptedException e) {
+						break;
+					}
+					if (!running) {
+						break;
+					}
+				}
+				try {
+					sample(System.currentTimeMillis() / SECOND * SECOND);
+				}
+				catch (Exception e) {
+					log.error("Failed to sample statistics", e);
+				}
+			}
+		}
+
+		public synchronized void shutdown() {
+			running = false;
+			notify();
+		}
+	}
+
+}
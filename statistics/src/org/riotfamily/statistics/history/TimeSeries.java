@@ -0,0 +1,109 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.history;
+
+/**
+ * Ring buffer that holds a fixed number of rows, one per time interval.
+ * Once the buffer is full, the oldest row is overwritten. All memory is
+ * allocated up front.
+ * <p>
+ * Rows are expected to be added by a single thread. Readers copy one row
+ * at a time, so that they never block the writer for long.
+ */
+public class TimeSeries {
+
+	private long interval;
+
+	private long[] times;
+
+	private double[][] rows;
+
+	private int next;
+
+	private int size;
+
+	public TimeSeries(long interval, int capacity, int columns) {
+		this.interval = interval;
+		this.times = new long[capacity];
+		this.rows = new double[capacity][columns];
+	}
+
+	/**
+	 * Returns the length of an interval in milliseconds.
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	public int getCapacity() {
+		return times.length;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Appends a row. The values are copied, so the caller may reuse the
+	 * array.
+	 */
+	public synchronized void add(long time, double[] values) {
+		times[next] = time;
+		System.arraycopy(values, 0, rows[next], 0, rows[next].length);
+		next = (next + 1) % times.length;
+		if (size < times.length) {
+			size++;
+		}
+	}
+
+	/**
+	 * Copies the row at the given position into the given array and returns
+	 * its timestamp. Position <code>0</code> is the oldest row. Returns
+	 * <code>-1</code> if the position is no longer (or not yet) available.
+	 */
+	public synchronized long get(int position, double[] values) {
+		if (position < 0 || position >= size) {
+			return -1;
+		}
+		int i = (next - size + position + times.length) % times.length;
+		System.arraycopy(rows[i], 0, values, 0, values.length);
+		return times[i];
+	}
+
+	/**
+	 * Copies the oldest row that is newer than the given timestamp into the
+	 * given array and returns the row's timestamp, or <code>-1</code> if
+	 * there is no such row. Unlike {@link #get(int, double[])} this method
+	 * can be used to iterate over the rows while new rows are added.
+	 */
+	public synchronized long getNext(long time, double[] values) {
+		return get(indexAfter(time), values);
+	}
+
+	private int indexAfter(long time) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int i = (next - size + mid + times.length) % times.length;
+			if (times[i] <= time) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+}
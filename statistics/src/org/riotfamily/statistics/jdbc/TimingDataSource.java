@@ -0,0 +1,153 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.riotfamily.common.hibernate.ChainedInterceptor;
+import org.riotfamily.common.web.support.RequestTiming;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * DataSource that records the time spent in executing SQL statements as
+ * {@link RequestTiming#SQL} spans. The Hibernate {@link ChainedInterceptor}
+ * only sees the statements being prepared, not their execution, hence the
+ * measurement takes place on the JDBC level.
+ * <p>
+ * Connections, statements and result sets are wrapped in proxies. Objects 
+ * that are obtained from a proxy, like <code>Statement.getConnection()</code>
+ * or <code>ResultSet.getStatement()</code>, return the proxy again, and
+ * proxies are equal to the objects they wrap.
+ * 
+ * @see TimingDataSourcePostProcessor
+ */
+public class TimingDataSource extends DelegatingDataSource {
+
+	public TimingDataSource(DataSource targetDataSource) {
+		super(targetDataSource);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return proxy(Connection.class, super.getConnection(), null);
+	}
+	
+	@Override
+	public Connection getConnection(String username, String password)
+			throws SQLException {
+		
+		return proxy(Connection.class, super.getConnection(username, password), null);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, T target, Object parent) {
+		return (T) Proxy.newProxyInstance(TimingDataSource.class.getClassLoader(),
+				new Class[] { type }, new TimingHandler(target, parent));
+	}
+	
+	/**
+	 * Returns the object wrapped by the given proxy, or the object itself
+	 * if it is not a proxy created by this class.
+	 */
+	private static Object unwrap(Object obj) {
+		if (obj != null && Proxy.isProxyClass(obj.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(obj);
+			if (handler instanceof TimingHandler) {
+				return ((TimingHandler) handler).target;
+			}
+		}
+		return obj;
+	}
+	
+	private static class TimingHandler implements InvocationHandler {
+
+		private Object target;
+		
+		/** 
+		 * The proxy that created this one, i.e. the Connection of a 
+		 * Statement or the Statement of a ResultSet 
+		 */
+		private Object parent;
+		
+		public TimingHandler(Object target, Object parent) {
+			this.target = target;
+			this.parent = parent;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args)
+				throws Throwable {
+			
+			String name = method.getName();
+			if (name.equals("equals")) {
+				return Boolean.valueOf(target.equals(unwrap(args[0])));
+			}
+			if (name.equals("hashCode")) {
+				return Integer.valueOf(target.hashCode());
+			}
+			if (parent != null && (name.equals("getConnection") 
+					|| name.equals("getStatement"))) {
+				
+				return parent;
+			}
+			if (target instanceof Statement && name.startsWith("execute")) {
+				RequestTiming.enter(RequestTiming.SQL);
+				try {
+					return wrap(invokeTarget(method, args), proxy);
+				}
+				finally {
+					RequestTiming.exit(RequestTiming.SQL);
+				}
+			}
+			return wrap(invokeTarget(method, args), proxy);
+		}
+		
+		private Object wrap(Object result, Object proxy) {
+			if (result instanceof CallableStatement) {
+				return proxy(CallableStatement.class, (CallableStatement) result, proxy);
+			}
+			if (result instanceof PreparedStatement) {
+				return proxy(PreparedStatement.class, (PreparedStatement) result, proxy);
+			}
+			if (result instanceof Statement && target instanceof Connection) {
+				return proxy(Statement.class, (Statement) result, proxy);
+			}
+			if (result instanceof ResultSet && target instanceof Statement) {
+				return proxy(ResultSet.class, (ResultSet) result, proxy);
+			}
+			return result;
+		}
+		
+		private Object invokeTarget(Method method, Object[] args) 
+				throws Throwable {
+			
+			try {
+				return method.invoke(target, args);
+			}
+			catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+
+}
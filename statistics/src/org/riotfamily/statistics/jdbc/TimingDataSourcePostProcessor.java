@@ -0,0 +1,81 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.jdbc;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.orm.hibernate3.AbstractSessionFactoryBean;
+import org.springframework.orm.hibernate3.HibernateTransactionManager;
+import org.springframework.orm.hibernate3.SessionFactoryUtils;
+
+/**
+ * BeanPostProcessor that wraps the DataSource of all Hibernate 
+ * SessionFactories in a {@link TimingDataSource}, so that the time spent in
+ * executing SQL statements shows up in the request statistics. 
+ * <p>
+ * HibernateTransactionManagers that would otherwise detect the wrapped 
+ * DataSource are given the target DataSource, so that plain JDBC code can 
+ * still participate in Hibernate-managed transactions.
+ * <p>
+ * The processor is disabled by default, as every JDBC call goes through
+ * a reflective proxy once it is enabled.
+ */
+public class TimingDataSourcePostProcessor implements BeanPostProcessor {
+
+	private Logger log = LoggerFactory.getLogger(TimingDataSourcePostProcessor.class);
+	
+	private boolean enabled = false;
+	
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public Object postProcessBeforeInitialization(Object bean, String beanName)
+			throws BeansException {
+		
+		if (!enabled) {
+			return bean;
+		}
+		if (bean instanceof AbstractSessionFactoryBean) {
+			AbstractSessionFactoryBean factoryBean = (AbstractSessionFactoryBean) bean;
+			DataSource dataSource = factoryBean.getDataSource();
+			if (dataSource != null && !(dataSource instanceof TimingDataSource)) {
+				log.info("Measuring SQL execution times of {}", beanName);
+				factoryBean.setDataSource(new TimingDataSource(dataSource));
+			}
+		}
+		else if (bean instanceof HibernateTransactionManager) {
+			HibernateTransactionManager tm = (HibernateTransactionManager) bean;
+			if (tm.getDataSource() == null && tm.getSessionFactory() != null) {
+				DataSource dataSource = SessionFactoryUtils.getDataSource(
+						tm.getSessionFactory());
+				
+				if (dataSource instanceof TimingDataSource) {
+					tm.setDataSource(((TimingDataSource) dataSource).getTargetDataSource());
+				}
+			}
+		}
+		return bean;
+	}
+	
+	public Object postProcessAfterInitialization(Object bean, String beanName)
+			throws BeansException {
+		
+		return bean;
+	}
+
+}
@@ -0,0 +1,290 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.web;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of requests that are processed concurrently. The limit
+ * is adjusted using a gradient of the observed response times: once per
+ * window the average response time is compared with a long-term baseline.
+ * If requests get slower than <code>TOLERANCE</code> times the baseline,
+ * the limit is reduced; otherwise it grows by the square root of the
+ * current limit. The limit is not raised while less than half of it is in
+ * use, as the response times would not reveal anything about the capacity.
+ * <p>
+ * Requests that exceed the limit are queued for a bounded time if the queue
+ * is not full, otherwise they are rejected right away. Priority requests
+ * may exceed the limit by a fixed reserve and are woken up before normal
+ * requests.
+ * <p>
+ * The fast path only performs a CAS on the in-flight counter. The lock is
+ * only used for queueing.
+ */
+public class AdaptiveConcurrencyLimit {
+
+	/** Length of a sampling window in milliseconds */
+	private static final long WINDOW = 1000;
+
+	/** Minimum number of samples required to adjust the limit */
+	private static final int MIN_WINDOW_SAMPLES = 10;
+
+	/** Factor by which the response time may exceed the baseline */
+	private static final double TOLERANCE = 1.5;
+
+	/** Weight of a new window when the limit is updated */
+	private static final double SMOOTHING = 0.2;
+
+	/** Weight of a new window when the baseline is updated */
+	private static final double BASELINE_SMOOTHING = 0.05;
+
+	private String name;
+
+	private int minLimit;
+
+	private int maxLimit;
+
+	private int priorityReserve;
+
+	private int maxQueueSize;
+
+	private long maxWait;
+
+	private volatile double limit;
+
+	private AtomicInteger inFlight = new AtomicInteger();
+
+	private AtomicLong rejectedCount = new AtomicLong();
+
+	private AtomicLong queuedCount = new AtomicLong();
+
+	private AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+
+	private AtomicLong windowCount = new AtomicLong();
+
+	private AtomicLong windowTimeSum = new AtomicLong();
+
+	private AtomicInteger windowMaxInFlight = new AtomicInteger();
+
+	/** Baseline response time, only modified by the thread closing a window */
+	private volatile double baseline;
+
+	private ReentrantLock lock = new ReentrantLock();
+
+	private Condition priorityAvailable = lock.newCondition();
+
+	private Condition normalAvailable = lock.newCondition();
+
+	private volatile int priorityWaiting;
+
+	private volatile int normalWaiting;
+
+	public AdaptiveConcurrencyLimit(String name, int initialLimit,
+			int minLimit, int maxLimit, int priorityReserve,
+			int maxQueueSize, long maxWait) {
+
+		this.name = name;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.priorityReserve = priorityReserve;
+		this.maxQueueSize = maxQueueSize;
+		this.maxWait = maxWait;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public int getWaiting() {
+		return priorityWaiting + normalWaiting;
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	public long getQueuedCount() {
+		return queuedCount.get();
+	}
+
+	/**
+	 * Returns the baseline response time in milliseconds.
+	 */
+	public long getBaseline() {
+		return Math.round(baseline);
+	}
+
+	/**
+	 * Tries to acquire a slot, waiting up to <code>maxWait</code>
+	 * milliseconds if the limit has been reached. Callers must invoke
+	 * {@link #release(long)} if <code>true</code> is returned.
+	 */
+	public boolean acquire(boolean priority) throws InterruptedException {
+		if (tryAcquire(priority)) {
+			return true;
+		}
+		if (maxWait <= 0) {
+			rejectedCount.incrementAndGet();
+			return false;
+		}
+		lock.lock();
+		try {
+			if (priorityWaiting + normalWaiting >= maxQueueSize) {
+				rejectedCount.incrementAndGet();
+				return false;
+			}
+			queuedCount.incrementAndGet();
+			if (priority) {
+				priorityWaiting++;
+			}
+			else {
+				normalWaiting++;
+			}
+			try {
+				long nanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+				while (!tryAcquire(priority)) {
+					if (nanos <= 0) {
+						rejectedCount.incrementAndGet();
+						return false;
+					}
+					Condition condition = priority
+							? priorityAvailable : normalAvailable;
+
+					nanos = condition.awaitNanos(nanos);
+				}
+				return true;
+			}
+			finally {
+				if (priority) {
+					priorityWaiting--;
+				}
+				else {
+					normalWaiting--;
+				}
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Acquires a slot if the limit permits. Normal requests don't overtake
+	 * queued priority requests.
+	 */
+	private boolean tryAcquire(boolean priority) {
+		int max = (int) limit;
+		if (priority) {
+			max += priorityReserve;
+		}
+		else if (priorityWaiting > 0) {
+			return false;
+		}
+		while (true) {
+			int n = inFlight.get();
+			if (n >= max) {
+				return false;
+			}
+			if (inFlight.compareAndSet(n, n + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases a slot and records the time it took to process the request.
+	 */
+	public void release(long responseTime) {
+		int n = inFlight.getAndDecrement();
+		record(responseTime, n);
+		if (priorityWaiting + normalWaiting > 0) {
+			lock.lock();
+			try {
+				if (priorityWaiting > 0) {
+					priorityAvailable.signal();
+				}
+				else {
+					normalAvailable.signal();
+				}
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private void record(long responseTime, int n) {
+		windowTimeSum.addAndGet(responseTime);
+		long count = windowCount.incrementAndGet();
+		int max = windowMaxInFlight.get();
+		while (n > max && !windowMaxInFlight.compareAndSet(max, n)) {
+			max = windowMaxInFlight.get();
+		}
+		long start = windowStart.get();
+		long now = System.currentTimeMillis();
+		if (now - start >= WINDOW && count >= MIN_WINDOW_SAMPLES
+				&& windowStart.compareAndSet(start, now)) {
+
+			// Samples recorded concurrently may end up in the next window
+			count = windowCount.getAndSet(0);
+			long sum = windowTimeSum.getAndSet(0);
+			int maxInFlight = windowMaxInFlight.getAndSet(0);
+			if (count > 0) {
+				update(Math.max(1.0, (double) sum / count), maxInFlight);
+			}
+		}
+	}
+
+	/**
+	 * Adjusts the limit. Invoked by one thread at a time at the end of
+	 * each window.
+	 */
+	void update(double responseTime, int maxInFlight) {
+		if (baseline == 0) {
+			baseline = responseTime;
+		}
+		else {
+			baseline = baseline * (1 - BASELINE_SMOOTHING)
+					+ responseTime * BASELINE_SMOOTHING;
+
+			if (baseline / responseTime > 2) {
+				// Load has dropped, let the baseline recover faster
+				baseline *= 0.95;
+			}
+		}
+		double current = limit;
+		if (maxInFlight < current / 2) {
+			return;
+		}
+		double gradient = Math.max(0.5, Math.min(1.0,
+				TOLERANCE * baseline / responseTime));
+
+		double newLimit = current * gradient + Math.sqrt(current);
+		newLimit = current * (1 - SMOOTHING) + newLimit * SMOOTHING;
+		limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+	}
+
+}
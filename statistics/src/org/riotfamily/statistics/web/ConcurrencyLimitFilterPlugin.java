@@ -0,0 +1,116 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.web;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.riotfamily.common.web.filter.FilterPlugin;
+import org.riotfamily.common.web.support.ServletUtils;
+import org.riotfamily.core.security.session.LoginManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+
+/**
+ * FilterPlugin that protects the application from overload. Requests are
+ * only processed if the {@link AdaptiveConcurrencyLimit} of their route
+ * (see {@link ConcurrencyLimiter}) admits them. All other requests are
+ * answered with <code>503 Service Unavailable</code>, so that traffic
+ * spikes degrade gracefully instead of exhausting the container's thread
+ * pool.
+ * <p>
+ * Requests of users that are logged into Riot are treated with priority:
+ * they may exceed the limit by a reserve and are dequeued first, so that
+ * editors can still work while anonymous traffic is throttled.
+ */
+public class ConcurrencyLimitFilterPlugin implements FilterPlugin, Ordered {
+
+	private Logger log = LoggerFactory.getLogger(ConcurrencyLimitFilterPlugin.class);
+
+	private ConcurrencyLimiter limiter;
+
+	private int order = Ordered.LOWEST_PRECEDENCE;
+
+	private int retryAfter = 1;
+
+	public ConcurrencyLimitFilterPlugin(ConcurrencyLimiter limiter) {
+		this.limiter = limiter;
+	}
+
+	public int getOrder() {
+		return order;
+	}
+
+	public void setOrder(int order) {
+		this.order = order;
+	}
+
+	/**
+	 * Sets the value of the <code>Retry-After</code> header that is sent
+	 * with rejected requests. Default is <code>1</code> second.
+	 */
+	public void setRetryAfter(int retryAfter) {
+		this.retryAfter = retryAfter;
+	}
+
+	public void doFilter(HttpServletRequest request,
+			HttpServletResponse response, FilterChain filterChain)
+			throws IOException, ServletException {
+
+		if (!limiter.isEnabled()) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+		AdaptiveConcurrencyLimit limit = limiter.getLimit(
+				ServletUtils.getPathWithinApplication(request));
+
+		boolean acquired;
+		try {
+			acquired = limit.acquire(isPriorityRequest(request));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			acquired = false;
+		}
+		if (!acquired) {
+			log.debug("Concurrency limit of {} reached, rejecting {}",
+					limit.getName(), request.getRequestURI());
+
+			response.setIntHeader("Retry-After", retryAfter);
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			filterChain.doFilter(request, response);
+		}
+		finally {
+			limit.release(System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * Returns whether the request should be given priority. The default
+	 * implementation returns <code>true</code> if the user is logged into
+	 * Riot.
+	 */
+	protected boolean isPriorityRequest(HttpServletRequest request) {
+		return LoginManager.getSessionMetaData(request) != null;
+	}
+
+}
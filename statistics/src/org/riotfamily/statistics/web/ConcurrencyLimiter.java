@@ -0,0 +1,158 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.util.StringUtils;
+
+/**
+ * Holds the {@link AdaptiveConcurrencyLimit}s used by the
+ * {@link ConcurrencyLimitFilterPlugin}. Each route, defined by an Ant-style
+ * URL pattern, has its own limit that adapts to the observed response
+ * times. Requests that don't match any pattern share a default limit.
+ */
+public class ConcurrencyLimiter {
+
+	private static final String DEFAULT_ROUTE = "/**";
+
+	private boolean enabled = false;
+
+	private List<String> routePatterns = Collections.emptyList();
+
+	private PathMatcher pathMatcher = new AntPathMatcher();
+
+	private ConcurrentMap<String, AdaptiveConcurrencyLimit> limits =
+			new ConcurrentHashMap<String, AdaptiveConcurrencyLimit>();
+
+	private int initialLimit = 20;
+
+	private int minLimit = 5;
+
+	private int maxLimit = 200;
+
+	private int priorityReserve = 10;
+
+	private int maxQueueSize = 20;
+
+	private long maxWait = 500;
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Sets a comma-separated list of Ant-style patterns. Requests matching
+	 * the same pattern share one limit. All other requests share a common
+	 * default limit.
+	 */
+	public void setRoutePatterns(String routePatterns) {
+		List<String> patterns = new ArrayList<String>();
+		for (String pattern : StringUtils.commaDelimitedListToStringArray(routePatterns)) {
+			if (StringUtils.hasText(pattern)) {
+				patterns.add(pattern.trim());
+			}
+		}
+		this.routePatterns = patterns;
+	}
+
+	/**
+	 * Sets the limit that is used before any response times have been
+	 * observed. Default is <code>20</code>.
+	 */
+	public void setInitialLimit(int initialLimit) {
+		this.initialLimit = initialLimit;
+	}
+
+	/**
+	 * Sets the lower bound of the limit. Default is <code>5</code>.
+	 */
+	public void setMinLimit(int minLimit) {
+		this.minLimit = minLimit;
+	}
+
+	/**
+	 * Sets the upper bound of the limit. Should not exceed the size of the
+	 * container's thread pool. Default is <code>200</code>.
+	 */
+	public void setMaxLimit(int maxLimit) {
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * Sets the number of requests by which Riot users may exceed the limit.
+	 * Default is <code>10</code>.
+	 */
+	public void setPriorityReserve(int priorityReserve) {
+		this.priorityReserve = priorityReserve;
+	}
+
+	/**
+	 * Sets the maximum number of requests per route that may wait for a
+	 * slot. Default is <code>20</code>.
+	 */
+	public void setMaxQueueSize(int maxQueueSize) {
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	/**
+	 * Sets how many milliseconds a request may wait for a slot. Set to
+	 * <code>0</code> to reject requests right away. Default is
+	 * <code>500</code>.
+	 */
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * Returns the limits that have been created so far.
+	 */
+	public List<AdaptiveConcurrencyLimit> getLimits() {
+		return new ArrayList<AdaptiveConcurrencyLimit>(limits.values());
+	}
+
+	/**
+	 * Returns the limit for the given path.
+	 */
+	public AdaptiveConcurrencyLimit getLimit(String path) {
+		String route = DEFAULT_ROUTE;
+		for (String pattern : routePatterns) {
+			if (pathMatcher.match(pattern, path)) {
+				route = pattern;
+				break;
+			}
+		}
+		AdaptiveConcurrencyLimit limit = limits.get(route);
+		if (limit == null) {
+			limit = new AdaptiveConcurrencyLimit(route, initialLimit, minLimit,
+					maxLimit, priorityReserve, maxQueueSize, maxWait);
+
+			AdaptiveConcurrencyLimit existing = limits.putIfAbsent(route, limit);
+			if (existing != null) {
+				limit = existing;
+			}
+		}
+		return limit;
+	}
+
+}
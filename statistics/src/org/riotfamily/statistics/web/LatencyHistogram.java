@@ -0,0 +1,154 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.web;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram for response times in milliseconds. Like an HDR
+ * histogram, each power of two is divided into linear sub-buckets, so 
+ * that the relative error of the reported percentiles is below 12.5%
+ * while the memory footprint stays constant. Values up to 7 ms are 
+ * recorded exactly, values above 2^24 ms (about 4.6 hours) are recorded
+ * in the last bucket.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;
+	
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	
+	private static final int MAX_EXPONENT = 24;
+	
+	private static final int BUCKET_COUNT = 
+			SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+	
+	private AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	
+	private AtomicLong count = new AtomicLong();
+	
+	private AtomicLong sum = new AtomicLong();
+	
+	private AtomicLong max = new AtomicLong();
+	
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(getIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+	
+	/**
+	 * Adds all values recorded by the given histogram.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long n = other.counts.get(i);
+			if (n > 0) {
+				counts.addAndGet(i, n);
+			}
+		}
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+		long value = other.max.get();
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+	
+	static int getIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKET_COUNT - 1;
+		}
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >> shift) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+	}
+	
+	/**
+	 * Returns the highest value that is recorded in the bucket with the
+	 * given index.
+	 */
+	static long getUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+	
+	public long getCount() {
+		return count.get();
+	}
+	
+	public long getSum() {
+		return sum.get();
+	}
+	
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Returns the average of all recorded values, or <code>-1</code> if no
+	 * values have been recorded.
+	 */
+	public long getAverage() {
+		long n = count.get();
+		return n > 0 ? sum.get() / n : -1;
+	}
+	
+	/**
+	 * Returns an estimate for the given percentile. The estimate is the 
+	 * upper bound of the bucket that contains the value, but never larger
+	 * than the maximum recorded value.
+	 * 
+	 * @param p Percentile between 0 and 1
+	 * @return The estimated value or <code>-1</code> if no values have been 
+	 *         recorded
+	 */
+	public long getPercentile(double p) {
+		long[] snapshot = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return -1;
+		}
+		long threshold = Math.max(1, (long) Math.ceil(total * p));
+		long n = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			n += snapshot[i];
+			if (n >= threshold) {
+				return Math.min(getUpperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+	
+}
@@ -14,20 +14,43 @@ package org.riotfamily.statistics.web;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.riotfamily.cachius.stats.StripedCounter;
 import org.riotfamily.common.util.Generics;
+import org.riotfamily.common.web.support.RequestTiming;
 import org.riotfamily.statistics.domain.FaultyRepsonseStatsItem;
 import org.riotfamily.statistics.domain.RequestStatsItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.util.StringUtils;
+
+/**
+ * Collects request statistics. The methods invoked for each request don't
+ * acquire any locks: counters are striped, the requests in progress are 
+ * kept in a concurrent map and response times are recorded in a 
+ * {@link LatencyHistogram} per URL pattern. If a {@link RequestTiming} is
+ * passed in, the time spent in SQL statements, content capturing, view 
+ * rendering and serving is summed up per URL pattern, too. Only the lists of critical
+ * and faulty responses, which are modified rarely, are guarded by a lock. 
+ * Readers work on snapshots and never block the request threads.
+ */
 public class RequestStats {
 
+	private static final String OTHER_URLS = "[other]";
+	
 	private static Logger log = LoggerFactory.getLogger(RequestStats.class);
 
 	private long warnThreshold;
@@ -36,13 +59,17 @@ public class RequestStats {
 	
 	private int maxListSize = 45;
 	
-	private long parallelRequestsHWM;
+	private int maxUrlPatterns = 500;
+	
+	private AtomicLong parallelRequestsHWM = new AtomicLong();
+	
+	private AtomicInteger currentRequestCount = new AtomicInteger();
 	
-	private int totalRequestCount = 0;
+	private StripedCounter totalRequestCount = new StripedCounter();
 
-	private int faultyResonseCount = 0;
+	private StripedCounter faultyResonseCount = new StripedCounter();
 
-	private long totalResponseTime = 0;
+	private StripedCounter totalResponseTime = new StripedCounter();
 	
 	private String monitoredUrl;
 	
@@ -50,78 +77,139 @@ public class RequestStats {
 	
 	private boolean ignoreUploads = false;
 	
-	private LinkedList<RequestStatsItem> currentRequests = Generics.newLinkedList();
+	private List<String> urlPatterns = Collections.emptyList();
+	
+	private PathMatcher pathMatcher = new AntPathMatcher();
+	
+	private ConcurrentMap<RequestStatsItem, Boolean> currentRequests = 
+			new ConcurrentHashMap<RequestStatsItem, Boolean>();
 
-	private LinkedList<RequestStatsItem> criticalRequests = Generics.newLinkedList();
+	private ConcurrentMap<String, UrlStats> urlStats = 
+			new ConcurrentHashMap<String, UrlStats>();
+	
+	private AtomicReference<LatencyHistogram> intervalResponseTimes = 
+			new AtomicReference<LatencyHistogram>(new LatencyHistogram());
+	
+	private List<RequestStatsItem> criticalRequests = 
+			new CopyOnWriteArrayList<RequestStatsItem>();
 
-	private LinkedList<FaultyRepsonseStatsItem> faultyResponses = Generics.newLinkedList();
+	private List<FaultyRepsonseStatsItem> faultyResponses = 
+			new CopyOnWriteArrayList<FaultyRepsonseStatsItem>();
 
 	private List<Integer> faultStatusCodes = Collections.singletonList(
 			HttpServletResponse.SC_NOT_FOUND);
 	
 	
 	boolean signalFailure(String url) {
-		return currentRequests.size() > maxRequests && monitoredUrl.equalsIgnoreCase(url); 
+		return currentRequestCount.get() > maxRequests 
+				&& monitoredUrl.equalsIgnoreCase(url); 
 	}
 	
-	synchronized void updateStatsBefore(RequestStatsItem reqStats) {
-		totalRequestCount++;
-		currentRequests.add(reqStats);
-		if (parallelRequestsHWM < currentRequests.size()) {
-			parallelRequestsHWM = currentRequests.size();
+	void updateStatsBefore(RequestStatsItem reqStats) {
+		totalRequestCount.increment();
+		currentRequests.put(reqStats, Boolean.TRUE);
+		long count = currentRequestCount.incrementAndGet();
+		long hwm = parallelRequestsHWM.get();
+		while (count > hwm && !parallelRequestsHWM.compareAndSet(hwm, count)) {
+			hwm = parallelRequestsHWM.get();
 		}
 	}
 
-	void updateStatsAfter(RequestStatsItem reqStats) {
-		reqStats.responseDone();
-		synchronized (this) {
-			totalResponseTime += reqStats.getResponseTime();
-			currentRequests.remove(reqStats);
-			if (!ignoreUploads || !reqStats.isUpload()) {
-				checkCriticalCandidate(reqStats);
+	void updateStatsAfter(RequestStatsItem reqStats, RequestTiming timing) {
+		reqStats.responseDone(timing);
+		long responseTime = reqStats.getResponseTime();
+		totalResponseTime.add(responseTime);
+		currentRequests.remove(reqStats);
+		currentRequestCount.decrementAndGet();
+		if (!ignoreUploads || !reqStats.isUpload()) {
+			getUrlStats(reqStats.getName()).record(responseTime, timing);
+			intervalResponseTimes.get().record(responseTime);
+			checkCriticalCandidate(reqStats);
+		}
+	}
+	
+	private UrlStats getUrlStats(String uri) {
+		String key = getUrlPattern(uri);
+		UrlStats stats = urlStats.get(key);
+		if (stats == null) {
+			if (urlStats.size() >= maxUrlPatterns) {
+				key = OTHER_URLS;
+			}
+			stats = new UrlStats();
+			UrlStats existing = urlStats.putIfAbsent(key, stats);
+			if (existing != null) {
+				stats = existing;
+			}
+		}
+		return stats;
+	}
+	
+	/**
+	 * Returns the first configured pattern that matches the given URI, 
+	 * or the URI itself if no pattern matches.
+	 */
+	private String getUrlPattern(String uri) {
+		for (String pattern : urlPatterns) {
+			if (pathMatcher.match(pattern, uri)) {
+				return pattern;
 			}
 		}
+		return uri;
 	}
 	
 	private void checkCriticalCandidate(RequestStatsItem reqStats) {
 		if (reqStats.getResponseTime() > warnThreshold) {
-			if (criticalRequests.size() < maxListSize) {
-				addCriticalRequest(reqStats);
-			} 
-			else {
-				RequestStatsItem fastestReq = findFastest(criticalRequests);
-				if (reqStats.getResponseTime() > fastestReq.getResponseTime()) {
-					criticalRequests.remove(fastestReq);
+			synchronized (criticalRequests) {
+				if (criticalRequests.size() < maxListSize) {
 					addCriticalRequest(reqStats);
+				} 
+				else {
+					RequestStatsItem fastestReq = findFastest(criticalRequests);
+					if (reqStats.getResponseTime() > fastestReq.getResponseTime()) {
+						criticalRequests.remove(fastestReq);
+						addCriticalRequest(reqStats);
+					}
 				}
 			}
-			log.warn("Response time slow for URL {} ({} s)", 
-					reqStats.getName(), reqStats.getResponseTime() / 1000);
+			if (reqStats.getBreakdown() != null) {
+				log.warn("Response time slow for URL {} ({} ms: {})", new Object[] {
+						reqStats.getName(), reqStats.getResponseTime(), 
+						reqStats.getBreakdown()});
+			}
+			else {
+				log.warn("Response time slow for URL {} ({} s)", 
+						reqStats.getName(), reqStats.getResponseTime() / 1000);
+			}
 		}
 	}
 
+	/**
+	 * Inserts the item so that the list stays sorted by ascending 
+	 * response time.
+	 */
 	private void addCriticalRequest(RequestStatsItem reqStats) {
 		int i = 0;
 		for (RequestStatsItem item : criticalRequests) {
-			if (item.getResponseTime() < reqStats.getResponseTime()) {
+			if (item.getResponseTime() > reqStats.getResponseTime()) {
 				criticalRequests.add(i, reqStats);
 				return;
 			}
+			i++;
 		}
 		criticalRequests.add(reqStats);
 	}
 
-	private RequestStatsItem findFastest(LinkedList<RequestStatsItem> list) {
+	private RequestStatsItem findFastest(List<RequestStatsItem> list) {
 		if (!list.isEmpty()) {
-			return list.getFirst();
+			return list.get(0);
 		}
 		return null;
 	}
 
 	void checkFaultyResponse(HttpServletRequest request, Integer status) {
 		if (faultStatusCodes.contains(status)) {
-			synchronized (this) {
-				faultyResonseCount++;
+			faultyResonseCount.increment();
+			synchronized (faultyResponses) {
 				addFaultyResponse(
 						new FaultyRepsonseStatsItem(request, status));
 			}
@@ -141,22 +229,28 @@ public class RequestStats {
 		}
 		faultyResponses.add(reqStats);
 		if (faultyResponses.size() > maxListSize) {
-			faultyResponses.removeFirst();
+			faultyResponses.remove(0);
 		}
 	}
 	
-	public synchronized void reset() {
-		criticalRequests.clear();
-		faultyResponses.clear();
-		totalRequestCount = 0;
-		faultyResonseCount = 0;
-		totalResponseTime = 0;
-		parallelRequestsHWM = 0;
+	public void reset() {
+		synchronized (criticalRequests) {
+			criticalRequests.clear();
+		}
+		synchronized (faultyResponses) {
+			faultyResponses.clear();
+		}
+		urlStats.clear();
+		totalRequestCount.reset();
+		faultyResonseCount.reset();
+		totalResponseTime.reset();
+		parallelRequestsHWM.set(currentRequestCount.get());
 	}
 
 	public long getAvgResponseTime() {
-		if (totalRequestCount > 0) {
-			return totalResponseTime / (totalRequestCount);
+		long count = totalRequestCount.get();
+		if (count > 0) {
+			return totalResponseTime.get() / count;
 		}
 		return -1;
 	}
@@ -185,32 +279,76 @@ public class RequestStats {
 		this.monitoredUrl = monitoredUrl;
 	}
 
-	public synchronized int getCurrentRequestCount() {
-		return currentRequests.size();
+	/**
+	 * Sets a comma separated list of Ant-style patterns that are used to 
+	 * group the response times. Requests that don't match any pattern are 
+	 * grouped by their URI. 
+	 */
+	public void setUrlPatterns(String urlPatterns) {
+		ArrayList<String> patterns = Generics.newArrayList();
+		for (String pattern : StringUtils.commaDelimitedListToStringArray(urlPatterns)) {
+			pattern = pattern.trim();
+			if (pattern.length() > 0) {
+				patterns.add(pattern);
+			}
+		}
+		this.urlPatterns = patterns;
 	}
 
-	public int getTotalRequestCount() {
-		return totalRequestCount;
+	/**
+	 * Sets the maximum number of distinct URL patterns for which response
+	 * times are recorded. Requests for other URLs are grouped together once
+	 * the limit has been reached. Default is <code>500</code>.
+	 */
+	public void setMaxUrlPatterns(int maxUrlPatterns) {
+		this.maxUrlPatterns = maxUrlPatterns;
 	}
 
-	public int getFaultyResponseCount() {
-		return faultyResonseCount;
+	public int getCurrentRequestCount() {
+		return currentRequestCount.get();
+	}
+
+	public long getTotalRequestCount() {
+		return totalRequestCount.get();
+	}
+
+	public long getFaultyResponseCount() {
+		return faultyResonseCount.get();
 	}
 	
 	public long getTotalResponseTime() {
-		return totalResponseTime;
+		return totalResponseTime.get();
 	}
 
+	/**
+	 * Returns a snapshot of the requests that are currently processed.
+	 */
 	public List<RequestStatsItem> getCurrentRequests() {
-		return currentRequests;
+		return new ArrayList<RequestStatsItem>(currentRequests.keySet());
 	}
 
 	public List<RequestStatsItem> getCriticalRequests() {
-		return criticalRequests;
+		return Collections.unmodifiableList(criticalRequests);
 	}
 
-	public LinkedList<FaultyRepsonseStatsItem> getFaultyResponses() {
-		return faultyResponses;
+	public List<FaultyRepsonseStatsItem> getFaultyResponses() {
+		return Collections.unmodifiableList(faultyResponses);
+	}
+	
+	/**
+	 * Returns the response times recorded since the previous invocation 
+	 * and starts a new interval. Values that are recorded concurrently may 
+	 * be attributed to the next interval.
+	 */
+	public LatencyHistogram nextResponseTimeInterval() {
+		return intervalResponseTimes.getAndSet(new LatencyHistogram());
+	}
+	
+	/**
+	 * Returns the statistics keyed by URL pattern.
+	 */
+	public Map<String, UrlStats> getUrlStats() {
+		return Collections.unmodifiableMap(urlStats);
 	}
 	
 	public boolean isEnabled() {
@@ -230,13 +368,11 @@ public class RequestStats {
 	}
 
 	public long getParallelRequestsHWM() {
-		return parallelRequestsHWM;
+		return parallelRequestsHWM.get();
 	}
 
 	public long getCriticalRequestCount() {
-		synchronized (this) {
-			return criticalRequests.size();
-		}
+		return criticalRequests.size();
 	}
 
 	public void setFaultStatusCodes(String statusCodes) {
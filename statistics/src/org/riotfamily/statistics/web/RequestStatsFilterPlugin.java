@@ -21,6 +21,7 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 
 import org.riotfamily.common.web.filter.FilterPlugin;
+import org.riotfamily.common.web.support.RequestTiming;
 import org.riotfamily.statistics.domain.RequestStatsItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,21 +47,20 @@ public class RequestStatsFilterPlugin implements FilterPlugin {
 
 		RequestStatsItem item = new RequestStatsItem(request);
 
-		synchronized (this) {
-			if (stats.signalFailure(item.getName())) {
-				log.error("Maximum number of currentRequests reached ({}). Signalling failure...", stats.getMaxRequests());
-				response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
-				return;
-			}
+		if (stats.signalFailure(item.getName())) {
+			log.error("Maximum number of currentRequests reached ({}). Signalling failure...", stats.getMaxRequests());
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
 		}
 		
 		stats.updateStatsBefore(item);
 		StatusResponseWrapper statusResponse = new StatusResponseWrapper(response);
+		RequestTiming.start();
 		try {
 			filterChain.doFilter(request, statusResponse);
 		} 
 		finally {
-			stats.updateStatsAfter(item);
+			stats.updateStatsAfter(item, RequestTiming.stop());
 			stats.checkFaultyResponse(request, statusResponse.getStatus());			
 		}
 	}
@@ -0,0 +1,176 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.web;
+
+import java.io.PrintWriter;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.riotfamily.common.util.FormatUtils;
+import org.riotfamily.common.web.support.ServletUtils;
+import org.riotfamily.statistics.history.StatsHistory;
+import org.riotfamily.statistics.history.TimeSeries;
+import org.springframework.util.StringUtils;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.Controller;
+
+/**
+ * Controller that exports the {@link StatsHistory} so that it can be polled
+ * by a local monitoring agent. The format is selected by the extension of
+ * the requested URI: <code>.json</code> produces a JSON object, all other
+ * extensions produce tab-separated text with a header line. Rows are
+ * written one by one, without building the whole document in memory.
+ * Rows that are added while the export is running are left for the next
+ * poll.
+ * <p>
+ * Supported parameters:
+ * <ul>
+ * <li><code>resolution</code>: <code>second</code> (default) or
+ *     <code>minute</code></li>
+ * <li><code>since</code>: Only rows newer than the given timestamp
+ *     (milliseconds since the epoch) are exported. Pollers can pass the
+ *     timestamp of the last row they received.</li>
+ * </ul>
+ * Only requests from the configured addresses are served, all others are
+ * answered with <code>403 Forbidden</code>. If the history is disabled,
+ * <code>404 Not Found</code> is sent.
+ * <p>
+ * <b>Note:</b> The check relies on the remote address of the connection.
+ * If a reverse proxy runs on the same host, all requests appear to come
+ * from the loopback address. In this case the URI must be blocked in the
+ * proxy configuration.
+ */
+public class StatsHistoryController implements Controller {
+
+	private StatsHistory history;
+
+	private Set<String> allowedAddresses = StringUtils.commaDelimitedListToSet(
+			"127.0.0.1,0:0:0:0:0:0:0:1");
+
+	public StatsHistoryController(StatsHistory history) {
+		this.history = history;
+	}
+
+	/**
+	 * Sets a comma-separated list of IP addresses that may access the
+	 * history. Default is <code>127.0.0.1,0:0:0:0:0:0:0:1</code>.
+	 */
+	public void setAllowedAddresses(String addresses) {
+		this.allowedAddresses = StringUtils.commaDelimitedListToSet(
+				StringUtils.trimAllWhitespace(addresses));
+	}
+
+	public ModelAndView handleRequest(HttpServletRequest request,
+			HttpServletResponse response) throws Exception {
+
+		if (!history.isEnabled()) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return null;
+		}
+		if (!allowedAddresses.contains(request.getRemoteAddr())) {
+			response.sendError(HttpServletResponse.SC_FORBIDDEN);
+			return null;
+		}
+		TimeSeries series = "minute".equals(request.getParameter("resolution"))
+				? history.getMinutes() : history.getSeconds();
+
+		long since = 0;
+		String s = request.getParameter("since");
+		if (StringUtils.hasText(s)) {
+			try {
+				since = Long.parseLong(s);
+			}
+			catch (NumberFormatException e) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+				return null;
+			}
+		}
+
+		ServletUtils.setNoCacheHeaders(response);
+		String extension = FormatUtils.getExtension(
+				ServletUtils.getRequestUri(request));
+
+		if (extension.equals("json")) {
+			response.setContentType("application/json;charset=UTF-8");
+			writeJson(series, since, response.getWriter());
+		}
+		else {
+			response.setContentType("text/plain;charset=UTF-8");
+			writeText(series, since, response.getWriter());
+		}
+		return null;
+	}
+
+	private void writeText(TimeSeries series, long since, PrintWriter out) {
+		out.print("time");
+		for (String column : StatsHistory.COLUMNS) {
+			out.print('\t');
+			out.print(column);
+		}
+		out.print('\n');
+		double[] values = new double[StatsHistory.COLUMNS.length];
+		long time = since;
+		long until = System.currentTimeMillis();
+		while ((time = series.getNext(time, values)) != -1 && time <= until) {
+			out.print(time);
+			for (double value : values) {
+				out.print('\t');
+				out.print(format(value, "NaN"));
+			}
+			out.print('\n');
+		}
+	}
+
+	private void writeJson(TimeSeries series, long since, PrintWriter out) {
+		out.print("{\"interval\":");
+		out.print(series.getInterval());
+		out.print(",\"columns\":[\"time\"");
+		for (String column : StatsHistory.COLUMNS) {
+			out.print(",\"");
+			out.print(column);
+			out.print('"');
+		}
+		out.print("],\"rows\":[");
+		double[] values = new double[StatsHistory.COLUMNS.length];
+		long time = since;
+		long until = System.currentTimeMillis();
+		boolean first = true;
+		while ((time = series.getNext(time, values)) != -1 && time <= until) {
+			if (!first) {
+				out.print(',');
+			}
+			out.print("\n[");
+			out.print(time);
+			for (double value : values) {
+				out.print(',');
+				out.print(format(value, "null"));
+			}
+			out.print(']');
+			first = false;
+		}
+		out.print("]}");
+	}
+
+	private static String format(double value, String nan) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return nan;
+		}
+		if (value == Math.rint(value)) {
+			return String.valueOf((long) value);
+		}
+		return String.valueOf(Math.round(value * 1000) / 1000.0);
+	}
+
+}
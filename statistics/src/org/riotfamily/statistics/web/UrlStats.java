@@ -0,0 +1,108 @@
+/* Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.riotfamily.statistics.web;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.riotfamily.common.web.support.RequestTiming;
+
+/**
+ * Statistics for all requests that match a URL pattern. Besides the
+ * response times it sums up how much time the requests have spent in the
+ * categories reported by {@link RequestTiming}.
+ */
+public class UrlStats {
+
+	private LatencyHistogram responseTimes = new LatencyHistogram();
+
+	private AtomicLong timedRequests = new AtomicLong();
+
+	private AtomicLong otherTime = new AtomicLong();
+
+	private ConcurrentMap<String, AtomicLong> times =
+			new ConcurrentHashMap<String, AtomicLong>();
+
+	private ConcurrentMap<String, AtomicLong> counts =
+			new ConcurrentHashMap<String, AtomicLong>();
+
+	void record(long responseTime, RequestTiming timing) {
+		responseTimes.record(responseTime);
+		if (timing != null) {
+			timedRequests.incrementAndGet();
+			for (String category : timing.getCategories()) {
+				getCounter(times, category).addAndGet(timing.getTime(category));
+				getCounter(counts, category).addAndGet(timing.getCount(category));
+			}
+			otherTime.addAndGet(timing.getUnaccountedTime());
+		}
+	}
+
+	private static AtomicLong getCounter(
+			ConcurrentMap<String, AtomicLong> map, String category) {
+
+		AtomicLong counter = map.get(category);
+		if (counter == null) {
+			counter = new AtomicLong();
+			AtomicLong existing = map.putIfAbsent(category, counter);
+			if (existing != null) {
+				counter = existing;
+			}
+		}
+		return counter;
+	}
+
+	public LatencyHistogram getResponseTimes() {
+		return responseTimes;
+	}
+
+	/**
+	 * Returns the average time in milliseconds that a request has spent in
+	 * the given category, or <code>-1</code> if no timings have been
+	 * recorded.
+	 */
+	public long getAverageTime(String category) {
+		return average(times.get(category));
+	}
+
+	/**
+	 * Returns the average time in milliseconds that has not been attributed
+	 * to any category, or <code>-1</code> if no timings have been recorded.
+	 */
+	public long getAverageOtherTime() {
+		return average(otherTime);
+	}
+
+	/**
+	 * Returns how often the given category has been entered per request,
+	 * or <code>-1</code> if no timings have been recorded.
+	 */
+	public double getAverageCount(String category) {
+		long n = timedRequests.get();
+		if (n == 0) {
+			return -1;
+		}
+		AtomicLong count = counts.get(category);
+		return count != null ? (double) count.get() / n : 0;
+	}
+
+	private long average(AtomicLong sum) {
+		long n = timedRequests.get();
+		if (n == 0) {
+			return -1;
+		}
+		return sum != null ? sum.get() / n : 0;
+	}
+
+}